@@ -15,6 +15,10 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import com.etsy.statsd.profiler.reporter.AsyncReporter;
+import com.etsy.statsd.profiler.reporter.CompositeReporter;
+import com.etsy.statsd.profiler.reporter.MetricSnapshot;
+import com.etsy.statsd.profiler.reporter.PrometheusReporter;
 import com.etsy.statsd.profiler.reporter.Reporter;
 import com.etsy.statsd.profiler.server.ProfilerServer;
 import com.etsy.statsd.profiler.worker.ProfilerShutdownHookWorker;
@@ -57,6 +61,12 @@ public final class Agent {
 		Arguments arguments = Arguments.parseArgs(args);
 		Agent.arguments = arguments;
 		reporter = instantiate(arguments.reporter, Reporter.CONSTRUCTOR_PARAM_TYPES, arguments);
+		// A CompositeReporter already queues the points for each of its reporters, and spooling needs the writer thread
+		boolean async = Boolean.parseBoolean(arguments.getStringArgument(AsyncReporter.ENABLED_ARG))
+				|| arguments.getStringArgument(AsyncReporter.SPOOL_DIR_ARG) != null;
+		if (async && !(reporter instanceof CompositeReporter)) {
+			reporter = new AsyncReporter(reporter, arguments);
+		}
 
 		profilers = new ArrayList<>();
 		for (Class<? extends Profiler> profiler : arguments.profilers) {
@@ -65,7 +75,7 @@ public final class Agent {
 		}
 
 		scheduleProfilers(profilers, arguments);
-		registerShutdownHook(profilers);
+		registerShutdownHook(profilers, reporter);
 	}
 
 	/**
@@ -93,7 +103,7 @@ public final class Agent {
 
 		if (arguments.httpServerEnabled) {
 			ProfilerServer.startServer(scheduledExecutorService, runningProfilers, activeProfilers,
-					new AtomicInteger(arguments.httpPort), isRunning, errors);
+					new AtomicInteger(arguments.httpPort), isRunning, errors, findSnapshot(reporter));
 		}
 	}
 
@@ -127,12 +137,36 @@ public final class Agent {
 	 * Register a shutdown hook to flush profiler data to StatsD
 	 *
 	 * @param profilers The profilers to flush at shutdown
+	 * @param reporter The reporter to close once the profilers are flushed
 	 */
-	private static void registerShutdownHook(Collection<Profiler> profilers) {
-		Thread shutdownHook = new Thread(new ProfilerShutdownHookWorker(profilers, isRunning));
+	private static void registerShutdownHook(Collection<Profiler> profilers, Reporter<?> reporter) {
+		Thread shutdownHook = new ProfilerThreadFactory().newThread(
+				new ProfilerShutdownHookWorker(profilers, reporter, isRunning));
 		Runtime.getRuntime().addShutdownHook(shutdownHook);
 	}
 
+	/**
+	 * Find the snapshot of a PrometheusReporter, which may be wrapped in an AsyncReporter or a CompositeReporter
+	 *
+	 * @param reporter The reporter the profilers report to
+	 * @return The snapshot to serve on /metrics, or null if there is no PrometheusReporter
+	 */
+	private static MetricSnapshot findSnapshot(Reporter<?> reporter) {
+		if (reporter instanceof PrometheusReporter) {
+			return ((PrometheusReporter) reporter).getSnapshot();
+		} else if (reporter instanceof AsyncReporter) {
+			return findSnapshot(((AsyncReporter) reporter).getDelegate());
+		} else if (reporter instanceof CompositeReporter) {
+			for (Reporter<?> composed : ((CompositeReporter) reporter).getReporters()) {
+				MetricSnapshot snapshot = findSnapshot(composed);
+				if (snapshot != null) {
+					return snapshot;
+				}
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Uniformed handling of initialization exception
 	 *
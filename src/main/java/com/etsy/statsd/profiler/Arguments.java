@@ -1,8 +1,10 @@
 package com.etsy.statsd.profiler;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -11,6 +13,9 @@ import java.util.Map.Entry;
 import java.util.Set;
 
 import com.etsy.statsd.profiler.profilers.MemoryProfiler;
+import com.etsy.statsd.profiler.reporter.CompositeReporter;
+import com.etsy.statsd.profiler.reporter.FoldedStackReporter;
+import com.etsy.statsd.profiler.reporter.PrometheusReporter;
 import com.etsy.statsd.profiler.reporter.Reporter;
 import com.etsy.statsd.profiler.reporter.StatsDReporter;
 import com.google.common.base.Optional;
@@ -34,6 +39,8 @@ public final class Arguments {
 	private static final String HTTP_SEVER_ENABLED = "httpServerEnabled";
 
 	private static final Collection<String> REQUIRED = Arrays.asList(SERVER, PORT);
+	private static final Collection<Class<?>> LOCAL_REPORTERS = Arrays.<Class<?>>asList(PrometheusReporter.class,
+			FoldedStackReporter.class);
 
 	public String server;
 	public int port;
@@ -41,6 +48,8 @@ public final class Arguments {
 	public Set<Class<? extends Profiler>> profilers;
 	public Map<String, Object> parsedArgs;
 	public Class<? extends Reporter<?>> reporter;
+	// The reporters to fan out to when several are given, in which case reporter is the CompositeReporter
+	public List<Class<? extends Reporter<?>>> reporters;
 	public int httpPort;
 	public boolean httpServerEnabled;
 
@@ -54,13 +63,22 @@ public final class Arguments {
 		metricsPrefix = Optional.fromNullable(this.getStringArgument(METRICS_PREFIX))
 				.or("statsd-jvm-profiler");
 		profilers = parseProfilerArg(this.getStringArgument(PROFILERS));
-		reporter = parserReporterArg(this.getStringArgument(REPORTER));
+		reporters = new ArrayList<>();
+		for (String reporterArg : this.getStringListArguments(REPORTER)) {
+			reporters.add(parserReporterArg(reporterArg));
+		}
+		if (reporters.isEmpty()) {
+			reporters.add(parserReporterArg(null));
+		}
+		reporter = reporters.size() == 1 ? reporters.get(0) : CompositeReporter.class;
 		httpPort = Integer
 				.parseInt(Optional.fromNullable(this.getStringArgument(HTTP_PORT)).or("5005"));
 		httpServerEnabled = Boolean.parseBoolean(
 				Optional.fromNullable(this.getStringArgument(HTTP_SEVER_ENABLED)).or("true"));
 
-		for (String requiredArg : REQUIRED) {
+		// Reporters that are scraped or write locally have no server to send to
+		boolean localOnly = LOCAL_REPORTERS.containsAll(reporters);
+		for (String requiredArg : localOnly ? Collections.<String>emptyList() : REQUIRED) {
 			if (!this.parsedArgs.containsKey(requiredArg)) {
 				throw new IllegalArgumentException(
 						String.format("%s argument was not supplied", requiredArg));
@@ -95,6 +113,26 @@ public final class Arguments {
 		}
 	}
 
+	/**
+	 * Get the arguments for one of several components of the same kind, such as one reporter of a CompositeReporter
+	 * An argument named after the component, as in name-key, overrides the argument key, so for instance
+	 * InfluxDBReporter-port=8086 sets the port for the InfluxDBReporter only
+	 *
+	 * @param name The simple class name of the component
+	 * @return A copy of these arguments with the component's arguments overriding the shared ones
+	 */
+	public Arguments forComponent(String name) {
+		Map<String, Object> componentArgs = new HashMap<>(parsedArgs);
+		String prefix = name + "-";
+		for (Entry<String, Object> arg : parsedArgs.entrySet()) {
+			if (arg.getKey().startsWith(prefix) && arg.getKey().length() > prefix.length()) {
+				componentArgs.put(arg.getKey().substring(prefix.length()), arg.getValue());
+			}
+		}
+
+		return new Arguments(componentArgs);
+	}
+
 	public String getStringArgument(String key) {
 		Object value = parsedArgs.get(key);
 		if (value != null) {
@@ -3,6 +3,7 @@ package com.etsy.statsd.profiler;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import com.etsy.statsd.profiler.reporter.GaugeBatch;
 import com.etsy.statsd.profiler.reporter.Reporter;
 import com.google.common.base.Preconditions;
 
@@ -68,33 +69,73 @@ public abstract class Profiler {
 	protected abstract void handleArguments(Arguments arguments);
 
 	/**
-	 * Record a gauge value
+	 * Record a gauge value sampled now
 	 *
 	 * @param key The key for the gauge
 	 * @param value The value of the gauge
 	 */
 	protected void recordGaugeValue(String key, long value) {
-		recordedStats++;
-		reporter.recordGaugeValue(key, value);
+		recordGaugeValue(key, value, System.currentTimeMillis());
 	}
 
 	/**
 	 * @see #recordGaugeValue(String, long)
 	 */
 	protected void recordGaugeValue(String key, double value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	/**
+	 * Record a gauge value sampled at a given time
+	 * Profilers that report some time after sampling should pass the sampling time, so buffered reporters keep it
+	 *
+	 * @param key The key for the gauge
+	 * @param value The value of the gauge
+	 * @param timestamp The time at which the value was sampled, in milliseconds since the epoch
+	 */
+	protected void recordGaugeValue(String key, long value, long timestamp) {
+		recordedStats++;
+		reporter.recordGaugeValue(key, value, timestamp);
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long, long)
+	 */
+	protected void recordGaugeValue(String key, double value, long timestamp) {
 		recordedStats++;
-		reporter.recordGaugeValue(key, value);
+		reporter.recordGaugeValue(key, value, timestamp);
 	}
 
 	/**
-	 * Record multiple gauge values
+	 * Record multiple gauge values sampled now
 	 * This is useful for reporters that can send points in batch
 	 *
 	 * @param gauges A map of gauge names to values
 	 */
 	protected void recordGaugeValues(Map<String, ? extends Number> gauges) {
+		recordGaugeValues(gauges, System.currentTimeMillis());
+	}
+
+	/**
+	 * Record multiple gauge values sampled at a given time
+	 *
+	 * @param gauges A map of gauge names to values
+	 * @param timestamp The time at which the values were sampled, in milliseconds since the epoch
+	 */
+	protected void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+		recordedStats++;
+		reporter.recordGaugeValues(gauges, timestamp);
+	}
+
+	/**
+	 * Record a batch of gauge values, each sampled at its own time
+	 * Profilers should keep one batch and clear it before filling it again, so no values are boxed or copied
+	 *
+	 * @param batch The gauges to record
+	 */
+	protected void recordGaugeBatch(GaugeBatch batch) {
 		recordedStats++;
-		reporter.recordGaugeValues(gauges);
+		reporter.recordGaugeBatch(batch);
 	}
 
 	public long getRecordedStats() {
@@ -0,0 +1,283 @@
+package com.etsy.statsd.profiler.profilers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.etsy.statsd.profiler.Arguments;
+import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.reporter.Reporter;
+import com.etsy.statsd.profiler.util.LongCounterTable;
+import com.etsy.statsd.profiler.util.TagUtil;
+import com.etsy.statsd.profiler.util.ThreadNameNormalizer;
+
+/**
+ * Profiles the allocation rate of each thread
+ *
+ * The bytes allocated by every live thread are read with a single bulk
+ * com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long[]) call. The allocation rate in bytes per second
+ * is reported per thread pool, where pools are found by normalizing thread names, along with the
+ * allocation rate of the heaviest allocating threads.
+ *
+ * Thread names are read for new threads on every sample, and for every thread once per name refresh interval,
+ * so threads renamed after they were first seen, as pooled executors often do, move to their new pool.
+ */
+public class AllocationProfiler extends Profiler {
+	public static final String TOP_THREADS_ARG = "allocationTopThreads";
+	public static final int DEFAULT_TOP_THREADS = 10;
+
+	public static final String RATE = "bytes_per_sec";
+	public static final String TOTAL_METRIC = "alloc" + TagUtil.TAG_SEPARATOR + RATE;
+	public static final String POOL_PREFIX = "alloc.pool,pool=";
+	public static final String THREAD_PREFIX = "alloc.thread,thread=";
+
+	private static final Logger LOGGER = Logger.getLogger(AllocationProfiler.class.getName());
+	// How many dead threads may be remembered before the table of previous allocations is cleared
+	private static final int MAX_STALE_THREADS = 1024;
+	// How often the names of every thread are read again, to notice renamed threads
+	private static final long NAME_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+	private long period;
+	private int topThreads;
+	private String[] threadNameRules;
+
+	private final ThreadMXBean threadMXBean;
+	private final com.sun.management.ThreadMXBean allocationMXBean;
+	private final ThreadNameNormalizer threadNames;
+
+	// Allocated bytes of each thread at the previous sample, stored plus one so 0 means not seen
+	private final LongCounterTable lastAllocatedBytes = new LongCounterTable();
+	private final LongCounterTable poolBytes = new LongCounterTable();
+	private final Map<String, String> poolMetrics = new HashMap<>();
+	private long lastSampleNanos;
+	private long lastNameRefreshNanos;
+
+	private long[] missingIds = new long[0];
+	private final long[] topIds;
+	private final long[] topBytes;
+
+	public AllocationProfiler(Reporter reporter, Arguments arguments) {
+		super(reporter, arguments);
+		this.period = arguments.getIntArgument("AllocationProfiler-period");
+		if (this.period == -1) {
+			this.period = arguments.getIntArgument("period");
+		}
+		if (this.period == -1) {
+			this.period = 1;
+		}
+
+		threadNames = new ThreadNameNormalizer(threadNameRules);
+		threadMXBean = ManagementFactory.getThreadMXBean();
+		allocationMXBean = getAllocationMXBean(threadMXBean);
+		if (allocationMXBean == null) {
+			LOGGER.warning("This JVM does not support measuring thread allocation, no allocation rates will be reported");
+		} else if (!allocationMXBean.isThreadAllocatedMemoryEnabled()) {
+			allocationMXBean.setThreadAllocatedMemoryEnabled(true);
+		}
+		topIds = new long[topThreads];
+		topBytes = new long[topThreads];
+	}
+
+	/**
+	 * Profile the allocation rate of all threads
+	 */
+	@Override
+	public void profile() {
+		recordStats();
+	}
+
+	@Override
+	public void flushData() {
+		recordStats();
+	}
+
+	@Override
+	public long getPeriod() {
+		return period;
+	}
+
+	@Override
+	public TimeUnit getTimeUnit() {
+		return TimeUnit.SECONDS;
+	}
+
+	@Override
+	protected void handleArguments(Arguments arguments) {
+		topThreads = arguments.getIntArgument(TOP_THREADS_ARG);
+		if (topThreads < 0) {
+			topThreads = DEFAULT_TOP_THREADS;
+		}
+		threadNameRules = arguments.getStringListArguments(ThreadNameNormalizer.RULES_ARG);
+	}
+
+	/**
+	 * Records the allocation rate of each pool and of the heaviest allocating threads
+	 */
+	private void recordStats() {
+		if (allocationMXBean == null) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		long[] threadIds = threadMXBean.getAllThreadIds();
+		long[] allocatedBytes = allocationMXBean.getThreadAllocatedBytes(threadIds);
+		cacheThreadNames(threadIds, now);
+
+		if (lastAllocatedBytes.capacityUsed() > threadIds.length + MAX_STALE_THREADS) {
+			lastAllocatedBytes.clear();
+		}
+
+		Arrays.fill(topBytes, 0);
+		long totalBytes = 0;
+		for (int i = 0; i < threadIds.length; i++) {
+			if (allocatedBytes[i] < 0) {
+				continue;
+			}
+			long previous = lastAllocatedBytes.put(threadIds[i], null, allocatedBytes[i] + 1);
+			long delta = allocatedBytes[i] - (previous - 1);
+			if (previous == 0 || delta <= 0) {
+				continue;
+			}
+
+			String pool = threadNames.getCachedPool(threadIds[i]);
+			if (pool == null) {
+				pool = ThreadNameNormalizer.UNKNOWN;
+			}
+			poolBytes.add(LongCounterTable.hash(pool), pool, delta);
+			totalBytes += delta;
+			offerTopThread(threadIds[i], delta);
+		}
+
+		long elapsed = now - lastSampleNanos;
+		boolean first = lastSampleNanos == 0;
+		lastSampleNanos = now;
+		if (first || elapsed <= 0) {
+			poolBytes.reset();
+			return;
+		}
+
+		Map<String, Long> metrics = new HashMap<>();
+		metrics.put(TOTAL_METRIC, toRate(totalBytes, elapsed));
+		for (int i = 0; i < poolBytes.size(); i++) {
+			if (poolBytes.countAt(i) > 0) {
+				metrics.put(getPoolMetric((String) poolBytes.keyAt(i)), toRate(poolBytes.countAt(i), elapsed));
+			}
+		}
+		poolBytes.reset();
+		recordTopThreads(metrics, elapsed);
+
+		recordGaugeValues(metrics);
+	}
+
+	/**
+	 * Normalize the names of the threads that have not been seen before, with a single ThreadInfo call
+	 * Once per name refresh interval the names of every thread are read, and renamed threads are normalized again
+	 *
+	 * @param threadIds The ids of all live threads
+	 * @param now The time of the sample, from System.nanoTime()
+	 */
+	private void cacheThreadNames(long[] threadIds, long now) {
+		if (lastNameRefreshNanos == 0 || now - lastNameRefreshNanos >= NAME_REFRESH_INTERVAL_NANOS) {
+			lastNameRefreshNanos = now;
+			normalizeThreadNames(threadMXBean.getThreadInfo(threadIds, 0));
+			return;
+		}
+
+		if (missingIds.length < threadIds.length) {
+			missingIds = new long[threadIds.length];
+		}
+		int missing = 0;
+		for (long id : threadIds) {
+			if (threadNames.getCachedPool(id) == null) {
+				missingIds[missing++] = id;
+			}
+		}
+		if (missing == 0) {
+			return;
+		}
+
+		normalizeThreadNames(threadMXBean.getThreadInfo(Arrays.copyOf(missingIds, missing), 0));
+	}
+
+	/**
+	 * Normalize and cache the current name of each thread, which recomputes the pool of renamed threads
+	 */
+	private void normalizeThreadNames(ThreadInfo[] infos) {
+		for (ThreadInfo info : infos) {
+			if (info != null) {
+				threadNames.normalize(info.getThreadId(), info.getThreadName());
+			}
+		}
+	}
+
+	/**
+	 * Keep the threads that allocated the most, in descending order of bytes
+	 *
+	 * @param threadId The id of the thread
+	 * @param bytes The bytes the thread allocated since the previous sample
+	 */
+	private void offerTopThread(long threadId, long bytes) {
+		int position = topThreads;
+		while (position > 0 && topBytes[position - 1] < bytes) {
+			position--;
+		}
+		if (position == topThreads) {
+			return;
+		}
+
+		System.arraycopy(topBytes, position, topBytes, position + 1, topThreads - position - 1);
+		System.arraycopy(topIds, position, topIds, position + 1, topThreads - position - 1);
+		topBytes[position] = bytes;
+		topIds[position] = threadId;
+	}
+
+	private void recordTopThreads(Map<String, Long> metrics, long elapsedNanos) {
+		for (int i = 0; i < topThreads && topBytes[i] > 0; i++) {
+			String name = threadNames.getCachedName(topIds[i]);
+			if (name != null) {
+				String thread = ThreadNameNormalizer.toThreadTagValue(name);
+				metrics.put(THREAD_PREFIX + thread + TagUtil.TAG_SEPARATOR + RATE, toRate(topBytes[i], elapsedNanos));
+			}
+		}
+	}
+
+	private String getPoolMetric(String pool) {
+		String metric = poolMetrics.get(pool);
+		if (metric == null) {
+			metric = POOL_PREFIX + pool + TagUtil.TAG_SEPARATOR + RATE;
+			poolMetrics.put(pool, metric);
+		}
+
+		return metric;
+	}
+
+	private static long toRate(long bytes, long elapsedNanos) {
+		return (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos);
+	}
+
+	/**
+	 * Get the HotSpot extension of the ThreadMXBean, which can measure thread allocation
+	 *
+	 * @param threadMXBean The platform ThreadMXBean
+	 * @return The bean as a com.sun.management.ThreadMXBean, or null if thread allocation cannot be measured
+	 */
+	static com.sun.management.ThreadMXBean getAllocationMXBean(ThreadMXBean threadMXBean) {
+		try {
+			if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadMXBean;
+				if (bean.isThreadAllocatedMemorySupported()) {
+					return bean;
+				}
+			}
+		} catch (LinkageError e) {
+			// Not a HotSpot-derived JVM
+		}
+
+		return null;
+	}
+}
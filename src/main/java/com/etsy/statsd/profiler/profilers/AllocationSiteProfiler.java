@@ -0,0 +1,124 @@
+package com.etsy.statsd.profiler.profilers;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.etsy.statsd.profiler.Arguments;
+import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.reporter.Reporter;
+import com.etsy.statsd.profiler.util.CPUTraces;
+import com.etsy.statsd.profiler.util.JfrSampler;
+import com.etsy.statsd.profiler.util.JfrSupport;
+import com.google.common.base.Optional;
+
+/**
+ * Profiles which stacks allocate memory, using JFR jdk.ObjectAllocationSample events
+ *
+ * Samples are weighted by the bytes they stand for and recorded under alloc.trace, tagged with the allocated class,
+ * in the same key format as the CPU traces so they can be rendered as allocation flame graphs.
+ * Requires JFR event streaming (JDK 16 or later for the allocation sample event).
+ *
+ * @see JfrSupport#newAllocationSampler(CPUTraces, String, String, int)
+ */
+public class AllocationSiteProfiler extends Profiler {
+	public static final String TRACE_PREFIX = "alloc.trace,class=";
+	public static final String THROTTLE_ARG = "allocationSampleThrottle";
+	public static final String DEFAULT_THROTTLE = "100/s";
+
+	private static final String MAX_STACK_DEPTH_ARG = "maxStackDepth";
+	private static final Logger LOGGER = Logger.getLogger(AllocationSiteProfiler.class.getName());
+
+	private long period;
+	private int maxStackDepth;
+	private String throttle;
+
+	private final CPUTraces traces;
+	private final JfrSampler sampler;
+
+	public AllocationSiteProfiler(Reporter reporter, Arguments arguments) {
+		super(reporter, arguments);
+		this.period = arguments.getIntArgument("AllocationSiteProfiler-period");
+		if (this.period == -1) {
+			this.period = arguments.getIntArgument("period");
+		}
+		if (this.period == -1) {
+			this.period = 10;
+		}
+
+		traces = new CPUTraces();
+		sampler = startSampler();
+	}
+
+	/**
+	 * Report the allocation sites sampled since the previous call
+	 * Sampling itself happens on the JFR stream's thread
+	 */
+	@Override
+	public void profile() {
+		recordTraces();
+	}
+
+	@Override
+	public void flushData() {
+		recordTraces();
+		if (sampler != null) {
+			sampler.close();
+		}
+	}
+
+	@Override
+	public long getPeriod() {
+		return period;
+	}
+
+	@Override
+	public TimeUnit getTimeUnit() {
+		return TimeUnit.SECONDS;
+	}
+
+	@Override
+	protected void handleArguments(Arguments arguments) {
+		maxStackDepth = arguments.getIntArgument(MAX_STACK_DEPTH_ARG);
+		if (maxStackDepth <= 0) {
+			maxStackDepth = Integer.MAX_VALUE;
+		}
+		throttle = Optional.fromNullable(arguments.getStringArgument(THROTTLE_ARG)).or(DEFAULT_THROTTLE);
+	}
+
+	private void recordTraces() {
+		Map<String, Number> data;
+		synchronized (traces) {
+			data = traces.getDataToFlush();
+		}
+		if (data.size() > 0) {
+			recordGaugeValues(data);
+		}
+	}
+
+	/**
+	 * Start sampling allocations with JFR
+	 *
+	 * @return The running JFR sampler, or null if JFR is not available
+	 */
+	private JfrSampler startSampler() {
+		if (!JfrSupport.isAvailable()) {
+			LOGGER.warning("JFR event streaming is not available, no allocation sites will be reported");
+			return null;
+		}
+		if (!JfrSupport.isEventAvailable(JfrSupport.ALLOCATION_SAMPLE_EVENT)) {
+			LOGGER.warning("JFR has no " + JfrSupport.ALLOCATION_SAMPLE_EVENT
+					+ " event before JDK 16, no allocation sites will be reported");
+			return null;
+		}
+
+		try {
+			JfrSampler jfr = JfrSupport.newAllocationSampler(traces, TRACE_PREFIX, throttle, maxStackDepth);
+			jfr.start();
+			return jfr;
+		} catch (Exception | LinkageError e) {
+			LOGGER.warning("Unable to start JFR allocation sampling, no allocation sites will be reported: " + e);
+			return null;
+		}
+	}
+}
@@ -4,6 +4,8 @@ import com.google.common.collect.ImmutableMap;
 
 import com.etsy.statsd.profiler.Arguments;
 import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.reporter.GaugeBatch;
+import com.etsy.statsd.profiler.reporter.MetricName;
 import com.etsy.statsd.profiler.reporter.Reporter;
 
 import java.lang.management.ManagementFactory;
@@ -31,10 +33,13 @@ import javax.management.ReflectionException;
 public class CPULoadProfiler extends Profiler {
 
   public static final long PERIOD = 10;
-  private static final Map<String, String> ATTRIBUTES_MAP = ImmutableMap.of("ProcessCpuLoad", "cpu.jvm",
-                                                                            "SystemCpuLoad",  "cpu.system");
+  private static final Map<String, MetricName> ATTRIBUTES_MAP = ImmutableMap.of(
+      "ProcessCpuLoad", MetricName.of("cpu.jvm"),
+      "SystemCpuLoad",  MetricName.of("cpu.system"));
 
   private AttributeList list;
+  // Reused by every tick, guarded by this
+  private final GaugeBatch metrics = new GaugeBatch(ATTRIBUTES_MAP.size());
 
   public CPULoadProfiler(Reporter reporter, Arguments arguments) {
     super(reporter, arguments);
@@ -77,14 +82,17 @@ public class CPULoadProfiler extends Profiler {
   /**
    * Records all memory statistics
    */
-  private void recordStats() {
+  private synchronized void recordStats() {
     if (list == null) {
       return;
     }
 
+    long timestamp = System.currentTimeMillis();
+    metrics.clear();
+
     Attribute att;
     Double value;
-    String metric;
+    MetricName metric;
     for (Object o : list) {
       att = (Attribute) o;
       value = (Double) att.getValue();
@@ -99,7 +107,11 @@ public class CPULoadProfiler extends Profiler {
       }
 
       value = ((int) (value * 1000)) / 10.0d; // 0-100 with 1-decimal precision
-      recordGaugeValue(metric, value);
+      metrics.add(metric, value, timestamp);
+    }
+
+    if (!metrics.isEmpty()) {
+      recordGaugeBatch(metrics);
     }
   }
 }
@@ -3,51 +3,117 @@ package com.etsy.statsd.profiler.profilers;
 import java.lang.management.ThreadInfo;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
 
 import com.etsy.statsd.profiler.Arguments;
 import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.reporter.GaugeBatch;
+import com.etsy.statsd.profiler.reporter.MetricName;
 import com.etsy.statsd.profiler.reporter.Reporter;
 import com.etsy.statsd.profiler.util.CPUTraces;
+import com.etsy.statsd.profiler.util.FlameGraph;
+import com.etsy.statsd.profiler.util.JfrSampler;
+import com.etsy.statsd.profiler.util.JfrSupport;
 import com.etsy.statsd.profiler.util.Range;
+import com.etsy.statsd.profiler.util.SamplingGovernor;
 import com.etsy.statsd.profiler.util.StackTraceFilter;
-import com.etsy.statsd.profiler.util.StackTraceFormatter;
 import com.etsy.statsd.profiler.util.TagUtil;
-import com.etsy.statsd.profiler.util.ThreadDumper;
+import com.etsy.statsd.profiler.util.ThreadCpuTimer;
+import com.etsy.statsd.profiler.util.ThreadNameNormalizer;
+import com.etsy.statsd.profiler.util.ThreadSampler;
 import com.etsy.statsd.profiler.util.TimeUtil;
 import com.etsy.statsd.profiler.worker.ProfilerThreadFactory;
-import com.google.common.base.Predicate;
+import com.google.common.base.Optional;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 
 /**
  * Profiles CPU time spent in each method
  *
+ * Sampling and reporting are split: every reporting period the sampling thread only swaps the double-buffered
+ * traces, and a separate flush thread drains the inactive buffer and hands it to the reporter.
+ * If the previous flush is still running, e.g. because the backend is slow, the swap is skipped and the active
+ * buffer keeps accumulating until the next period, so the sampling cadence never depends on the backend.
+ *
  * @author Andrew Johnson
  */
 public class CPUTracingProfiler extends Profiler {
 	private static final String PACKAGE_WHITELIST_ARG = "packageWhitelist";
 	private static final String PACKAGE_BLACKLIST_ARG = "packageBlacklist";
+	private static final String MAX_STACK_DEPTH_ARG = "maxStackDepth";
+	private static final String SAMPLER_ARG = "cpuSampler";
+	private static final String OVERHEAD_BUDGET_ARG = "cpuOverheadBudget";
+	private static final String MAX_PERIOD_ARG = "cpuMaxPeriod";
+	private static final String MODE_ARG = "cpuTraceMode";
+	private static final String WEIGHT_ARG = "cpuTraceWeight";
+	private static final String BY_POOL_ARG = "cpuTraceByPool";
+	private static final String MAX_TRACES_ARG = "cpuMaxTraces";
+	private static final String FLAME_GRAPH_HISTORY_ARG = "flameGraphHistory";
+	private static final long DEFAULT_MAX_PERIOD = 1000;
+	private static final int DEFAULT_FLAME_GRAPH_HISTORY = 300;
+	private static final long FLUSH_TIMEOUT_SECONDS = 1;
+	private static final Logger LOGGER = Logger.getLogger(CPUTracingProfiler.class.getName());
+
+	public static final String THREAD_MX_BEAN_SAMPLER = "threadmxbean";
+	public static final String JFR_SAMPLER = "jfr";
+	public static final String CPU_MODE = "cpu";
+	public static final String WALL_CLOCK_MODE = "wall";
+	public static final String SAMPLE_WEIGHT = "samples";
+	public static final String CPU_TIME_WEIGHT = "cputime";
 
 	public static final long REPORTING_PERIOD = 1;
 	private int period = 10;
 	public static final List<String> EXCLUDE_PACKAGES = Arrays.asList("com.etsy.statsd.profiler",
 			"com.timgroup.statsd");
+	public static final String TRACE_PREFIX = "cpu.trace" + TagUtil.TAG_SEPARATOR;
+	public static final String OFF_CPU_TRACE_PREFIX = "offcpu.trace";
+	public static final String STATE_TAG = "state";
+	public static final String POOL_TAG = "pool";
+	public static final String PERIOD_METRIC = "profiler" + TagUtil.TAG_SEPARATOR + "cpu.trace.period";
+	public static final String OVERHEAD_METRIC = "profiler" + TagUtil.TAG_SEPARATOR + "cpu.trace.overhead";
+	private static final MetricName PERIOD_NAME = MetricName.of(PERIOD_METRIC);
+	private static final MetricName OVERHEAD_NAME = MetricName.of(OVERHEAD_METRIC);
 
 	private final CPUTraces traces;
 	private long profileCount;
 	private StackTraceFilter filter;
+	private int maxStackDepth;
+	private String samplerType;
+	private boolean wallClock;
+	private boolean cpuTimeWeighted;
+	private boolean byPool;
+	private int maxTraces;
+	private String[] threadNameRules;
+	private int flameGraphHistory;
+	private final FlameGraph flameGraph;
+	// Trace key prefixes indexed by Thread.State ordinal, and the same prefixes tagged with each pool
+	private final String[] statePrefixes;
+	private final Map<String, String[]> poolPrefixes = new HashMap<>();
+	private final ThreadNameNormalizer threadNames;
+	private double overheadBudget;
+	private long maxPeriod;
+	private final ThreadSampler sampler;
+	private final SamplingGovernor governor;
+	private final ThreadCpuTimer cpuTimer;
+	private final JfrSampler jfrSampler;
 	private final long reportingFrequency;
+	private final ExecutorService flushExecutor;
+	// Set while a flush of the inactive buffer is in progress
+	private final AtomicBoolean flushing = new AtomicBoolean();
+	// Reused by every flush, only accessed while flushing is set
+	private final GaugeBatch traceBatch = new GaugeBatch();
 
 	public CPUTracingProfiler(Reporter reporter, Arguments arguments) {
 		super(reporter, arguments);
-		traces = new CPUTraces();
-		profileCount = 0;
-		reportingFrequency = TimeUtil.convertReportingPeriod(getPeriod(), getTimeUnit(),
-				REPORTING_PERIOD, TimeUnit.SECONDS);
 		this.period = arguments.getIntArgument("CPUTracingProfiler-period");
 		if (this.period == -1) {
 			this.period = arguments.getIntArgument("period");
@@ -55,6 +121,32 @@ public class CPUTracingProfiler extends Profiler {
 		if (this.period == -1) {
 			this.period = 10;
 		}
+
+		traces = new CPUTraces(filter, maxTraces);
+		flameGraph = flameGraphHistory > 0 ? new FlameGraph(TimeUnit.SECONDS.toMillis(flameGraphHistory)) : null;
+		traces.setFlameGraph(flameGraph);
+		statePrefixes = getStatePrefixes(wallClock);
+		threadNames = byPool ? new ThreadNameNormalizer(threadNameRules) : null;
+		if (wallClock && JFR_SAMPLER.equals(samplerType)) {
+			LOGGER.warning("JFR only samples running threads, using the ThreadMXBean sampler for wall-clock mode");
+		}
+		jfrSampler = JFR_SAMPLER.equals(samplerType) && !wallClock ? startJfrSampler() : null;
+		sampler = jfrSampler == null ? new ThreadSampler(maxStackDepth) : null;
+		if (cpuTimeWeighted && sampler == null) {
+			LOGGER.warning("CPU time weighting is only supported by the ThreadMXBean sampler");
+		} else if (cpuTimeWeighted && !ThreadCpuTimer.isSupported()) {
+			LOGGER.warning("This JVM does not support measuring thread CPU time, counting samples instead");
+		}
+		cpuTimer = cpuTimeWeighted && sampler != null && ThreadCpuTimer.isSupported() ? new ThreadCpuTimer() : null;
+		governor = sampler != null && overheadBudget > 0 ? new SamplingGovernor(
+				TimeUnit.MILLISECONDS.toNanos(period), TimeUnit.MILLISECONDS.toNanos(maxPeriod),
+				overheadBudget) : null;
+		profileCount = 0;
+		reportingFrequency = TimeUtil.convertReportingPeriod(getPeriod(), getTimeUnit(),
+				REPORTING_PERIOD, TimeUnit.SECONDS);
+		flushExecutor = MoreExecutors.getExitingExecutorService(
+				(ThreadPoolExecutor) Executors.newFixedThreadPool(1, new ProfilerThreadFactory()),
+				FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 	}
 
 	/**
@@ -64,22 +156,150 @@ public class CPUTracingProfiler extends Profiler {
 	public void profile() {
 		profileCount++;
 
-		for (ThreadInfo thread : getAllRunnableThreads()) {
-			// certain threads do not have stack traces
-			if (thread.getStackTrace().length > 0) {
-				String traceKey = StackTraceFormatter.formatStackTrace(thread.getStackTrace());
-				if (filter.includeStackTrace(traceKey)) {
-					traceKey = "cpu.trace" + TagUtil.TAG_SEPARATOR_SB + traceKey;
-					traces.increment(traceKey, 1);
-				}
+		// JFR delivers its samples on its own thread, so there is nothing to sample here
+		if (governor != null) {
+			long start = System.nanoTime();
+			if (governor.shouldSample(start)) {
+				sampleThreads();
+				governor.recordSample(start, System.nanoTime());
 			}
+		} else if (sampler != null) {
+			sampleThreads();
 		}
 
 		// To keep from overwhelming StatsD, we only report statistics every second
 		if (profileCount == reportingFrequency) {
 			profileCount = 0;
-			recordMethodCounts();
+			scheduleFlush();
+		}
+	}
+
+	/**
+	 * Swap the trace buffers and report the inactive one on the flush thread
+	 * Does nothing if the previous flush has not finished, so the traces keep accumulating until the next period
+	 */
+	private void scheduleFlush() {
+		if (!flushing.compareAndSet(false, true)) {
+			return;
+		}
+
+		synchronized (traces) {
+			traces.swapBuffers();
+		}
+		// The traces are reported at the end of the period they were sampled in, however long the flush takes
+		final long timestamp = System.currentTimeMillis();
+		final double period = governor != null ? governor.getPeriodNanos() / 1e6 : 0;
+		// As a percentage of one core
+		final double overhead = governor != null ? governor.takeOverhead(System.nanoTime()) * 100 : 0;
+		try {
+			flushExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						traceBatch.clear();
+						traces.drainInactive(traceBatch, timestamp);
+						if (governor != null) {
+							traceBatch.add(PERIOD_NAME, period, timestamp);
+							traceBatch.add(OVERHEAD_NAME, overhead, timestamp);
+						}
+						recordTraceBatch();
+					} catch (RuntimeException e) {
+						LOGGER.warning("Unable to report CPU traces: " + e);
+					} finally {
+						flushing.set(false);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// The executor has been shut down
+			flushing.set(false);
+		}
+	}
+
+	/**
+	 * Sample the stacks of threads with the ThreadMXBean
+	 * Only runnable threads are recorded, unless the profiler is in wall-clock mode
+	 * When weighting by CPU time, runnable threads are weighted by the CPU nanoseconds they used since the previous sample,
+	 * and dropped if they used none, e.g. because they are blocked in a native socket read
+	 */
+	private void sampleThreads() {
+		ThreadInfo[] threads = sampler.sample();
+		long[] cpuTimes = cpuTimer != null ? cpuTimer.update(sampler.getThreadIds()) : null;
+		for (int i = 0; i < threads.length; i++) {
+			ThreadInfo thread = threads[i];
+			// threads that have died since the last refresh are null
+			if (thread == null) {
+				continue;
+			}
+
+			boolean runnable = thread.getThreadState() == Thread.State.RUNNABLE;
+			if (!wallClock && !runnable) {
+				continue;
+			}
+
+			long weight = 1;
+			if (cpuTimes != null && runnable) {
+				if (cpuTimes[i] <= 0) {
+					continue;
+				}
+				weight = cpuTimes[i];
+			}
+
+			StackTraceElement[] stack = thread.getStackTrace();
+			// certain threads do not have stack traces
+			if (stack.length > 0) {
+				String[] prefixes = threadNames != null
+						? getPoolPrefixes(threadNames.normalize(thread.getThreadId(), thread.getThreadName()))
+						: statePrefixes;
+				// The shutdown hook may swap the buffers and replace the call tree while sampling is still running
+				synchronized (traces) {
+					traces.increment(prefixes[thread.getThreadState().ordinal()], stack, weight);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Build the trace key prefixes for each thread state
+	 * In wall-clock mode runnable threads are recorded as on-CPU time under cpu.trace and all other threads as
+	 * off-CPU time under offcpu.trace, so each can be rendered as a separate flame graph. Both are tagged with the
+	 * thread state. Otherwise every state uses the plain cpu.trace prefix.
+	 *
+	 * @param wallClock Whether the profiler is in wall-clock mode
+	 * @return The trace key prefixes indexed by Thread.State ordinal
+	 */
+	private static String[] getStatePrefixes(boolean wallClock) {
+		Thread.State[] states = Thread.State.values();
+		String[] prefixes = new String[states.length];
+		for (Thread.State state : states) {
+			if (!wallClock) {
+				prefixes[state.ordinal()] = TRACE_PREFIX;
+				continue;
+			}
+			String measurement = state == Thread.State.RUNNABLE ? "cpu.trace" : OFF_CPU_TRACE_PREFIX;
+			prefixes[state.ordinal()] = measurement + "," + STATE_TAG + "=" + state.name() + TagUtil.TAG_SEPARATOR;
+		}
+
+		return prefixes;
+	}
+
+	/**
+	 * Get the trace key prefixes for the threads of a pool
+	 *
+	 * @param pool The normalized thread name
+	 * @return The trace key prefixes tagged with the pool, indexed by Thread.State ordinal
+	 */
+	private String[] getPoolPrefixes(String pool) {
+		String[] prefixes = poolPrefixes.get(pool);
+		if (prefixes == null) {
+			prefixes = new String[statePrefixes.length];
+			for (int i = 0; i < prefixes.length; i++) {
+				prefixes[i] = TagUtil.addTag(statePrefixes[i], POOL_TAG, pool);
+			}
+			poolPrefixes.put(pool, prefixes);
 		}
+
+		return prefixes;
 	}
 
 	/**
@@ -87,17 +307,38 @@ public class CPUTracingProfiler extends Profiler {
 	 */
 	@Override
 	public void flushData() {
-		recordMethodCounts();
+		flushExecutor.shutdown();
+		try {
+			flushExecutor.awaitTermination(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (flushing.compareAndSet(false, true)) {
+			recordMethodCounts();
+		}
 		// These bounds are recorded to help speed up generating flame graphs for certain backends
 		if (emitBounds()) {
-			Range bounds = traces.getBounds();
+			Range bounds;
+			synchronized (traces) {
+				bounds = traces.getBounds();
+			}
 			recordGaugeValue("cpu.trace." + bounds.getLeft(), bounds.getLeft());
 			recordGaugeValue("cpu.trace." + bounds.getRight(), bounds.getRight());
 		}
+
+		if (jfrSampler != null) {
+			jfrSampler.close();
+		}
 	}
 
+	/**
+	 * With the JFR sampler the profiler only needs to run once per reporting period to flush the traces
+	 */
 	@Override
 	public long getPeriod() {
+		if (jfrSampler != null) {
+			return TimeUnit.SECONDS.toMillis(REPORTING_PERIOD);
+		}
 		return period;
 	}
 
@@ -106,6 +347,13 @@ public class CPUTracingProfiler extends Profiler {
 		return TimeUnit.MILLISECONDS;
 	}
 
+	/**
+	 * @return The flame graph of the recent traces, or null if flameGraphHistory is 0 or the HTTP server is disabled
+	 */
+	public FlameGraph getFlameGraph() {
+		return flameGraph;
+	}
+
 	@Override
 	protected void handleArguments(Arguments arguments) {
 		List<String> packageWhitelist = parsePackageList(
@@ -114,6 +362,65 @@ public class CPUTracingProfiler extends Profiler {
 				arguments.getStringArgument(PACKAGE_BLACKLIST_ARG));
 		filter = new StackTraceFilter(packageWhitelist,
 				Lists.newArrayList(Iterables.concat(EXCLUDE_PACKAGES, packageBlacklist)));
+		maxStackDepth = arguments.getIntArgument(MAX_STACK_DEPTH_ARG);
+		if (maxStackDepth <= 0) {
+			maxStackDepth = Integer.MAX_VALUE;
+		}
+		overheadBudget = Double.parseDouble(
+				Optional.fromNullable(arguments.getStringArgument(OVERHEAD_BUDGET_ARG)).or("0"));
+		maxPeriod = arguments.getIntArgument(MAX_PERIOD_ARG);
+		if (maxPeriod <= 0) {
+			maxPeriod = DEFAULT_MAX_PERIOD;
+		}
+		String mode = Optional.fromNullable(arguments.getStringArgument(MODE_ARG)).or(CPU_MODE)
+				.toLowerCase();
+		if (!CPU_MODE.equals(mode) && !WALL_CLOCK_MODE.equals(mode)) {
+			throw new IllegalArgumentException("Unknown " + MODE_ARG + ": " + mode);
+		}
+		wallClock = WALL_CLOCK_MODE.equals(mode);
+		String weight = Optional.fromNullable(arguments.getStringArgument(WEIGHT_ARG))
+				.or(SAMPLE_WEIGHT).toLowerCase();
+		if (!SAMPLE_WEIGHT.equals(weight) && !CPU_TIME_WEIGHT.equals(weight)) {
+			throw new IllegalArgumentException("Unknown " + WEIGHT_ARG + ": " + weight);
+		}
+		cpuTimeWeighted = CPU_TIME_WEIGHT.equals(weight);
+		byPool = Boolean.parseBoolean(arguments.getStringArgument(BY_POOL_ARG));
+		maxTraces = Math.max(0, arguments.getIntArgument(MAX_TRACES_ARG));
+		threadNameRules = arguments.getStringListArguments(ThreadNameNormalizer.RULES_ARG);
+		String history = arguments.getStringArgument(FLAME_GRAPH_HISTORY_ARG);
+		// Only the HTTP server renders the flame graph, so without it no history is kept
+		if (!arguments.httpServerEnabled) {
+			flameGraphHistory = 0;
+		} else {
+			flameGraphHistory = history != null ? Integer.parseInt(history) : DEFAULT_FLAME_GRAPH_HISTORY;
+		}
+		samplerType = Optional.fromNullable(arguments.getStringArgument(SAMPLER_ARG))
+				.or(THREAD_MX_BEAN_SAMPLER).toLowerCase();
+		if (!JFR_SAMPLER.equals(samplerType) && !THREAD_MX_BEAN_SAMPLER.equals(samplerType)) {
+			throw new IllegalArgumentException("Unknown " + SAMPLER_ARG + ": " + samplerType);
+		}
+	}
+
+	/**
+	 * Start sampling with JFR, falling back to the ThreadMXBean if this JVM does not support JFR streaming
+	 *
+	 * @return The running JFR sampler, or null if JFR is not available
+	 */
+	private JfrSampler startJfrSampler() {
+		if (!JfrSupport.isAvailable()) {
+			LOGGER.warning("JFR event streaming is not available, falling back to the ThreadMXBean sampler");
+			return null;
+		}
+
+		try {
+			JfrSampler jfr = JfrSupport.newExecutionSampler(traces, TRACE_PREFIX, period, maxStackDepth,
+					byPool ? new ThreadNameNormalizer(threadNameRules) : null);
+			jfr.start();
+			return jfr;
+		} catch (Exception | LinkageError e) {
+			LOGGER.warning("Unable to start JFR sampling, falling back to the ThreadMXBean sampler: " + e);
+			return null;
+		}
 	}
 
 	/**
@@ -131,27 +438,23 @@ public class CPUTracingProfiler extends Profiler {
 	}
 
 	/**
-	 * Records method CPU time in StatsD
+	 * Records method CPU time in StatsD, swapping and draining the buffers on the calling thread
 	 */
 	private void recordMethodCounts() {
-		Map<String, Number> data = traces.getDataToFlush();
-		if (data.size() > 0) {
-			recordGaugeValues(data);
+		traceBatch.clear();
+		synchronized (traces) {
+			traces.swapBuffers();
+			traces.drainInactive(traceBatch, System.currentTimeMillis());
 		}
+		recordTraceBatch();
 	}
 
 	/**
-	 * Gets all runnable threads, excluding profiler threads
-	 *
-	 * @return A Collection<ThreadInfo> representing current thread state
+	 * Records the traces drained into the batch, if there are any
 	 */
-	private static Collection<ThreadInfo> getAllRunnableThreads() {
-		return ThreadDumper.filterAllThreadsInState(false, false, Thread.State.RUNNABLE,
-				new Predicate<ThreadInfo>() {
-					@Override
-					public boolean apply(ThreadInfo input) {
-						return !input.getThreadName().startsWith(ProfilerThreadFactory.NAME_PREFIX);
-					}
-				});
+	private void recordTraceBatch() {
+		if (!traceBatch.isEmpty()) {
+			recordGaugeBatch(traceBatch);
+		}
 	}
 }
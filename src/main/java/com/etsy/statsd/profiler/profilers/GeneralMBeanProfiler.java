@@ -10,6 +10,8 @@ import javax.management.ObjectName;
 
 import com.etsy.statsd.profiler.Arguments;
 import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.reporter.GaugeBatch;
+import com.etsy.statsd.profiler.reporter.MetricName;
 import com.etsy.statsd.profiler.reporter.Reporter;
 import com.etsy.statsd.profiler.util.TagUtil;
 import com.google.common.collect.Maps;
@@ -18,12 +20,17 @@ public class GeneralMBeanProfiler extends Profiler {
 
 	private MBeanAttr[] beans;
 	private Map<String, Long> metricValues = Maps.newHashMap();
+	// Reused by every tick, guarded by this
+	private final GaugeBatch newBatchMetrics = new GaugeBatch();
 
 	static class MBeanAttr {
 		String name;
 		String metricName;
 		String[] attributes = new String[0];
 		Algorithm algo = null;
+		// Resolved once for each attribute, so no names are built per tick
+		MetricName[] metricNames = new MetricName[0];
+		String[] algoKeys = new String[0];
 	}
 
 	private int period = 10;
@@ -42,14 +49,20 @@ public class GeneralMBeanProfiler extends Profiler {
 			bean.name = (String) beanArg.get("name");
 			bean.metricName = (String) beanArg.get("metric");
 			bean.attributes = (String[]) ((List) beanArg.get("attributes")).toArray(new String[0]);
+			bean.metricNames = new MetricName[bean.attributes.length];
+			bean.algoKeys = new String[bean.attributes.length];
+			for (int j = 0; j < bean.attributes.length; j++) {
+				bean.metricNames[j] = MetricName.of(bean.metricName + TagUtil.TAG_SEPARATOR_SB + bean.attributes[j]);
+				bean.algoKeys[j] = this.metricKey(bean.name, bean.attributes[j]);
+			}
 			String algoClsName = (String) beanArg.get("algo");
 			if (algoClsName != null) {
 				try {
 					Class<? extends Algorithm> algoClass = (Class<? extends Algorithm>) Class
 							.forName(algoClsName);
 					bean.algo = algoClass.newInstance();
-					for (String attriName : bean.attributes) {
-						metricValues.put(this.metricKey(bean.name, attriName), 0L);
+					for (String algoKey : bean.algoKeys) {
+						metricValues.put(algoKey, 0L);
 					}
 
 				} catch (Exception e) {
@@ -101,34 +114,33 @@ public class GeneralMBeanProfiler extends Profiler {
 		return beanName + "_" + attriName;
 	}
 
-	private void recordStats() {
+	private synchronized void recordStats() {
 		MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
-		Map<String, Long> newBatchMetrics = Maps.newHashMap();
-		getMBeanMetrics(mbs, newBatchMetrics);
+		newBatchMetrics.clear();
+		getMBeanMetrics(mbs, newBatchMetrics, System.currentTimeMillis());
 
 		if (newBatchMetrics.size() > 0) {
-			recordGaugeValues(newBatchMetrics);
+			recordGaugeBatch(newBatchMetrics);
 		}
 	}
 
-	private void getMBeanMetrics(MBeanServer mBeanServer, Map<String, Long> newBatchMetrics) {
+	private void getMBeanMetrics(MBeanServer mBeanServer, GaugeBatch newBatchMetrics, long timestamp) {
 		for (MBeanAttr bean : beans) {
 			try {
 				ObjectName beanName = new ObjectName(bean.name);
-				for (String attr : bean.attributes) {
+				for (int i = 0; i < bean.attributes.length; i++) {
+					String attr = bean.attributes[i];
 
 					Object attrValue = ManagementFactory.getPlatformMBeanServer()
 							.getAttribute(beanName, attr);
 					Long newValue = new Long(attrValue.toString());
 
 					if (bean.algo != null) {
-						newValue = bean.algo.doAlgorithm(metricValues,
-								this.metricKey(bean.name, attr), newValue);
+						newValue = bean.algo.doAlgorithm(metricValues, bean.algoKeys[i], newValue);
 					}
 
 					if (newValue > 0) {
-						newBatchMetrics.put(bean.metricName + TagUtil.TAG_SEPARATOR_SB + attr,
-								new Long(newValue.toString()));
+						newBatchMetrics.add(bean.metricNames[i], newValue.longValue(), timestamp);
 					}
 				}
 			} catch (Exception e) {
@@ -0,0 +1,275 @@
+package com.etsy.statsd.profiler.profilers;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.etsy.statsd.profiler.Arguments;
+import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.reporter.Reporter;
+import com.etsy.statsd.profiler.util.CPUTraces;
+import com.etsy.statsd.profiler.util.LongCounterTable;
+import com.etsy.statsd.profiler.util.TagUtil;
+import com.etsy.statsd.profiler.util.ThreadNameNormalizer;
+import com.etsy.statsd.profiler.util.ThreadSampler;
+import com.etsy.statsd.profiler.util.TimeUtil;
+
+/**
+ * Profiles lock contention
+ *
+ * Threads that are BLOCKED on a monitor, or WAITING on a lock that is owned by another thread, are sampled
+ * together with the lock they are waiting for and the thread that owns it. Each sample is recorded as a trace under
+ * lock.trace, tagged with the class of the lock and the pool of its owner, so contention can be rendered as a flame graph.
+ * Owner names are normalized with a {@link ThreadNameNormalizer} so that threads of the same pool share a tag value.
+ *
+ * Thread contention monitoring is enabled so the blocked and waited times of each thread can be tracked.
+ * These times are only updated by the JVM once a thread stops waiting, so increases are attributed to the lock and
+ * stack the thread was seen waiting on in the previous sample, if it was contended then. Time a thread spends idle,
+ * e.g. in a queue's take or in Object.wait with no owner, is not attributed to any lock. The times are reported as per-lock gauges under lock.time, and as
+ * time-weighted traces under lock.time.trace, in milliseconds.
+ */
+public class LockContentionProfiler extends Profiler {
+	public static final long REPORTING_PERIOD = 1;
+	public static final String TRACE_PREFIX = "lock.trace";
+	public static final String TIME_TRACE_PREFIX = "lock.time.trace";
+	public static final String TIME_PREFIX = "lock.time";
+	public static final String LOCK_TAG = "lock";
+	public static final String OWNER_TAG = "owner";
+
+	private static final String MAX_STACK_DEPTH_ARG = "maxStackDepth";
+	// How many dead threads may be remembered before the per-thread state is rebuilt
+	private static final int MAX_STALE_THREADS = 1024;
+
+	private int period = 10;
+	private int maxStackDepth;
+	private String[] threadNameRules;
+
+	private final ThreadSampler sampler;
+	private final CPUTraces traces;
+	private final CPUTraces timeTraces;
+	private final boolean contentionMonitoring;
+	private final long reportingFrequency;
+	private long profileCount;
+
+	private final ThreadNameNormalizer threadNames;
+	// Trace key prefixes and gauge names, by lock class name and then owner pool
+	private final Map<String, Map<String, LockKeys>> lockKeys = new HashMap<>();
+	private final LongCounterTable lockTimes = new LongCounterTable();
+
+	// Per-thread state, indexed through threadStateIndex which maps thread id to index + 1
+	private final LongCounterTable threadStateIndex = new LongCounterTable();
+	private final List<ThreadState> threadStates = new ArrayList<>();
+
+	/**
+	 * Trace key prefixes and gauge names for one lock class and owner
+	 */
+	private static final class LockKeys {
+		final String tracePrefix;
+		final String timeTracePrefix;
+		final String blockedTime;
+		final String waitedTime;
+
+		LockKeys(String lockClass, String owner) {
+			String tag = "," + LOCK_TAG + "=" + lockClass;
+			String ownerTag = "," + OWNER_TAG + "=" + owner;
+			tracePrefix = TRACE_PREFIX + tag + ownerTag + TagUtil.TAG_SEPARATOR;
+			timeTracePrefix = TIME_TRACE_PREFIX + tag + ownerTag + TagUtil.TAG_SEPARATOR;
+			blockedTime = TIME_PREFIX + tag + TagUtil.TAG_SEPARATOR + "blocked";
+			waitedTime = TIME_PREFIX + tag + TagUtil.TAG_SEPARATOR + "waited";
+		}
+	}
+
+	/**
+	 * What was last seen of a thread
+	 */
+	private static final class ThreadState {
+		long blockedTime;
+		long waitedTime;
+		LockKeys lastLock;
+		// Kept as the stack rather than its call tree node, since the tree may be rebuilt between samples
+		StackTraceElement[] lastStack;
+	}
+
+	public LockContentionProfiler(Reporter reporter, Arguments arguments) {
+		super(reporter, arguments);
+		this.period = arguments.getIntArgument("LockContentionProfiler-period");
+		if (this.period == -1) {
+			this.period = arguments.getIntArgument("period");
+		}
+		if (this.period == -1) {
+			this.period = 10;
+		}
+
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		contentionMonitoring = threadMXBean.isThreadContentionMonitoringSupported();
+		if (contentionMonitoring && !threadMXBean.isThreadContentionMonitoringEnabled()) {
+			threadMXBean.setThreadContentionMonitoringEnabled(true);
+		}
+
+		threadNames = new ThreadNameNormalizer(threadNameRules);
+		sampler = new ThreadSampler(maxStackDepth);
+		traces = new CPUTraces();
+		timeTraces = new CPUTraces();
+		profileCount = 0;
+		reportingFrequency = TimeUtil.convertReportingPeriod(getPeriod(), getTimeUnit(),
+				REPORTING_PERIOD, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Sample contended threads
+	 */
+	@Override
+	public void profile() {
+		profileCount++;
+
+		ThreadInfo[] threads = sampler.sample();
+		if (threadStateIndex.capacityUsed() > threads.length + MAX_STALE_THREADS) {
+			threadStateIndex.clear();
+			threadStates.clear();
+		}
+		for (ThreadInfo thread : threads) {
+			// threads that have died since the last refresh are null
+			if (thread != null) {
+				sampleThread(thread);
+			}
+		}
+
+		if (profileCount == reportingFrequency) {
+			profileCount = 0;
+			recordLockStats();
+		}
+	}
+
+	@Override
+	public void flushData() {
+		recordLockStats();
+	}
+
+	@Override
+	public long getPeriod() {
+		return period;
+	}
+
+	@Override
+	public TimeUnit getTimeUnit() {
+		return TimeUnit.MILLISECONDS;
+	}
+
+	@Override
+	protected void handleArguments(Arguments arguments) {
+		maxStackDepth = arguments.getIntArgument(MAX_STACK_DEPTH_ARG);
+		if (maxStackDepth <= 0) {
+			maxStackDepth = Integer.MAX_VALUE;
+		}
+		threadNameRules = arguments.getStringListArguments(ThreadNameNormalizer.RULES_ARG);
+	}
+
+	private void sampleThread(ThreadInfo thread) {
+		ThreadState state = getThreadState(thread.getThreadId());
+		LockInfo lock = thread.getLockInfo();
+
+		LockKeys keys = null;
+		if (lock != null && isContended(thread) && thread.getStackTrace().length > 0) {
+			keys = getLockKeys(lock.getClassName(),
+					threadNames.normalize(thread.getLockOwnerId(), thread.getLockOwnerName()));
+			traces.increment(keys.tracePrefix, thread.getStackTrace(), 1);
+		}
+
+		if (contentionMonitoring) {
+			long blockedDelta = thread.getBlockedTime() - state.blockedTime;
+			long waitedDelta = thread.getWaitedTime() - state.waitedTime;
+			// Time spent waiting ends up attributed to the lock the thread was last seen waiting on
+			LockKeys attributedLock = keys != null ? keys : state.lastLock;
+			StackTraceElement[] attributedStack = keys != null ? thread.getStackTrace() : state.lastStack;
+			if (attributedLock != null && state.blockedTime >= 0) {
+				if (blockedDelta > 0) {
+					lockTimes.add(LongCounterTable.hash(attributedLock.blockedTime), attributedLock.blockedTime, blockedDelta);
+				}
+				if (waitedDelta > 0) {
+					lockTimes.add(LongCounterTable.hash(attributedLock.waitedTime), attributedLock.waitedTime, waitedDelta);
+				}
+				if (blockedDelta + waitedDelta > 0) {
+					timeTraces.increment(attributedLock.timeTracePrefix, attributedStack,
+							Math.max(0, blockedDelta) + Math.max(0, waitedDelta));
+				}
+			}
+			state.blockedTime = thread.getBlockedTime();
+			state.waitedTime = thread.getWaitedTime();
+		}
+
+		// Once a thread is seen without a contended lock, its next waits are not for that lock
+		state.lastLock = keys;
+		state.lastStack = keys != null ? thread.getStackTrace() : null;
+	}
+
+	/**
+	 * Indicate if a thread is waiting on a lock held by another thread
+	 * Threads waiting on e.g. a condition with no owner are idle rather than contended
+	 *
+	 * @param thread The thread to check
+	 * @return True if the thread is blocked on a monitor or waiting on an owned lock, false otherwise
+	 */
+	private static boolean isContended(ThreadInfo thread) {
+		switch (thread.getThreadState()) {
+		case BLOCKED:
+			return true;
+		case WAITING:
+		case TIMED_WAITING:
+			return thread.getLockOwnerId() != -1;
+		default:
+			return false;
+		}
+	}
+
+	private ThreadState getThreadState(long threadId) {
+		long index = threadStateIndex.get(threadId, null);
+		if (index > 0) {
+			return threadStates.get((int) index - 1);
+		}
+
+		ThreadState state = new ThreadState();
+		// The first observation of a thread only establishes the baseline for its times
+		state.blockedTime = -1;
+		threadStates.add(state);
+		threadStateIndex.put(threadId, null, threadStates.size());
+		return state;
+	}
+
+	private LockKeys getLockKeys(String lockClass, String owner) {
+		Map<String, LockKeys> byOwner = lockKeys.get(lockClass);
+		if (byOwner == null) {
+			byOwner = new HashMap<>();
+			lockKeys.put(lockClass, byOwner);
+		}
+
+		LockKeys keys = byOwner.get(owner);
+		if (keys == null) {
+			keys = new LockKeys(lockClass, owner);
+			byOwner.put(owner, keys);
+		}
+
+		return keys;
+	}
+
+	/**
+	 * Records the lock contention traces and per-lock times
+	 */
+	private void recordLockStats() {
+		Map<String, Number> data = traces.getDataToFlush();
+		data.putAll(timeTraces.getDataToFlush());
+		for (int i = 0; i < lockTimes.size(); i++) {
+			data.put((String) lockTimes.keyAt(i), lockTimes.countAt(i));
+		}
+		lockTimes.reset();
+
+		if (data.size() > 0) {
+			recordGaugeValues(data);
+		}
+	}
+}
@@ -7,15 +7,15 @@ import java.lang.management.MemoryType;
 import java.lang.management.MemoryUsage;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import com.etsy.statsd.profiler.Arguments;
 import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.reporter.GaugeBatch;
+import com.etsy.statsd.profiler.reporter.MetricName;
 import com.etsy.statsd.profiler.reporter.Reporter;
 import com.etsy.statsd.profiler.util.TagUtil;
-import com.google.common.collect.Maps;
 
 /**
  * Profiles memory usage and GC statistics
@@ -23,11 +23,18 @@ import com.google.common.collect.Maps;
  * @author Andrew Johnson
  */
 public class MemoryProfiler extends Profiler {
+	private static final MetricName[] HEAP_NAMES = getUsageNames("heap" + TagUtil.TAG_SEPARATOR_SB + "total");
+	private static final MetricName[] NONHEAP_NAMES = getUsageNames("nonheap" + TagUtil.TAG_SEPARATOR_SB + "total");
+
 	private long period = 10;
 
 	private final MemoryMXBean memoryMXBean;
 	private final List<GarbageCollectorMXBean> gcMXBeans;
 	private final HashMap<GarbageCollectorMXBean, AtomicLong> gcTimes = new HashMap<>();
+	// The count, time and runtime metric names of each collector
+	private final HashMap<GarbageCollectorMXBean, MetricName[]> gcNames = new HashMap<>();
+	// Reused by every tick, guarded by this
+	private final GaugeBatch metrics = new GaugeBatch();
 	//	private final ClassLoadingMXBean classLoadingMXBean;
 	//	private final List<MemoryPoolMXBean> memoryPoolMXBeans;
 
@@ -40,6 +47,9 @@ public class MemoryProfiler extends Profiler {
 
 		for (GarbageCollectorMXBean b : gcMXBeans) {
 			gcTimes.put(b, new AtomicLong());
+			String gcPrefix = "gc" + TagUtil.TAG_SEPARATOR_SB + b.getName().replace(" ", "_");
+			gcNames.put(b, new MetricName[] { MetricName.of(gcPrefix + ".count"),
+					MetricName.of(gcPrefix + ".time"), MetricName.of(gcPrefix + ".runtime") });
 		}
 
 		this.period = arguments.getIntArgument("MemoryProfiler-period");
@@ -82,19 +92,20 @@ public class MemoryProfiler extends Profiler {
 	/**
 	 * Records all memory statistics
 	 */
-	private void recordStats() {
+	private synchronized void recordStats() {
 
 		MemoryUsage heap = memoryMXBean.getHeapMemoryUsage();
 		MemoryUsage nonHeap = memoryMXBean.getNonHeapMemoryUsage();
-		Map<String, Long> metrics = Maps.newHashMap();
+		long timestamp = System.currentTimeMillis();
+		metrics.clear();
 
 		//        recordMemoryUsage("heap.total", heap, metrics);
 		//        recordMemoryUsage("nonheap.total", nonHeap, metrics);
 
-		recordMemoryUsage("heap" + TagUtil.TAG_SEPARATOR_SB + "total", heap, metrics);
-		recordMemoryUsage("nonheap" + TagUtil.TAG_SEPARATOR_SB + "total", nonHeap, metrics);
+		recordMemoryUsage(HEAP_NAMES, heap, metrics, timestamp);
+		recordMemoryUsage(NONHEAP_NAMES, nonHeap, metrics, timestamp);
 
-		recordGcUsage(metrics);
+		recordGcUsage(metrics, timestamp);
 
 		//TODO: need to gather these?
 		//		long loadedClassCount = classLoadingMXBean.getLoadedClassCount();
@@ -117,15 +128,15 @@ public class MemoryProfiler extends Profiler {
 		//			recordMemoryUsage(prefix, usage, metrics);
 		//		}
 
-		recordGaugeValues(metrics);
+		recordGaugeBatch(metrics);
 	}
 
-	private void recordGcUsage(Map<String, Long> metrics) {
+	private void recordGcUsage(GaugeBatch metrics, long timestamp) {
 		for (GarbageCollectorMXBean gcMXBean : gcMXBeans) {
-			String gcName = gcMXBean.getName().replace(" ", "_");
+			MetricName[] names = gcNames.get(gcMXBean);
 			long count = gcMXBean.getCollectionCount();
 			if (count > 0) {
-				metrics.put("gc" + TagUtil.TAG_SEPARATOR_SB + gcName + ".count", count);
+				metrics.add(names[0], count, timestamp);
 			}
 
 			final long time = gcMXBean.getCollectionTime();
@@ -133,10 +144,10 @@ public class MemoryProfiler extends Profiler {
 			final long runtime = time - prevTime;
 
 			if (time > 0) {
-				metrics.put("gc" + TagUtil.TAG_SEPARATOR_SB + gcName + ".time", time);
+				metrics.add(names[1], time, timestamp);
 			}
 			if (runtime > 0) {
-				metrics.put("gc" + TagUtil.TAG_SEPARATOR_SB + gcName + ".runtime", runtime);
+				metrics.add(names[2], runtime, timestamp);
 				gcTimes.get(gcMXBean).set(time);
 			}
 
@@ -150,15 +161,28 @@ public class MemoryProfiler extends Profiler {
 	/**
 	 * Records memory usage
 	 *
-	 * @param prefix The prefix to use for this object
+	 * @param names The init, used, committed and max metric names for this object
 	 * @param memory The MemoryUsage object containing the memory usage info
+	 * @param metrics The batch to which to add the metrics
+	 * @param timestamp The time at which the memory usage was sampled
+	 */
+	private static void recordMemoryUsage(MetricName[] names, MemoryUsage memory,
+			GaugeBatch metrics, long timestamp) {
+		metrics.add(names[0], memory.getInit(), timestamp);
+		metrics.add(names[1], memory.getUsed(), timestamp);
+		metrics.add(names[2], memory.getCommitted(), timestamp);
+		metrics.add(names[3], memory.getMax(), timestamp);
+	}
+
+	/**
+	 * Resolves the names of the memory usage metrics
+	 *
+	 * @param prefix The prefix to use for this object
+	 * @return The init, used, committed and max metric names
 	 */
-	private static void recordMemoryUsage(String prefix, MemoryUsage memory,
-			Map<String, Long> metrics) {
-		metrics.put(prefix + ".init", memory.getInit());
-		metrics.put(prefix + ".used", memory.getUsed());
-		metrics.put(prefix + ".committed", memory.getCommitted());
-		metrics.put(prefix + ".max", memory.getMax());
+	private static MetricName[] getUsageNames(String prefix) {
+		return new MetricName[] { MetricName.of(prefix + ".init"), MetricName.of(prefix + ".used"),
+				MetricName.of(prefix + ".committed"), MetricName.of(prefix + ".max") };
 	}
 
 	/**
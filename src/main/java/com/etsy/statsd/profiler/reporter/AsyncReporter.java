@@ -0,0 +1,389 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.etsy.statsd.profiler.Arguments;
+import com.etsy.statsd.profiler.util.TagUtil;
+import com.etsy.statsd.profiler.worker.ProfilerThreadFactory;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * Reporter that hands gauges to another reporter on a background writer thread
+ *
+ * Profiler threads only add points to a bounded {@link GaugeRing}, so they never wait on the backend. The ring holds
+ * primitive values in preallocated slots and a batch is copied in under one lock, so handing points over allocates
+ * nothing per point. The writer thread drains the queue in batches and sends each batch with one recordGaugeBatch call, so the points
+ * keep the time they were sampled at.
+ * When the queue is full, either the oldest queued point or the new point is dropped, depending on the drop policy.
+ * The queue depth, the number of dropped points and the send latency are reported through the wrapped reporter.
+ *
+ * With a spool directory, batches the wrapped reporter fails to send are appended to a {@link MetricSpool} instead of
+ * being dropped. Once a send succeeds again, the spooled points are replayed with their original timestamps, at most
+ * spoolReplayRate points per second so the recovering backend is not flooded.
+ */
+public class AsyncReporter extends Reporter<Reporter<?>> {
+	public static final String ENABLED_ARG = "asyncReporting";
+	public static final String QUEUE_SIZE_ARG = "reporterQueueSize";
+	public static final String BATCH_SIZE_ARG = "reporterBatchSize";
+	public static final String DROP_POLICY_ARG = "reporterDropPolicy";
+	public static final String SPOOL_DIR_ARG = "spoolDir";
+	public static final String SPOOL_MAX_BYTES_ARG = "spoolMaxBytes";
+	public static final String SPOOL_SEGMENT_BYTES_ARG = "spoolSegmentBytes";
+	public static final String SPOOL_REPLAY_RATE_ARG = "spoolReplayRate";
+
+	public static final int DEFAULT_QUEUE_SIZE = 65536;
+	public static final int DEFAULT_BATCH_SIZE = 5000;
+	public static final long DEFAULT_SPOOL_MAX_BYTES = 64L * 1024 * 1024;
+	public static final int DEFAULT_SPOOL_SEGMENT_BYTES = 4 * 1024 * 1024;
+	public static final int DEFAULT_SPOOL_REPLAY_RATE = 5000;
+
+	public static final String QUEUE_DEPTH_METRIC = "profiler" + TagUtil.TAG_SEPARATOR + "reporter.queue.depth";
+	public static final String DROPPED_METRIC = "profiler" + TagUtil.TAG_SEPARATOR + "reporter.dropped";
+	public static final String LATENCY_METRIC = "profiler" + TagUtil.TAG_SEPARATOR + "reporter.send.latency";
+	public static final String SPOOL_DEPTH_METRIC = "profiler" + TagUtil.TAG_SEPARATOR + "reporter.spool.depth";
+	private static final MetricName QUEUE_DEPTH_NAME = MetricName.of(QUEUE_DEPTH_METRIC);
+	private static final MetricName DROPPED_NAME = MetricName.of(DROPPED_METRIC);
+	private static final MetricName LATENCY_NAME = MetricName.of(LATENCY_METRIC);
+	private static final MetricName SPOOL_DEPTH_NAME = MetricName.of(SPOOL_DEPTH_METRIC);
+
+	private static final Logger LOGGER = Logger.getLogger(AsyncReporter.class.getName());
+	private static final long POLL_TIMEOUT_MS = 100;
+	private static final long SELF_METRICS_PERIOD_MS = 10000;
+	private static final long CLOSE_TIMEOUT_MS = 5000;
+
+	/**
+	 * What to do with a new point when the queue is full
+	 */
+	public enum DropPolicy {
+		/** Drop the oldest queued point to make room for the new one */
+		OLDEST,
+		/** Drop the new point */
+		NEWEST
+	}
+
+	private int queueSize;
+	private int batchSize;
+	private DropPolicy dropPolicy;
+	private String spoolDir;
+	private long spoolMaxBytes;
+	private int spoolSegmentBytes;
+	private int spoolReplayRate;
+
+	private final GaugeRing queue;
+	private final Thread writer;
+	// Only accessed by the writer thread once it is started, null if spooling is disabled
+	private final MetricSpool spool;
+	private volatile boolean closed;
+
+	private final AtomicLong droppedPoints = new AtomicLong();
+	// Only accessed by the writer thread
+	private long reportedDroppedPoints;
+	private long maxLatencyNanos;
+	private long lastSelfMetricsNanos;
+	private boolean failing;
+	private double replayTokens;
+	private long lastReplayNanos;
+
+	public AsyncReporter(Reporter<?> delegate, Arguments arguments) {
+		super(arguments);
+		Preconditions.checkNotNull(delegate);
+		client = delegate;
+		queue = new GaugeRing(queueSize);
+		lastSelfMetricsNanos = System.nanoTime();
+		lastReplayNanos = lastSelfMetricsNanos;
+		spool = openSpool();
+
+		writer = new ProfilerThreadFactory().newThread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		});
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@Override
+	public void recordGaugeValue(String key, long value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+		recordGaugeValues(gauges, System.currentTimeMillis());
+	}
+
+	@Override
+	public void recordGaugeValue(String key, long value, long timestamp) {
+		droppedPoints.addAndGet(queue.add(key, null, value, 0, false, timestamp, dropPolicy == DropPolicy.OLDEST));
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value, long timestamp) {
+		droppedPoints.addAndGet(queue.add(key, null, 0, value, true, timestamp, dropPolicy == DropPolicy.OLDEST));
+	}
+
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+		for (Map.Entry<String, ? extends Number> gauge : gauges.entrySet()) {
+			Number value = gauge.getValue();
+			if (value instanceof Double || value instanceof Float) {
+				recordGaugeValue(gauge.getKey(), value.doubleValue(), timestamp);
+			} else {
+				recordGaugeValue(gauge.getKey(), value.longValue(), timestamp);
+			}
+		}
+	}
+
+	@Override
+	public void recordGaugeBatch(GaugeBatch batch) {
+		// The name handles are kept, so the wrapped reporter can still write their pre-encoded bytes
+		droppedPoints.addAndGet(queue.addAll(batch, dropPolicy == DropPolicy.OLDEST));
+	}
+
+	@Override
+	public boolean emitBounds() {
+		return client.emitBounds();
+	}
+
+	/**
+	 * Send the queued points, waiting a bounded time for the writer thread, and close the wrapped reporter
+	 * Points still in the spool are kept on disk for the next JVM using the same spool directory
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			writer.join(CLOSE_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (spool != null && !writer.isAlive()) {
+			spool.close();
+		}
+		client.close();
+	}
+
+	/**
+	 * @return The reporter the points are sent to
+	 */
+	public Reporter<?> getDelegate() {
+		return client;
+	}
+
+	/**
+	 * @return The number of points waiting to be sent
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return The number of points dropped because the queue was full, the wrapped reporter failed without a spool or
+	 * the spool was full
+	 */
+	public long getDroppedPoints() {
+		return droppedPoints.get();
+	}
+
+	/**
+	 * The wrapped reporter is given to the constructor, so there is no client to create
+	 *
+	 * @return null
+	 */
+	@Override
+	protected Reporter<?> createClient(String server, int port, String prefix) {
+		return null;
+	}
+
+	@Override
+	protected void handleArguments(Arguments arguments) {
+		queueSize = arguments.getIntArgument(QUEUE_SIZE_ARG);
+		if (queueSize <= 0) {
+			queueSize = DEFAULT_QUEUE_SIZE;
+		}
+		batchSize = arguments.getIntArgument(BATCH_SIZE_ARG);
+		if (batchSize <= 0) {
+			batchSize = DEFAULT_BATCH_SIZE;
+		}
+		String policy = Optional.fromNullable(arguments.getStringArgument(DROP_POLICY_ARG))
+				.or(DropPolicy.OLDEST.name());
+		try {
+			dropPolicy = DropPolicy.valueOf(policy.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException(DROP_POLICY_ARG + " must be oldest or newest: " + policy, e);
+		}
+
+		spoolDir = arguments.getStringArgument(SPOOL_DIR_ARG);
+		String maxBytes = arguments.getStringArgument(SPOOL_MAX_BYTES_ARG);
+		spoolMaxBytes = maxBytes != null ? Long.parseLong(maxBytes) : DEFAULT_SPOOL_MAX_BYTES;
+		spoolSegmentBytes = arguments.getIntArgument(SPOOL_SEGMENT_BYTES_ARG);
+		if (spoolSegmentBytes <= 0) {
+			spoolSegmentBytes = (int) Math.min(DEFAULT_SPOOL_SEGMENT_BYTES, spoolMaxBytes);
+		}
+		spoolReplayRate = arguments.getIntArgument(SPOOL_REPLAY_RATE_ARG);
+		if (spoolReplayRate <= 0) {
+			spoolReplayRate = DEFAULT_SPOOL_REPLAY_RATE;
+		}
+	}
+
+	/**
+	 * Open the spool if a spool directory is given
+	 * The profiler keeps running without a spool if it cannot be opened
+	 *
+	 * @return The spool, or null if spooling is disabled or the spool cannot be opened
+	 */
+	private MetricSpool openSpool() {
+		if (spoolDir == null) {
+			return null;
+		}
+		try {
+			return new MetricSpool(new File(spoolDir), spoolSegmentBytes, spoolMaxBytes);
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Could not open spool in " + spoolDir
+					+ ", dropping points the reporter fails to send", e);
+			return null;
+		}
+	}
+
+	private void writeLoop() {
+		GaugeBatch batch = new GaugeBatch(batchSize);
+		GaugeBatch replayBatch = spool != null ? new GaugeBatch(batchSize) : null;
+		while (true) {
+			int drained;
+			try {
+				drained = queue.drainTo(batch, batchSize, POLL_TIMEOUT_MS);
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (drained > 0) {
+				send(batch);
+				batch.clear();
+			} else if (closed) {
+				return;
+			}
+
+			if (spool != null) {
+				replay(replayBatch);
+			}
+
+			if (System.nanoTime() - lastSelfMetricsNanos >= TimeUnit.MILLISECONDS.toNanos(SELF_METRICS_PERIOD_MS)) {
+				recordSelfMetrics();
+			}
+		}
+	}
+
+	/**
+	 * Send a batch of points to the wrapped reporter, spooling them or counting them as dropped if it fails
+	 *
+	 * @param batch The points to send, in the order they were recorded
+	 */
+	private void send(GaugeBatch batch) {
+		if (deliver(batch)) {
+			return;
+		}
+		if (spool != null) {
+			try {
+				long evicted = spool.getEvictedPoints();
+				int spooled = spool.append(batch);
+				droppedPoints.addAndGet(batch.size() - spooled + spool.getEvictedPoints() - evicted);
+				return;
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Could not spool points to " + spool.getDirectory(), e);
+			}
+		}
+		droppedPoints.addAndGet(batch.size());
+	}
+
+	/**
+	 * Send a batch of points to the wrapped reporter
+	 *
+	 * @param batch The points to send
+	 * @return true if the wrapped reporter accepted the points, false if it failed
+	 */
+	private boolean deliver(GaugeBatch batch) {
+		long start = System.nanoTime();
+		boolean delivered;
+		try {
+			client.recordGaugeBatch(batch);
+			if (failing) {
+				LOGGER.info("Reporter " + client.getClass().getSimpleName() + " recovered");
+				failing = false;
+			}
+			delivered = true;
+		} catch (RuntimeException e) {
+			if (!failing) {
+				LOGGER.log(Level.WARNING, "Reporter " + client.getClass().getSimpleName() + " failed, "
+						+ (spool != null ? "spooling" : "dropping") + " points until it recovers", e);
+				failing = true;
+			}
+			delivered = false;
+		}
+		maxLatencyNanos = Math.max(maxLatencyNanos, System.nanoTime() - start);
+		return delivered;
+	}
+
+	/**
+	 * Send spooled points while the wrapped reporter is not failing, at most spoolReplayRate points per second
+	 * New points are sent first, so a failing reporter is detected by them rather than by the replay
+	 *
+	 * @param replayBatch The batch to read the spooled points into
+	 */
+	private void replay(GaugeBatch replayBatch) {
+		long now = System.nanoTime();
+		// Allow bursts of up to a second of points, so the rate holds whatever the poll timeout
+		replayTokens = Math.min(spoolReplayRate,
+				replayTokens + (now - lastReplayNanos) * spoolReplayRate / (double) TimeUnit.SECONDS.toNanos(1));
+		lastReplayNanos = now;
+
+		while (!failing && !spool.isEmpty() && replayTokens >= 1) {
+			int read = spool.read(replayBatch, (int) Math.min(batchSize, replayTokens));
+			if (read == 0) {
+				break;
+			}
+			if (deliver(replayBatch)) {
+				spool.commit();
+				replayTokens -= read;
+			}
+			replayBatch.clear();
+		}
+	}
+
+	/**
+	 * Report the queue depth, the points dropped and the maximum send latency in milliseconds since the last report
+	 */
+	private void recordSelfMetrics() {
+		long dropped = droppedPoints.get();
+		long now = System.currentTimeMillis();
+		GaugeBatch gauges = new GaugeBatch(4)
+				.add(QUEUE_DEPTH_NAME, (long) queue.size(), now)
+				.add(DROPPED_NAME, dropped - reportedDroppedPoints, now)
+				.add(LATENCY_NAME, TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos), now);
+		if (spool != null) {
+			gauges.add(SPOOL_DEPTH_NAME, spool.size(), now);
+		}
+		reportedDroppedPoints = dropped;
+		maxLatencyNanos = 0;
+		lastSelfMetricsNanos = System.nanoTime();
+		send(gauges);
+	}
+}
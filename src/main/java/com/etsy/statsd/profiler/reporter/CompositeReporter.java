@@ -0,0 +1,144 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.etsy.statsd.profiler.Agent;
+import com.etsy.statsd.profiler.Arguments;
+
+/**
+ * Reporter that sends every gauge to several reporters, so the JVM is only sampled once for all of them
+ *
+ * It is used when the reporter argument lists more than one reporter, e.g. reporter=StatsDReporter:InfluxDBReporter.
+ * Each reporter is wrapped in its own {@link AsyncReporter}, so it has its own bounded queue, batching and drop
+ * accounting, and a slow or failing backend only drops its own points.
+ *
+ * Each reporter is given the shared arguments, overridden by any prefixed with its simple class name, so that
+ * for instance InfluxDBReporter-server=influx,InfluxDBReporter-port=8086 points only the InfluxDBReporter elsewhere.
+ * With the spoolDir argument, each reporter spools to its own subdirectory of it.
+ */
+public class CompositeReporter extends Reporter<List<Reporter<?>>> {
+	private Arguments arguments;
+
+	public CompositeReporter(Arguments arguments) {
+		super(arguments);
+	}
+
+	@Override
+	public void recordGaugeValue(String key, long value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+		recordGaugeValues(gauges, System.currentTimeMillis());
+	}
+
+	@Override
+	public void recordGaugeValue(String key, long value, long timestamp) {
+		for (Reporter<?> reporter : client) {
+			reporter.recordGaugeValue(key, value, timestamp);
+		}
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value, long timestamp) {
+		for (Reporter<?> reporter : client) {
+			reporter.recordGaugeValue(key, value, timestamp);
+		}
+	}
+
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+		for (Reporter<?> reporter : client) {
+			reporter.recordGaugeValues(gauges, timestamp);
+		}
+	}
+
+	@Override
+	public void recordGaugeBatch(GaugeBatch batch) {
+		for (Reporter<?> reporter : client) {
+			reporter.recordGaugeBatch(batch);
+		}
+	}
+
+	/**
+	 * The bounds metrics are emitted if any of the reporters needs them
+	 *
+	 * @return true if the bounds metrics should be emitted, false otherwise
+	 */
+	@Override
+	public boolean emitBounds() {
+		for (Reporter<?> reporter : client) {
+			if (reporter.emitBounds()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Send the points queued for each reporter and close it
+	 */
+	@Override
+	public void close() {
+		for (Reporter<?> reporter : client) {
+			reporter.close();
+		}
+	}
+
+	/**
+	 * @return The queued reporters, in the order they were given
+	 */
+	public List<Reporter<?>> getReporters() {
+		return client;
+	}
+
+	/**
+	 * Create each reporter with its own arguments and wrap it in an AsyncReporter
+	 *
+	 * @param server The server to which to report data, unless overridden for a reporter
+	 * @param port The port on which the server is running, unless overridden for a reporter
+	 * @param prefix The prefix for metrics, unless overridden for a reporter
+	 * @return The queued reporters
+	 */
+	@Override
+	protected List<Reporter<?>> createClient(String server, int port, String prefix) {
+		List<Reporter<?>> reporters = new ArrayList<>(arguments.reporters.size());
+		for (Class<? extends Reporter<?>> reporterClass : arguments.reporters) {
+			if (reporterClass == CompositeReporter.class) {
+				throw new IllegalArgumentException("A CompositeReporter cannot report to another CompositeReporter");
+			}
+			Arguments reporterArgs = arguments.forComponent(reporterClass.getSimpleName());
+			// Each reporter replays its own spool
+			String spoolDir = reporterArgs.getStringArgument(AsyncReporter.SPOOL_DIR_ARG);
+			if (spoolDir != null) {
+				reporterArgs.mergeArguments(Collections.singletonMap(AsyncReporter.SPOOL_DIR_ARG,
+						new File(spoolDir, reporterClass.getSimpleName()).getPath()));
+			}
+			Reporter<?> reporter = Agent.instantiate(reporterClass, CONSTRUCTOR_PARAM_TYPES, reporterArgs);
+			reporters.add(new AsyncReporter(reporter, reporterArgs));
+		}
+
+		return Collections.unmodifiableList(reporters);
+	}
+
+	@Override
+	protected void handleArguments(Arguments arguments) {
+		this.arguments = arguments;
+	}
+}
@@ -0,0 +1,344 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.etsy.statsd.profiler.Arguments;
+
+/**
+ * Reporter that sends data to StatsD over UDP with an NIO DatagramChannel
+ *
+ * Gauges are encoded straight into a reused direct buffer, without formatting a String or boxing the value,
+ * and as many newline-separated gauges as fit in a packet of at most statsdMaxPacketSize bytes are sent together.
+ * The channel is non-blocking, so a packet the socket cannot take right away is dropped rather than waited on.
+ * StatsD reads a gauge with a sign as a change to its value, so like the StatsD client a negative gauge is preceded
+ * by a gauge of 0 that resets it.
+ */
+public class DatagramStatsDReporter extends Reporter<DatagramChannel> {
+	public static final String MAX_PACKET_SIZE_ARG = "statsdMaxPacketSize";
+	// Fits in the 1500 byte Ethernet MTU with IPv6 and UDP headers
+	public static final int DEFAULT_MAX_PACKET_SIZE = 1432;
+
+	private static final Logger LOGGER = Logger.getLogger(DatagramStatsDReporter.class.getName());
+	private static final byte[] GAUGE_SUFFIX = "|g".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] ZERO_GAUGE = "0|g".getBytes(StandardCharsets.US_ASCII);
+	private static final int FRACTION_DIGITS = 6;
+	private static final long FRACTION_SCALE = 1000000;
+	// Above this magnitude doubles are written as longs, since scaling them would overflow
+	private static final double MAX_SCALED_DOUBLE = Long.MAX_VALUE / FRACTION_SCALE;
+
+	private int maxPacketSize;
+
+	private final byte[] prefix;
+	private final ByteBuffer buffer;
+	// Scratch space for the digits of a long, which are produced in reverse
+	private final byte[] digits = new byte[20];
+
+	private long packetsSent;
+	private long droppedGauges;
+	private boolean failing;
+
+	public DatagramStatsDReporter(Arguments arguments) {
+		super(arguments);
+		String metricsPrefix = arguments.metricsPrefix;
+		prefix = metricsPrefix == null || metricsPrefix.isEmpty() ? new byte[0]
+				: (metricsPrefix + ".").getBytes(StandardCharsets.UTF_8);
+		buffer = ByteBuffer.allocateDirect(maxPacketSize);
+	}
+
+	/**
+	 * Send a gauge value to StatsD right away
+	 *
+	 * @param key The key for the gauge
+	 * @param value The value of the gauge
+	 */
+	@Override
+	public synchronized void recordGaugeValue(String key, long value) {
+		appendGauge(key, null, value, 0, false);
+		flush();
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long)
+	 */
+	@Override
+	public synchronized void recordGaugeValue(String key, double value) {
+		appendGauge(key, null, 0, value, true);
+		flush();
+	}
+
+	/**
+	 * Send multiple gauge values to StatsD, packed into as few packets as possible
+	 *
+	 * @param gauges A map of gauge names to values
+	 */
+	@Override
+	public synchronized void recordGaugeValues(Map<String, ? extends Number> gauges) {
+		for (Map.Entry<String, ? extends Number> gauge : gauges.entrySet()) {
+			Number value = gauge.getValue();
+			if (value instanceof Long || value instanceof Integer) {
+				appendGauge(gauge.getKey(), null, value.longValue(), 0, false);
+			} else if (value instanceof Double || value instanceof Float) {
+				appendGauge(gauge.getKey(), null, 0, value.doubleValue(), true);
+			} else {
+				throw new IllegalArgumentException(
+						"Unexpected Number type: " + value.getClass().getSimpleName());
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Send a batch of gauge values to StatsD, packed into as few packets as possible
+	 * StatsD does not store timestamps, so they are ignored
+	 *
+	 * @param batch The gauges to record
+	 */
+	@Override
+	public synchronized void recordGaugeBatch(GaugeBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			MetricName name = batch.nameAt(i);
+			byte[] encodedKey = name != null ? name.getStatsDBytes() : null;
+			if (batch.isDouble(i)) {
+				appendGauge(batch.keyAt(i), encodedKey, 0, batch.doubleAt(i), true);
+			} else {
+				appendGauge(batch.keyAt(i), encodedKey, batch.longAt(i), 0, false);
+			}
+		}
+		flush();
+	}
+
+	@Override
+	public synchronized void close() {
+		flush();
+		try {
+			client.close();
+		} catch (IOException e) {
+			LOGGER.log(Level.FINE, "Unable to close the StatsD channel", e);
+		}
+	}
+
+	/**
+	 * @return The number of packets sent
+	 */
+	public synchronized long getPacketsSent() {
+		return packetsSent;
+	}
+
+	/**
+	 * @return The number of gauges that were too large for a packet or could not be sent
+	 */
+	public synchronized long getDroppedGauges() {
+		return droppedGauges;
+	}
+
+	/**
+	 * Open a non-blocking datagram channel connected to StatsD
+	 *
+	 * @param server The hostname of the StatsD server
+	 * @param port The port on which StatsD is running
+	 * @param prefix The prefix for all metrics sent
+	 * @return A connected DatagramChannel
+	 */
+	@Override
+	protected DatagramChannel createClient(String server, int port, String prefix) {
+		try {
+			DatagramChannel channel = DatagramChannel.open();
+			channel.configureBlocking(false);
+			channel.connect(new InetSocketAddress(server, port));
+			return channel;
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to open a channel to StatsD at " + server + ":" + port, e);
+		}
+	}
+
+	@Override
+	protected void handleArguments(Arguments arguments) {
+		maxPacketSize = arguments.getIntArgument(MAX_PACKET_SIZE_ARG);
+		if (maxPacketSize <= 0) {
+			maxPacketSize = DEFAULT_MAX_PACKET_SIZE;
+		}
+	}
+
+	/**
+	 * Append a gauge to the packet, sending the packet first if the gauge does not fit
+	 *
+	 * @param encodedKey The key already encoded as UTF-8, or null to encode it here
+	 */
+	private void appendGauge(String key, byte[] encodedKey, long longValue, double doubleValue, boolean isDouble) {
+		if (isDouble && (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue))) {
+			droppedGauges++;
+			return;
+		}
+
+		int start = buffer.position();
+		if (tryAppendGauge(key, encodedKey, longValue, doubleValue, isDouble, start)) {
+			return;
+		}
+		if (start > 0) {
+			flush();
+			if (tryAppendGauge(key, encodedKey, longValue, doubleValue, isDouble, 0)) {
+				return;
+			}
+		}
+		droppedGauges++;
+	}
+
+	private boolean tryAppendGauge(String key, byte[] encodedKey, long longValue, double doubleValue, boolean isDouble, int start) {
+		try {
+			if (start > 0) {
+				buffer.put((byte) '\n');
+			}
+			if (isNegative(longValue, doubleValue, isDouble)) {
+				putKey(key, encodedKey);
+				buffer.put(ZERO_GAUGE);
+				buffer.put((byte) '\n');
+			}
+			putKey(key, encodedKey);
+			if (isDouble) {
+				putDouble(doubleValue);
+			} else {
+				putLong(longValue);
+			}
+			buffer.put(GAUGE_SUFFIX);
+			return true;
+		} catch (BufferOverflowException e) {
+			buffer.position(start);
+			return false;
+		}
+	}
+
+	private void putKey(String key, byte[] encodedKey) {
+		buffer.put(prefix);
+		if (encodedKey != null) {
+			buffer.put(encodedKey);
+		} else {
+			putString(key);
+		}
+		buffer.put((byte) ':');
+	}
+
+	/**
+	 * Indicate if a gauge is written with a minus sign, the same way putDouble rounds it
+	 */
+	private static boolean isNegative(long longValue, double doubleValue, boolean isDouble) {
+		if (!isDouble) {
+			return longValue < 0;
+		}
+		return doubleValue < 0 && Math.round(Math.abs(doubleValue) * FRACTION_SCALE) != 0;
+	}
+
+	/**
+	 * Send the gauges in the buffer as one packet
+	 */
+	private void flush() {
+		if (buffer.position() == 0) {
+			return;
+		}
+
+		buffer.flip();
+		try {
+			if (client.write(buffer) > 0) {
+				packetsSent++;
+				failing = false;
+			} else {
+				droppedGauges++;
+			}
+		} catch (IOException e) {
+			// e.g. PortUnreachableException when nothing is listening
+			droppedGauges++;
+			if (!failing) {
+				LOGGER.log(Level.WARNING, "Unable to send to StatsD, dropping packets until it succeeds", e);
+				failing = true;
+			}
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Encode a String as UTF-8
+	 */
+	private void putString(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xc0 | c >> 6));
+				buffer.put((byte) (0x80 | c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+					&& Character.isLowSurrogate(value.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, value.charAt(++i));
+				buffer.put((byte) (0xf0 | codePoint >> 18));
+				buffer.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+				buffer.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+				buffer.put((byte) (0x80 | codePoint & 0x3f));
+			} else {
+				buffer.put((byte) (0xe0 | c >> 12));
+				buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+				buffer.put((byte) (0x80 | c & 0x3f));
+			}
+		}
+	}
+
+	private void putLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			// Cannot be negated
+			putString(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (count > 0) {
+			buffer.put(digits[--count]);
+		}
+	}
+
+	/**
+	 * Write a double with at most 6 fraction digits and no trailing zeros, like the StatsD client does
+	 */
+	private void putDouble(double value) {
+		double magnitude = Math.abs(value);
+		if (magnitude >= MAX_SCALED_DOUBLE) {
+			putLong((long) value);
+			return;
+		}
+
+		long scaled = Math.round(magnitude * FRACTION_SCALE);
+		if (value < 0 && scaled != 0) {
+			buffer.put((byte) '-');
+		}
+		putLong(scaled / FRACTION_SCALE);
+
+		long fraction = scaled % FRACTION_SCALE;
+		if (fraction == 0) {
+			return;
+		}
+		int length = FRACTION_DIGITS;
+		while (fraction % 10 == 0) {
+			fraction /= 10;
+			length--;
+		}
+		buffer.put((byte) '.');
+		for (int i = length - 1; i >= 0; i--) {
+			digits[i] = (byte) ('0' + fraction % 10);
+			fraction /= 10;
+		}
+		buffer.put(digits, 0, length);
+	}
+}
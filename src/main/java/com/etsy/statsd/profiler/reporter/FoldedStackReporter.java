@@ -0,0 +1,243 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.etsy.statsd.profiler.Arguments;
+import com.etsy.statsd.profiler.util.TagUtil;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * Reporter that writes the CPU traces to local files in the folded format used by FlameGraph
+ *
+ * The traces drained from CPUTraces at each flush are written as one "frame;frame;frame count" line per trace, with
+ * the outermost frame first and the frames formatted as influxdb_dump.py and graphite_dump.py format them, so a flame
+ * graph can be rendered from the files without querying a metrics store. Each line holds the samples of one flush,
+ * so concatenating the files of a time range gives the profile of that range. The tags of a trace, such as its pool
+ * or thread state, are written as its outermost frames. Gauges that are not CPU traces are ignored.
+ *
+ * @see FoldedStackWriter
+ */
+public class FoldedStackReporter extends Reporter<FoldedStackWriter> {
+	public static final String DIR_ARG = "foldedDir";
+	public static final String ROTATE_SECONDS_ARG = "foldedRotateSeconds";
+	public static final String ROTATE_BYTES_ARG = "foldedRotateBytes";
+	public static final String GZIP_ARG = "foldedGzip";
+
+	public static final int DEFAULT_ROTATE_SECONDS = 3600;
+	public static final long DEFAULT_ROTATE_BYTES = 64L * 1024 * 1024;
+
+	private static final Logger LOGGER = Logger.getLogger(FoldedStackReporter.class.getName());
+	private static final String[] TRACE_MEASUREMENTS = new String[] { "cpu.trace", "offcpu.trace" };
+	// Clear the cache of folded stacks once it holds this many, as the set of traces changes over time
+	private static final int MAX_CACHED_STACKS = 100000;
+
+	private String dir;
+	private long rotateSeconds;
+	private long rotateBytes;
+	private boolean gzip;
+
+	// The folded stack of each key, or null for gauges that are not traces. Guarded by this
+	private final Map<String, byte[]> stacks = new HashMap<>();
+
+	public FoldedStackReporter(Arguments arguments) {
+		super(arguments);
+	}
+
+	@Override
+	public void recordGaugeValue(String key, long value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+		recordGaugeValues(gauges, System.currentTimeMillis());
+	}
+
+	@Override
+	public synchronized void recordGaugeValue(String key, long value, long timestamp) {
+		try {
+			write(key, value, timestamp);
+			client.flush();
+		} catch (IOException e) {
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value, long timestamp) {
+		recordGaugeValue(key, Math.round(value), timestamp);
+	}
+
+	@Override
+	public synchronized void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+		try {
+			for (Map.Entry<String, ? extends Number> gauge : gauges.entrySet()) {
+				write(gauge.getKey(), Math.round(gauge.getValue().doubleValue()), timestamp);
+			}
+			client.flush();
+		} catch (IOException e) {
+			throw failed(e);
+		}
+	}
+
+	@Override
+	public synchronized void recordGaugeBatch(GaugeBatch batch) {
+		try {
+			for (int i = 0; i < batch.size(); i++) {
+				long count = batch.isDouble(i) ? Math.round(batch.doubleAt(i)) : batch.longAt(i);
+				write(batch.keyAt(i), count, batch.timestampAt(i));
+			}
+			client.flush();
+		} catch (IOException e) {
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * The bounds are only needed to query the traces from a metrics store
+	 *
+	 * @return false
+	 */
+	@Override
+	public boolean emitBounds() {
+		return false;
+	}
+
+	/**
+	 * Close the current file, completing it if it is gzipped
+	 */
+	@Override
+	public synchronized void close() {
+		try {
+			client.close();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Unable to close folded stack file " + client.getFile(), e);
+		}
+	}
+
+	/**
+	 * Convert a trace key to a folded stack
+	 *
+	 * @param key The trace key, as built by CPUTraces
+	 * @return The frames of the trace, outermost first and separated by semicolons, or null if the key is not a trace
+	 */
+	static String fold(String key) {
+		int separator = key.indexOf(TagUtil.TAG_SEPARATOR);
+		if (separator < 0) {
+			return null;
+		}
+		int measurementEnd = key.indexOf(',');
+		String measurement = key.substring(0, measurementEnd);
+		boolean trace = false;
+		for (String traceMeasurement : TRACE_MEASUREMENTS) {
+			trace |= traceMeasurement.equals(measurement);
+		}
+		if (!trace) {
+			return null;
+		}
+
+		StringBuilder folded = new StringBuilder(key.length() - separator);
+		if (measurementEnd < separator) {
+			// The tags between the measurement and the separator, e.g. state=WAITING,pool=worker
+			for (String tag : key.substring(measurementEnd + 1, separator).split(",")) {
+				folded.append(tag).append(';');
+			}
+		}
+		String[] frames = key.substring(separator + TagUtil.TAG_SEPARATOR.length()).split("\\|");
+		for (int i = frames.length - 1; i >= 0; i--) {
+			appendFrame(folded, frames[i]);
+			if (i > 0) {
+				folded.append(';');
+			}
+		}
+		return folded.toString();
+	}
+
+	/**
+	 * Append a frame formatted as class-name-method-line in the class.name.method:line form
+	 * A frame without a line number, such as the other trace, is appended as is
+	 */
+	private static void appendFrame(StringBuilder folded, String frame) {
+		int lineDash = frame.lastIndexOf('-');
+		if (lineDash < 0) {
+			folded.append(frame);
+		} else if (lineDash > 0 && frame.charAt(lineDash - 1) == '-') {
+			// A negative line number, which means it is not known
+			folded.append(frame.substring(0, lineDash - 1).replace('-', '.'));
+		} else {
+			folded.append(frame.substring(0, lineDash).replace('-', '.')).append(':')
+					.append(frame, lineDash + 1, frame.length());
+		}
+	}
+
+	/**
+	 * @param server Not used
+	 * @param port Not used
+	 * @param prefix The prefix for metrics, which starts the name of each file
+	 * @return The writer for the folded stack files
+	 */
+	@Override
+	protected FoldedStackWriter createClient(String server, int port, String prefix) {
+		String baseName = prefix + "-" + ManagementFactory.getRuntimeMXBean().getName();
+		return new FoldedStackWriter(new File(dir), baseName, TimeUnit.SECONDS.toMillis(rotateSeconds), rotateBytes,
+				gzip);
+	}
+
+	@Override
+	protected void handleArguments(Arguments arguments) {
+		dir = arguments.getStringArgument(DIR_ARG);
+		Preconditions.checkArgument(dir != null, "%s argument was not supplied", DIR_ARG);
+		String seconds = arguments.getStringArgument(ROTATE_SECONDS_ARG);
+		rotateSeconds = seconds != null ? Long.parseLong(seconds) : DEFAULT_ROTATE_SECONDS;
+		String bytes = arguments.getStringArgument(ROTATE_BYTES_ARG);
+		rotateBytes = bytes != null ? Long.parseLong(bytes) : DEFAULT_ROTATE_BYTES;
+		gzip = Boolean.parseBoolean(Optional.fromNullable(arguments.getStringArgument(GZIP_ARG)).or("false"));
+	}
+
+	private void write(String key, long count, long timestamp) throws IOException {
+		byte[] stack = stacks.get(key);
+		if (stack == null && !stacks.containsKey(key)) {
+			if (stacks.size() >= MAX_CACHED_STACKS) {
+				stacks.clear();
+			}
+			String folded = fold(key);
+			stack = folded != null ? folded.getBytes(StandardCharsets.UTF_8) : null;
+			stacks.put(key, stack);
+		}
+		if (stack != null && count > 0) {
+			client.write(stack, count, timestamp);
+		}
+	}
+
+	/**
+	 * Close the file after a failed write, so the next write starts a new one
+	 */
+	private IllegalStateException failed(IOException e) {
+		try {
+			client.close();
+		} catch (IOException closeException) {
+			e.addSuppressed(closeException);
+		}
+		return new IllegalStateException("Unable to write folded stacks to " + dir, e);
+	}
+}
@@ -0,0 +1,182 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Writes stacks in the folded format, one "frame;frame;frame count" line per stack, to rotated local files
+ *
+ * Lines are encoded into a reused buffer and written to the file channel when it is full or on {@link #flush()}.
+ * A new file is started once the current one has been written to for rotateMillis, or has been given rotateBytes of
+ * lines, before compression. Files are only created once a line is written, so an idle profiler leaves no empty files.
+ *
+ * Files are named after the base name, the time at which they were started and a sequence number, e.g.
+ * statsd-jvm-profiler-1234@host-20150101T120000Z-0.folded, so that listing them in order lists the stacks in order.
+ * Files are written with the .gz suffix if gzip is enabled, and each gzipped file is only complete once it is rotated
+ * or the writer is closed.
+ *
+ * Writers are not thread-safe.
+ */
+public class FoldedStackWriter {
+	public static final String SUFFIX = ".folded";
+	public static final String GZIP_SUFFIX = ".gz";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File directory;
+	private final String baseName;
+	private final long rotateMillis;
+	private final long rotateBytes;
+	private final boolean gzip;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final SimpleDateFormat dateFormat;
+
+	private WritableByteChannel channel;
+	private File file;
+	private long fileStart;
+	private long fileBytes;
+	private int sequence;
+
+	/**
+	 * @param directory The directory in which to write the files, which is created if needed
+	 * @param baseName The start of the name of each file
+	 * @param rotateMillis How long to write to a file before starting a new one, or 0 to not rotate on time
+	 * @param rotateBytes How many bytes of lines to write to a file before starting a new one, or 0 to not rotate on size
+	 * @param gzip Whether to gzip the files
+	 */
+	public FoldedStackWriter(File directory, String baseName, long rotateMillis, long rotateBytes, boolean gzip) {
+		Preconditions.checkNotNull(directory);
+		Preconditions.checkNotNull(baseName);
+		this.directory = directory;
+		this.baseName = baseName;
+		this.rotateMillis = rotateMillis;
+		this.rotateBytes = rotateBytes;
+		this.gzip = gzip;
+		dateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+	}
+
+	/**
+	 * Write a stack, rotating the file first if its window has passed
+	 *
+	 * @param stack The frames of the stack, outermost first, separated by semicolons and encoded in UTF-8
+	 * @param count The number of samples of the stack
+	 * @param timestamp The time at which the stack was sampled, in milliseconds since the epoch
+	 * @throws IOException If a file cannot be created or written
+	 */
+	public void write(byte[] stack, long count, long timestamp) throws IOException {
+		if (channel != null && (rotateMillis > 0 && timestamp - fileStart >= rotateMillis
+				|| rotateBytes > 0 && fileBytes >= rotateBytes)) {
+			close();
+		}
+		if (channel == null) {
+			open(timestamp);
+		}
+
+		// The stack, a space, at most 20 characters of count and a newline
+		int lineBytes = stack.length + 22;
+		if (lineBytes > buffer.remaining()) {
+			drain();
+		}
+		if (lineBytes > buffer.capacity()) {
+			writeFully(ByteBuffer.wrap(stack));
+			fileBytes += stack.length;
+			stack = new byte[0];
+		}
+		int start = buffer.position();
+		buffer.put(stack);
+		buffer.put((byte) ' ');
+		putCount(count);
+		buffer.put((byte) '\n');
+		fileBytes += buffer.position() - start;
+	}
+
+	/**
+	 * Write the buffered lines to the file
+	 * Gzipped lines may still be held by the compressor until the file is rotated or closed
+	 *
+	 * @throws IOException If the file cannot be written
+	 */
+	public void flush() throws IOException {
+		if (channel != null) {
+			drain();
+		}
+	}
+
+	/**
+	 * Write the buffered lines and close the current file, so the next line starts a new one
+	 *
+	 * @throws IOException If the file cannot be written
+	 */
+	public void close() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		try {
+			drain();
+		} finally {
+			WritableByteChannel closing = channel;
+			channel = null;
+			buffer.clear();
+			closing.close();
+		}
+	}
+
+	/**
+	 * @return The file being written, or null if no file is open
+	 */
+	public File getFile() {
+		return channel != null ? file : null;
+	}
+
+	private void open(long timestamp) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Unable to create directory " + directory);
+		}
+		file = new File(directory, String.format("%s-%s-%d%s%s", baseName, dateFormat.format(new Date(timestamp)),
+				sequence++, SUFFIX, gzip ? GZIP_SUFFIX : ""));
+		FileChannel fileChannel = new FileOutputStream(file).getChannel();
+		channel = gzip
+				? Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(fileChannel), BUFFER_SIZE))
+				: fileChannel;
+		fileStart = timestamp;
+		fileBytes = 0;
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		writeFully(buffer);
+		buffer.clear();
+	}
+
+	private void writeFully(ByteBuffer bytes) throws IOException {
+		while (bytes.hasRemaining()) {
+			channel.write(bytes);
+		}
+	}
+
+	private void putCount(long count) {
+		if (count < 0) {
+			buffer.put((byte) '0');
+			return;
+		}
+		long divisor = 1;
+		while (divisor <= count / 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			buffer.put((byte) ('0' + count / divisor % 10));
+		}
+	}
+}
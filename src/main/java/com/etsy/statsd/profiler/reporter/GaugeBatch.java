@@ -0,0 +1,194 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.util.Arrays;
+
+/**
+ * A batch of gauge values held in parallel arrays
+ *
+ * Values are kept as primitive longs or doubles with the time they were sampled at, so filling a batch does not box
+ * any values or allocate entries. A profiler keeps one batch and clears it every tick, so once the arrays have grown to
+ * the size of a tick they are reused. Gauges added with a {@link MetricName} keep the handle, so reporters can write
+ * its pre-encoded bytes.
+ *
+ * Batches are not thread-safe. Reporters must not keep a reference to a batch after recording it.
+ */
+public class GaugeBatch {
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private String[] keys;
+	private MetricName[] names;
+	private long[] longValues;
+	private double[] doubleValues;
+	private boolean[] doubles;
+	private long[] timestamps;
+	private int size;
+
+	public GaugeBatch() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity The number of gauges the batch can hold before it grows
+	 */
+	public GaugeBatch(int capacity) {
+		capacity = Math.max(1, capacity);
+		keys = new String[capacity];
+		names = new MetricName[capacity];
+		longValues = new long[capacity];
+		doubleValues = new double[capacity];
+		doubles = new boolean[capacity];
+		timestamps = new long[capacity];
+	}
+
+	/**
+	 * Add a gauge value
+	 *
+	 * @param key The name of the gauge
+	 * @param value The value of the gauge
+	 * @param timestamp The time at which the value was sampled, in milliseconds since the epoch
+	 * @return This batch
+	 */
+	public GaugeBatch add(String key, long value, long timestamp) {
+		int index = next(key, timestamp);
+		longValues[index] = value;
+		doubles[index] = false;
+		return this;
+	}
+
+	/**
+	 * @see #add(String, long, long)
+	 */
+	public GaugeBatch add(String key, double value, long timestamp) {
+		int index = next(key, timestamp);
+		doubleValues[index] = value;
+		doubles[index] = true;
+		return this;
+	}
+
+	/**
+	 * Add a gauge value for a resolved metric name
+	 *
+	 * @param name The handle for the name of the gauge
+	 * @param value The value of the gauge
+	 * @param timestamp The time at which the value was sampled, in milliseconds since the epoch
+	 * @return This batch
+	 */
+	public GaugeBatch add(MetricName name, long value, long timestamp) {
+		add(name.getName(), value, timestamp);
+		names[size - 1] = name;
+		return this;
+	}
+
+	/**
+	 * @see #add(MetricName, long, long)
+	 */
+	public GaugeBatch add(MetricName name, double value, long timestamp) {
+		add(name.getName(), value, timestamp);
+		names[size - 1] = name;
+		return this;
+	}
+
+	/**
+	 * Add a boxed gauge value, as found in the maps given to {@link Reporter#recordGaugeValues(java.util.Map)}
+	 *
+	 * @param key The name of the gauge
+	 * @param value A Long, Integer, Double or Float
+	 * @param timestamp The time at which the value was sampled, in milliseconds since the epoch
+	 * @return This batch
+	 */
+	public GaugeBatch add(String key, Number value, long timestamp) {
+		if (value instanceof Long || value instanceof Integer) {
+			return add(key, value.longValue(), timestamp);
+		} else if (value instanceof Double || value instanceof Float) {
+			return add(key, value.doubleValue(), timestamp);
+		} else {
+			throw new IllegalArgumentException("Unexpected Number type: " + value.getClass().getSimpleName());
+		}
+	}
+
+	/**
+	 * Remove every gauge, keeping the arrays for the next tick
+	 */
+	public void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(names, 0, size, null);
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public String keyAt(int index) {
+		return keys[check(index)];
+	}
+
+	/**
+	 * @return The handle for the key at the index, or null if the gauge was added with a String key
+	 */
+	public MetricName nameAt(int index) {
+		return names[check(index)];
+	}
+
+	/**
+	 * @return true if the value at the index is a double, false if it is a long
+	 */
+	public boolean isDouble(int index) {
+		return doubles[check(index)];
+	}
+
+	/**
+	 * @return The value at the index, converted to a long if it is a double
+	 */
+	public long longAt(int index) {
+		return doubles[check(index)] ? (long) doubleValues[index] : longValues[index];
+	}
+
+	/**
+	 * @return The value at the index, converted to a double if it is a long
+	 */
+	public double doubleAt(int index) {
+		return doubles[check(index)] ? doubleValues[index] : longValues[index];
+	}
+
+	/**
+	 * @return The value at the index, boxed as a Long or a Double
+	 */
+	public Number valueAt(int index) {
+		return doubles[check(index)] ? (Number) doubleValues[index] : (Number) longValues[index];
+	}
+
+	/**
+	 * @return The time at which the value at the index was sampled, in milliseconds since the epoch
+	 */
+	public long timestampAt(int index) {
+		return timestamps[check(index)];
+	}
+
+	private int next(String key, long timestamp) {
+		if (size == keys.length) {
+			int capacity = size * 2;
+			keys = Arrays.copyOf(keys, capacity);
+			names = Arrays.copyOf(names, capacity);
+			longValues = Arrays.copyOf(longValues, capacity);
+			doubleValues = Arrays.copyOf(doubleValues, capacity);
+			doubles = Arrays.copyOf(doubles, capacity);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+		}
+		keys[size] = key;
+		names[size] = null;
+		timestamps[size] = timestamp;
+		return size++;
+	}
+
+	private int check(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + " out of bounds for batch of size " + size);
+		}
+		return index;
+	}
+}
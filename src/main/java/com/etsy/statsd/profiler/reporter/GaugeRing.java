@@ -0,0 +1,188 @@
+package com.etsy.statsd.profiler.reporter;
+
+/**
+ * A bounded queue of gauges held in a ring of parallel arrays, for many producers and one consumer
+ *
+ * Like a {@link GaugeBatch} the slots hold primitive values, so adding a gauge neither boxes its value nor allocates
+ * an entry, and a whole batch is copied in with one lock acquisition. The arrays grow as needed up to the capacity and
+ * are then reused. When the ring is full either the oldest gauge or the new one is dropped.
+ */
+class GaugeRing {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final int capacity;
+
+	// Guarded by this
+	private String[] keys;
+	private MetricName[] names;
+	private long[] longValues;
+	private double[] doubleValues;
+	private boolean[] doubles;
+	private long[] timestamps;
+	// The index of the oldest gauge
+	private int head;
+	private int size;
+	private boolean consumerWaiting;
+
+	/**
+	 * @param capacity The maximum number of gauges held
+	 */
+	GaugeRing(int capacity) {
+		this.capacity = capacity;
+		allocate(Math.min(capacity, INITIAL_CAPACITY));
+	}
+
+	/**
+	 * Add a gauge
+	 *
+	 * @param dropOldest Whether to drop the oldest gauge if the ring is full, rather than the new one
+	 * @return The number of gauges dropped
+	 */
+	synchronized int add(String key, MetricName name, long longValue, double doubleValue, boolean isDouble,
+			long timestamp, boolean dropOldest) {
+		int dropped = put(key, name, longValue, doubleValue, isDouble, timestamp, dropOldest);
+		wakeConsumer();
+		return dropped;
+	}
+
+	/**
+	 * Copy every gauge of a batch in
+	 *
+	 * @param dropOldest Whether to drop the oldest gauges if the ring is full, rather than the new ones
+	 * @return The number of gauges dropped
+	 */
+	synchronized int addAll(GaugeBatch batch, boolean dropOldest) {
+		int dropped = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			boolean isDouble = batch.isDouble(i);
+			dropped += put(batch.keyAt(i), batch.nameAt(i), isDouble ? 0 : batch.longAt(i),
+					isDouble ? batch.doubleAt(i) : 0, isDouble, batch.timestampAt(i), dropOldest);
+		}
+		wakeConsumer();
+		return dropped;
+	}
+
+	/**
+	 * Move the oldest gauges to a batch, waiting for one to be added if the ring is empty
+	 *
+	 * @param batch The batch to add the gauges to
+	 * @param max The maximum number of gauges to move
+	 * @param timeoutMillis How long to wait for a gauge
+	 * @return The number of gauges moved, 0 if none was added before the timeout
+	 * @throws InterruptedException If interrupted while waiting
+	 */
+	synchronized int drainTo(GaugeBatch batch, int max, long timeoutMillis) throws InterruptedException {
+		long deadline = System.nanoTime() + timeoutMillis * 1000000;
+		while (size == 0) {
+			long remainingMillis = (deadline - System.nanoTime()) / 1000000;
+			if (remainingMillis <= 0) {
+				return 0;
+			}
+			consumerWaiting = true;
+			try {
+				wait(remainingMillis);
+			} finally {
+				consumerWaiting = false;
+			}
+		}
+
+		int count = Math.min(size, max);
+		for (int i = 0; i < count; i++) {
+			int index = head;
+			if (names[index] != null) {
+				if (doubles[index]) {
+					batch.add(names[index], doubleValues[index], timestamps[index]);
+				} else {
+					batch.add(names[index], longValues[index], timestamps[index]);
+				}
+			} else if (doubles[index]) {
+				batch.add(keys[index], doubleValues[index], timestamps[index]);
+			} else {
+				batch.add(keys[index], longValues[index], timestamps[index]);
+			}
+			removeHead();
+		}
+		return count;
+	}
+
+	synchronized int size() {
+		return size;
+	}
+
+	private int put(String key, MetricName name, long longValue, double doubleValue, boolean isDouble,
+			long timestamp, boolean dropOldest) {
+		int dropped = 0;
+		if (size == keys.length) {
+			if (keys.length < capacity) {
+				grow();
+			} else if (dropOldest) {
+				removeHead();
+				dropped = 1;
+			} else {
+				return 1;
+			}
+		}
+
+		int index = (head + size) % keys.length;
+		keys[index] = key;
+		names[index] = name;
+		longValues[index] = longValue;
+		doubleValues[index] = doubleValue;
+		doubles[index] = isDouble;
+		timestamps[index] = timestamp;
+		size++;
+		return dropped;
+	}
+
+	private void removeHead() {
+		keys[head] = null;
+		names[head] = null;
+		head = (head + 1) % keys.length;
+		size--;
+	}
+
+	private void wakeConsumer() {
+		if (consumerWaiting && size > 0) {
+			notify();
+		}
+	}
+
+	/**
+	 * Double the arrays, up to the capacity, moving the oldest gauge to the start
+	 */
+	private void grow() {
+		String[] oldKeys = keys;
+		MetricName[] oldNames = names;
+		long[] oldLongValues = longValues;
+		double[] oldDoubleValues = doubleValues;
+		boolean[] oldDoubles = doubles;
+		long[] oldTimestamps = timestamps;
+		allocate((int) Math.min(capacity, 2L * oldKeys.length));
+
+		int tail = oldKeys.length - head;
+		copy(oldKeys, keys, tail);
+		copy(oldNames, names, tail);
+		copy(oldLongValues, longValues, tail);
+		copy(oldDoubleValues, doubleValues, tail);
+		copy(oldDoubles, doubles, tail);
+		copy(oldTimestamps, timestamps, tail);
+		head = 0;
+	}
+
+	/**
+	 * Copy a full ring to the start of a larger array, oldest first
+	 */
+	private void copy(Object from, Object to, int tail) {
+		System.arraycopy(from, head, to, 0, tail);
+		System.arraycopy(from, 0, to, tail, head);
+	}
+
+	private void allocate(int length) {
+		keys = new String[length];
+		names = new MetricName[length];
+		longValues = new long[length];
+		doubleValues = new double[length];
+		doubles = new boolean[length];
+		timestamps = new long[length];
+	}
+}
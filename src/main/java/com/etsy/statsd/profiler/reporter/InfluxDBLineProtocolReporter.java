@@ -0,0 +1,160 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+import com.etsy.statsd.profiler.Arguments;
+import com.etsy.statsd.profiler.util.TagUtil;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+
+/**
+ * Reporter that sends data to InfluxDB in line protocol, batched across calls and profilers
+ *
+ * Points are written to the same series as with the InfluxDBReporter, but instead of one HTTP request per call they
+ * are collected by a {@link LineProtocolWriter} and posted gzipped once a batch is large or old enough.
+ *
+ * @see LineProtocolWriter
+ */
+public class InfluxDBLineProtocolReporter extends Reporter<LineProtocolWriter> {
+	public static final String BATCH_BYTES_ARG = "influxBatchBytes";
+	public static final String BATCH_AGE_ARG = "influxBatchAge";
+	public static final String GZIP_ARG = "influxGzip";
+
+	public static final int DEFAULT_BATCH_BYTES = 1024 * 1024;
+	public static final int DEFAULT_BATCH_AGE_MS = 10000;
+
+	private String username;
+	private String password;
+	private String database;
+	private String tagMapping;
+	private int batchBytes;
+	private int batchAgeMillis;
+	private boolean gzip;
+
+	public InfluxDBLineProtocolReporter(Arguments arguments) {
+		super(arguments);
+	}
+
+	@Override
+	public void recordGaugeValue(String key, long value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+		recordGaugeValues(gauges, System.currentTimeMillis());
+	}
+
+	@Override
+	public void recordGaugeValue(String key, long value, long timestamp) {
+		client.write(key, value, timestamp);
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value, long timestamp) {
+		client.write(key, value, timestamp);
+	}
+
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+		for (Map.Entry<String, ? extends Number> gauge : gauges.entrySet()) {
+			Number value = gauge.getValue();
+			if (value instanceof Double || value instanceof Float) {
+				client.write(gauge.getKey(), value.doubleValue(), timestamp);
+			} else {
+				client.write(gauge.getKey(), value.longValue(), timestamp);
+			}
+		}
+	}
+
+	@Override
+	public void recordGaugeBatch(GaugeBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			MetricName name = batch.nameAt(i);
+			if (name != null) {
+				if (batch.isDouble(i)) {
+					client.write(name, batch.doubleAt(i), batch.timestampAt(i));
+				} else {
+					client.write(name, batch.longAt(i), batch.timestampAt(i));
+				}
+			} else if (batch.isDouble(i)) {
+				client.write(batch.keyAt(i), batch.doubleAt(i), batch.timestampAt(i));
+			} else {
+				client.write(batch.keyAt(i), batch.longAt(i), batch.timestampAt(i));
+			}
+		}
+	}
+
+	/**
+	 * InfluxDB has a rich query language and does not need the bounds metrics emitted by CPUTracingProfiler
+	 *
+	 * @return false
+	 */
+	@Override
+	public boolean emitBounds() {
+		return false;
+	}
+
+	@Override
+	public void close() {
+		client.close();
+	}
+
+	/**
+	 * @param server The server to which to report data
+	 * @param port The port on which the server is running
+	 * @param prefix The prefix for metrics
+	 * @return A LineProtocolWriter for the /write endpoint of the database
+	 */
+	@Override
+	protected LineProtocolWriter createClient(String server, int port, String prefix) {
+		// If we have a tag mapping it must match the number of components of the prefix
+		Preconditions.checkArgument(
+				tagMapping == null || tagMapping.split("\\.").length == prefix.split("\\.").length);
+		Map<String, String> tags = TagUtil.getTags(tagMapping, prefix, true);
+		try {
+			URL writeUrl = new URL(String.format("http://%s:%d/write?db=%s&u=%s&p=%s&precision=ms", server, port,
+					URLEncoder.encode(database, "UTF-8"), URLEncoder.encode(username, "UTF-8"),
+					URLEncoder.encode(password, "UTF-8")));
+			return new LineProtocolWriter(writeUrl, tags, batchBytes, batchAgeMillis, gzip);
+		} catch (MalformedURLException | UnsupportedEncodingException e) {
+			throw new IllegalArgumentException("Invalid InfluxDB server " + server + ":" + port, e);
+		}
+	}
+
+	@Override
+	protected void handleArguments(Arguments arguments) {
+		username = arguments.getStringArgument(InfluxDBReporter.USERNAME_ARG);
+		password = arguments.getStringArgument(InfluxDBReporter.PASSWORD_ARG);
+		database = arguments.getStringArgument(InfluxDBReporter.DATABASE_ARG);
+		tagMapping = arguments.getStringArgument(InfluxDBReporter.TAG_MAPPING_ARG);
+		batchBytes = arguments.getIntArgument(BATCH_BYTES_ARG);
+		if (batchBytes <= 0) {
+			batchBytes = DEFAULT_BATCH_BYTES;
+		}
+		batchAgeMillis = arguments.getIntArgument(BATCH_AGE_ARG);
+		if (batchAgeMillis < 0) {
+			batchAgeMillis = DEFAULT_BATCH_AGE_MS;
+		}
+		gzip = Boolean.parseBoolean(Optional.fromNullable(arguments.getStringArgument(GZIP_ARG)).or("true"));
+
+		Preconditions.checkNotNull(username);
+		Preconditions.checkNotNull(password);
+		Preconditions.checkNotNull(database);
+	}
+}
@@ -48,8 +48,7 @@ public class InfluxDBReporter extends Reporter<InfluxDB> {
 	 */
 	@Override
 	public void recordGaugeValue(String key, long value) {
-		Map<String, Long> gauges = ImmutableMap.of(key, value);
-		recordGaugeValues(gauges);
+		recordGaugeValue(key, value, System.currentTimeMillis());
 	}
 
 	/**
@@ -57,8 +56,7 @@ public class InfluxDBReporter extends Reporter<InfluxDB> {
 	 */
 	@Override
 	public void recordGaugeValue(String key, double value) {
-		Map<String, ? extends Number> gauges = ImmutableMap.of(key, value);
-		recordGaugeValues(gauges);
+		recordGaugeValue(key, value, System.currentTimeMillis());
 	}
 
 	/**
@@ -68,10 +66,60 @@ public class InfluxDBReporter extends Reporter<InfluxDB> {
 	 */
 	@Override
 	public void recordGaugeValues(Map<String, ? extends Number> gauges) {
-		long time = System.currentTimeMillis();
+		recordGaugeValues(gauges, System.currentTimeMillis());
+	}
+
+	/**
+	 * Record a gauge value in InfluxDB at the time it was sampled
+	 *
+	 * @param key The key for the gauge
+	 * @param value The value of the gauge
+	 * @param timestamp The time at which the value was sampled, in milliseconds since the epoch
+	 */
+	@Override
+	public void recordGaugeValue(String key, long value, long timestamp) {
+		Map<String, Long> gauges = ImmutableMap.of(key, value);
+		recordGaugeValues(gauges, timestamp);
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value, long timestamp) {
+		Map<String, ? extends Number> gauges = ImmutableMap.of(key, value);
+		recordGaugeValues(gauges, timestamp);
+	}
+
+	/**
+	 * Record multiple gauge values in InfluxDB at the time they were sampled
+	 *
+	 * @param gauges A map of gauge names to values
+	 * @param timestamp The time at which the values were sampled, in milliseconds since the epoch
+	 */
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
 		BatchPoints batchPoints = BatchPoints.database(database).build();
 		for (Map.Entry<String, ? extends Number> gauge : gauges.entrySet()) {
-			batchPoints.point(constructPoint(time, gauge.getKey(), gauge.getValue()));
+			batchPoints.point(constructPoint(timestamp, gauge.getKey(), gauge.getValue()));
+		}
+		client.write(batchPoints);
+	}
+
+	/**
+	 * Record a batch of gauge values in InfluxDB with a single write, each at the time it was sampled
+	 *
+	 * @param batch The gauges to record
+	 */
+	@Override
+	public void recordGaugeBatch(GaugeBatch batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		BatchPoints batchPoints = BatchPoints.database(database).build();
+		for (int i = 0; i < batch.size(); i++) {
+			batchPoints.point(constructPoint(batch.timestampAt(i), batch.keyAt(i), batch.valueAt(i)));
 		}
 		client.write(batchPoints);
 	}
@@ -0,0 +1,481 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import com.etsy.statsd.profiler.worker.ProfilerThreadFactory;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Writes points to the InfluxDB /write endpoint in line protocol
+ *
+ * Points from every caller are appended to one reusable buffer, with the escaped tags rendered once up front.
+ * The buffer is posted, optionally gzipped, once it holds maxBatchBytes or its oldest point is maxBatchAgeMillis old.
+ * Batches are always posted by the writer's own sender thread, never by a caller: a full batch is handed to it by
+ * swapping in a second buffer, so callers keep appending while a batch is sent. If the second buffer fills up before
+ * the previous batch is sent, further points are dropped and counted rather than making the caller wait.
+ * A batch the server does not accept is dropped and counted.
+ *
+ * Measurements are escaped the same way as influxdb-java escapes them, so the series match those of the InfluxDBReporter.
+ */
+public class LineProtocolWriter {
+	private static final Logger LOGGER = Logger.getLogger(LineProtocolWriter.class.getName());
+	private static final int CONNECT_TIMEOUT_MS = 5000;
+	private static final int READ_TIMEOUT_MS = 10000;
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+	// Long enough for both buffers to be posted, with a retry each, when closing
+	private static final long CLOSE_TIMEOUT_MS = 4L * (CONNECT_TIMEOUT_MS + READ_TIMEOUT_MS);
+
+	private final URL writeUrl;
+	private final byte[] tagsAndField;
+	private final int maxBatchBytes;
+	private final long maxBatchAgeMillis;
+	private final boolean gzip;
+	private final ScheduledExecutorService sender;
+	private final Runnable postBatches = new Runnable() {
+		@Override
+		public void run() {
+			postBatches();
+		}
+	};
+
+	// Guarded by this
+	private byte[] lines = new byte[INITIAL_BUFFER_SIZE];
+	private int length;
+	private long oldestPointMillis;
+	private int points;
+	// Set while the sending buffer is handed to the sender thread
+	private boolean posting;
+	// Set when every point written so far should be posted once the current batch is sent
+	private boolean flushRequested;
+	private byte[] sending = new byte[INITIAL_BUFFER_SIZE];
+	private int sendingLength;
+	private int sendingPoints;
+	private long postsSent;
+	private long droppedPoints;
+
+	// Only accessed by the sender thread
+	private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+	private boolean failing;
+
+	/**
+	 * @param writeUrl The URL of the /write endpoint, including the database and the ms precision
+	 * @param tags The tags to add to every point
+	 * @param maxBatchBytes The size of the uncompressed batch at which it is posted
+	 * @param maxBatchAgeMillis The age of the oldest point at which a batch is posted, or 0 to only post full batches
+	 * @param gzip Whether to gzip the request body
+	 */
+	public LineProtocolWriter(URL writeUrl, Map<String, String> tags, int maxBatchBytes, long maxBatchAgeMillis,
+			boolean gzip) {
+		this.writeUrl = writeUrl;
+		this.maxBatchBytes = maxBatchBytes;
+		this.maxBatchAgeMillis = maxBatchAgeMillis;
+		this.gzip = gzip;
+
+		StringBuilder rendered = new StringBuilder();
+		for (Map.Entry<String, String> tag : new TreeMap<>(tags).entrySet()) {
+			rendered.append(',').append(escape(tag.getKey())).append('=').append(escape(tag.getValue()));
+		}
+		rendered.append(' ').append(InfluxDBReporter.VALUE_COLUMN).append('=');
+		tagsAndField = rendered.toString().getBytes(StandardCharsets.UTF_8);
+
+		sender = MoreExecutors.getExitingScheduledExecutorService(
+				(ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1, new ProfilerThreadFactory()));
+		if (maxBatchAgeMillis > 0) {
+			long checkPeriod = Math.max(1, maxBatchAgeMillis / 4);
+			sender.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (LineProtocolWriter.this) {
+						if (length > 0 && System.currentTimeMillis() - oldestPointMillis >= maxBatchAgeMillis) {
+							handOff();
+						}
+					}
+				}
+			}, checkPeriod, checkPeriod, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Add a point to the batch, posting the batch if it is full
+	 *
+	 * @param measurement The name of the measurement
+	 * @param value The value of the point
+	 * @param timeMillis The time of the point in milliseconds since the epoch
+	 */
+	public void write(String measurement, long value, long timeMillis) {
+		write(measurement, null, value, timeMillis);
+	}
+
+	/**
+	 * @see #write(String, long, long)
+	 */
+	public void write(String measurement, double value, long timeMillis) {
+		write(measurement, null, value, timeMillis);
+	}
+
+	/**
+	 * Add a point for a resolved measurement, copying its escaped bytes into the batch
+	 *
+	 * @see #write(String, long, long)
+	 */
+	public void write(MetricName measurement, long value, long timeMillis) {
+		write(null, measurement.getLineProtocolBytes(), value, timeMillis);
+	}
+
+	/**
+	 * @see #write(MetricName, long, long)
+	 */
+	public void write(MetricName measurement, double value, long timeMillis) {
+		write(null, measurement.getLineProtocolBytes(), value, timeMillis);
+	}
+
+	/**
+	 * Hand every point written so far to the sender thread, without waiting for it to be posted
+	 */
+	public synchronized void flush() {
+		if (posting) {
+			flushRequested = true;
+		} else if (length > 0) {
+			handOff();
+		}
+	}
+
+	/**
+	 * Post every point written so far, waiting for the sender thread to finish, and stop it
+	 */
+	public void close() {
+		flush();
+		sender.shutdown();
+		try {
+			if (!sender.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+				LOGGER.warning("Timed out posting the last points to InfluxDB at " + writeUrl.getHost());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public synchronized long getPostsSent() {
+		return postsSent;
+	}
+
+	/**
+	 * @return The number of points that could not be posted, or were dropped while both buffers were full
+	 */
+	public synchronized long getDroppedPoints() {
+		return droppedPoints;
+	}
+
+	/**
+	 * Escape a measurement, tag key or tag value
+	 *
+	 * @param value The value to escape
+	 * @return The value with commas, equals signs and spaces escaped
+	 */
+	public static String escape(String value) {
+		StringBuilder escaped = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == ',' || c == '=' || c == ' ') {
+				if (escaped == null) {
+					escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+				}
+				escaped.append('\\');
+			}
+			if (escaped != null) {
+				escaped.append(c);
+			}
+		}
+
+		return escaped == null ? value : escaped.toString();
+	}
+
+	private void write(String measurement, byte[] escapedMeasurement, long value, long timeMillis) {
+		synchronized (this) {
+			if (!hasRoom()) {
+				return;
+			}
+			startLine(measurement, escapedMeasurement);
+			appendLong(value);
+			endLine(timeMillis);
+		}
+	}
+
+	private void write(String measurement, byte[] escapedMeasurement, double value, long timeMillis) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			// Not representable in line protocol
+			return;
+		}
+		synchronized (this) {
+			if (!hasRoom()) {
+				return;
+			}
+			startLine(measurement, escapedMeasurement);
+			appendAscii(Double.toString(value));
+			endLine(timeMillis);
+		}
+	}
+
+	/**
+	 * Indicate if a point can be added, counting it as dropped if both buffers are full
+	 * Must be called while holding the lock
+	 */
+	private boolean hasRoom() {
+		if (posting && length >= maxBatchBytes) {
+			droppedPoints++;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Hand the batch to the sender thread by swapping the buffers, unless the previous batch is still being posted
+	 * Must be called while holding the lock
+	 */
+	private void handOff() {
+		if (posting) {
+			return;
+		}
+		swapBuffers();
+		posting = true;
+		try {
+			sender.execute(postBatches);
+		} catch (RejectedExecutionException e) {
+			// Closed, so nothing will post the batch
+			droppedPoints += sendingPoints;
+			posting = false;
+		}
+	}
+
+	private void swapBuffers() {
+		byte[] batch = lines;
+		lines = sending;
+		sending = batch;
+		sendingLength = length;
+		sendingPoints = points;
+		length = 0;
+		points = 0;
+		flushRequested = false;
+	}
+
+	/**
+	 * Post the handed off batch, and then the next one if it filled up or was flushed in the meantime
+	 * Only runs on the sender thread
+	 */
+	private void postBatches() {
+		while (true) {
+			boolean posted;
+			try {
+				post(sending, sendingLength);
+				posted = true;
+				if (failing) {
+					LOGGER.info("InfluxDB at " + writeUrl.getHost() + " recovered");
+					failing = false;
+				}
+			} catch (IOException e) {
+				posted = false;
+				if (!failing) {
+					LOGGER.log(Level.WARNING, "Unable to write to InfluxDB at " + writeUrl.getHost()
+							+ ", dropping points until it succeeds", e);
+					failing = true;
+				}
+			}
+
+			synchronized (this) {
+				if (posted) {
+					postsSent++;
+				} else {
+					droppedPoints += sendingPoints;
+				}
+				if (length == 0 || (length < maxBatchBytes && !flushRequested)) {
+					posting = false;
+					return;
+				}
+				swapBuffers();
+			}
+		}
+	}
+
+	private void post(byte[] body, int bodyLength) throws IOException {
+		if (gzip) {
+			compressed.reset();
+			GZIPOutputStream gzipStream = new GZIPOutputStream(compressed, 8192);
+			gzipStream.write(body, 0, bodyLength);
+			gzipStream.close();
+		}
+
+		try {
+			send(body, bodyLength);
+		} catch (IOException e) {
+			// Retry once on a new connection, since the server may have closed an idle kept-alive one
+			send(body, bodyLength);
+		}
+	}
+
+	private void send(byte[] body, int bodyLength) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) writeUrl.openConnection();
+		boolean succeeded = false;
+		try {
+			connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+			connection.setReadTimeout(READ_TIMEOUT_MS);
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+			if (gzip) {
+				connection.setRequestProperty("Content-Encoding", "gzip");
+				connection.setFixedLengthStreamingMode(compressed.size());
+			} else {
+				connection.setFixedLengthStreamingMode(bodyLength);
+			}
+
+			try (OutputStream out = connection.getOutputStream()) {
+				if (gzip) {
+					compressed.writeTo(out);
+				} else {
+					out.write(body, 0, bodyLength);
+				}
+			}
+
+			int status = connection.getResponseCode();
+			if (status / 100 != 2) {
+				throw new IOException("InfluxDB returned HTTP " + status + ": " + connection.getResponseMessage());
+			}
+			// Read the (empty) response so the connection can be reused
+			try (InputStream in = connection.getInputStream()) {
+				while (in.read() != -1) {
+					// Discard
+				}
+			}
+			succeeded = true;
+		} finally {
+			if (!succeeded) {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Start a line with the measurement and the tags
+	 *
+	 * @param measurement The measurement to escape, used if escapedMeasurement is null
+	 * @param escapedMeasurement The measurement already escaped and encoded as UTF-8, or null
+	 */
+	private void startLine(String measurement, byte[] escapedMeasurement) {
+		if (length == 0) {
+			oldestPointMillis = System.currentTimeMillis();
+		}
+		if (escapedMeasurement != null) {
+			appendBytes(escapedMeasurement);
+			appendBytes(tagsAndField);
+			return;
+		}
+		for (int i = 0; i < measurement.length(); i++) {
+			char c = measurement.charAt(i);
+			if (c == ',' || c == '=' || c == ' ') {
+				appendByte('\\');
+			}
+			i = appendChar(measurement, i);
+		}
+		appendBytes(tagsAndField);
+	}
+
+	/**
+	 * Finish the line with the timestamp, and hand the batch to the sender thread if it is full
+	 */
+	private void endLine(long timeMillis) {
+		appendByte(' ');
+		appendLong(timeMillis);
+		appendByte('\n');
+		points++;
+		if (length >= maxBatchBytes) {
+			handOff();
+		}
+	}
+
+	/**
+	 * Append the UTF-8 encoding of the character at an index
+	 *
+	 * @return The index of the last char consumed, which is the next one for a surrogate pair
+	 */
+	private int appendChar(String value, int i) {
+		char c = value.charAt(i);
+		if (c < 0x80) {
+			appendByte(c);
+		} else if (c < 0x800) {
+			appendByte(0xc0 | c >> 6);
+			appendByte(0x80 | c & 0x3f);
+		} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+				&& Character.isLowSurrogate(value.charAt(i + 1))) {
+			int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+			appendByte(0xf0 | codePoint >> 18);
+			appendByte(0x80 | codePoint >> 12 & 0x3f);
+			appendByte(0x80 | codePoint >> 6 & 0x3f);
+			appendByte(0x80 | codePoint & 0x3f);
+			return i + 1;
+		} else {
+			appendByte(0xe0 | c >> 12);
+			appendByte(0x80 | c >> 6 & 0x3f);
+			appendByte(0x80 | c & 0x3f);
+		}
+		return i;
+	}
+
+	private void appendLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			appendAscii(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			appendByte('-');
+			value = -value;
+		}
+
+		long divisor = 1;
+		while (divisor <= value / 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			appendByte((int) ('0' + value / divisor % 10));
+		}
+	}
+
+	private void appendAscii(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			appendByte(value.charAt(i));
+		}
+	}
+
+	private void appendBytes(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, lines, length, bytes.length);
+		length += bytes.length;
+	}
+
+	private void appendByte(int b) {
+		ensureCapacity(1);
+		lines[length++] = (byte) b;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > lines.length) {
+			lines = Arrays.copyOf(lines, Math.max(lines.length * 2, length + extra));
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A handle for a metric name that is resolved once and reported many times
+ *
+ * The handle carries the name encoded the way each wire format needs it, so reporters can copy the bytes straight
+ * into a packet or request body without building or escaping the name again. The encodings are computed the first
+ * time a reporter asks for them.
+ *
+ * Names that are reported every tick, such as memory and GC gauges, should be resolved with {@link #of(String)} when
+ * the profiler is created. Structures that own an unbounded set of names, such as the call tree of the CPU profiler,
+ * create their own handles instead, so that the registry does not grow without bound.
+ */
+public final class MetricName {
+	private static final ConcurrentMap<String, MetricName> REGISTRY = new ConcurrentHashMap<>();
+
+	private final String name;
+	private volatile byte[] statsDBytes;
+	private volatile byte[] lineProtocolBytes;
+
+	/**
+	 * Create a handle that is not registered
+	 *
+	 * @param name The metric name
+	 */
+	public MetricName(String name) {
+		this.name = Preconditions.checkNotNull(name);
+	}
+
+	/**
+	 * Resolve a name to its registered handle, registering it if needed
+	 *
+	 * @param name The metric name
+	 * @return The handle for the name, the same instance for every call with an equal name
+	 */
+	public static MetricName of(String name) {
+		MetricName metricName = REGISTRY.get(name);
+		if (metricName == null) {
+			MetricName created = new MetricName(name);
+			metricName = REGISTRY.putIfAbsent(name, created);
+			if (metricName == null) {
+				metricName = created;
+			}
+		}
+		return metricName;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return The name encoded as UTF-8, without the metrics prefix, as written in a StatsD packet
+	 */
+	public byte[] getStatsDBytes() {
+		byte[] bytes = statsDBytes;
+		if (bytes == null) {
+			bytes = name.getBytes(StandardCharsets.UTF_8);
+			statsDBytes = bytes;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return The name escaped as an InfluxDB line protocol measurement and encoded as UTF-8
+	 */
+	public byte[] getLineProtocolBytes() {
+		byte[] bytes = lineProtocolBytes;
+		if (bytes == null) {
+			bytes = LineProtocolWriter.escape(name).getBytes(StandardCharsets.UTF_8);
+			lineProtocolBytes = bytes;
+		}
+		return bytes;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof MetricName && name.equals(((MetricName) o).name);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
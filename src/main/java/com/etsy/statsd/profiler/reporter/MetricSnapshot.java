@@ -0,0 +1,311 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Holds the latest value of every gauge, to be scraped in the Prometheus text format
+ *
+ * Each gauge key is parsed into a metric name and labels the first time it is recorded, and its line up to the value
+ * is kept encoded, so rendering only copies bytes and formats numbers. Responses are rendered into one reused buffer.
+ *
+ * A key is split the way the profilers build them: the measurement up to the first comma is the metric name, and
+ * the following name=value pairs are labels. The type tag, which the profilers always add last, takes the rest of
+ * the key as its value, since stack traces may contain commas. Characters Prometheus does not allow in names are
+ * replaced with underscores, so cpu.trace becomes cpu_trace.
+ *
+ * Gauges that have not been recorded for maxAgeMillis are dropped, so traces that are no longer sampled do not keep
+ * reporting their last count.
+ */
+public class MetricSnapshot {
+	private static final String TYPE_TAG = "type";
+	private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+	private final Map<String, String> globalLabels;
+	private final long maxAgeMillis;
+
+	// Guarded by this
+	private final Map<String, Series> series = new HashMap<>();
+	private final Map<String, Family> families = new LinkedHashMap<>();
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+	private int length;
+
+	/**
+	 * @param labels Labels to add to every gauge, such as the tags from the metrics prefix
+	 * @param maxAgeMillis How long a gauge is kept after it was last recorded
+	 */
+	public MetricSnapshot(Map<String, String> labels, long maxAgeMillis) {
+		this.globalLabels = new HashMap<>();
+		for (Map.Entry<String, String> label : labels.entrySet()) {
+			globalLabels.put(sanitize(label.getKey(), false), label.getValue());
+		}
+		this.maxAgeMillis = maxAgeMillis;
+	}
+
+	/**
+	 * Record the latest value of a gauge
+	 *
+	 * @param key The name of the gauge
+	 * @param value The value of the gauge
+	 * @param timestamp The time at which the value was sampled, in milliseconds since the epoch
+	 */
+	public synchronized void update(String key, long value, long timestamp) {
+		getSeries(key).set(value, 0, false, timestamp);
+	}
+
+	/**
+	 * @see #update(String, long, long)
+	 */
+	public synchronized void update(String key, double value, long timestamp) {
+		getSeries(key).set(0, value, true, timestamp);
+	}
+
+	/**
+	 * Record the latest values of a batch of gauges
+	 *
+	 * @param batch The gauges to record
+	 */
+	public synchronized void update(GaugeBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			getSeries(batch.keyAt(i)).set(batch.longAt(i), batch.doubleAt(i), batch.isDouble(i),
+					batch.timestampAt(i));
+		}
+	}
+
+	/**
+	 * Render every gauge in the Prometheus text format and write it to a stream with a single write
+	 * Gauges older than maxAgeMillis are dropped first
+	 *
+	 * @param out The stream to which to write the rendered gauges
+	 * @throws IOException If the stream throws
+	 */
+	public synchronized void render(OutputStream out) throws IOException {
+		long oldest = System.currentTimeMillis() - maxAgeMillis;
+		length = 0;
+		Iterator<Family> familyIterator = families.values().iterator();
+		while (familyIterator.hasNext()) {
+			Family family = familyIterator.next();
+			Iterator<Series> seriesIterator = family.series.iterator();
+			while (seriesIterator.hasNext()) {
+				Series s = seriesIterator.next();
+				if (s.timestamp < oldest) {
+					seriesIterator.remove();
+					series.remove(s.key);
+				}
+			}
+			if (family.series.isEmpty()) {
+				familyIterator.remove();
+				continue;
+			}
+
+			appendBytes(family.header);
+			for (Series s : family.series) {
+				appendBytes(s.line);
+				if (!s.isDouble) {
+					appendLong(s.longValue);
+				} else {
+					appendDouble(s.doubleValue);
+				}
+				appendByte('\n');
+			}
+		}
+
+		out.write(buffer, 0, length);
+	}
+
+	/**
+	 * @return The number of gauges held
+	 */
+	public synchronized int size() {
+		return series.size();
+	}
+
+	private Series getSeries(String key) {
+		Series s = series.get(key);
+		if (s == null) {
+			s = createSeries(key);
+			series.put(key, s);
+		}
+		return s;
+	}
+
+	/**
+	 * Parse a key into a metric name and labels, and encode its line up to the value
+	 */
+	private Series createSeries(String key) {
+		String measurement = key;
+		Map<String, String> labels = new TreeMap<>();
+		int comma = key.indexOf(',');
+		if (comma >= 0) {
+			measurement = key.substring(0, comma);
+			int start = comma + 1;
+			while (start < key.length()) {
+				int equals = key.indexOf('=', start);
+				if (equals < 0) {
+					break;
+				}
+				String label = sanitize(key.substring(start, equals), false);
+				int end = TYPE_TAG.equals(label) ? key.length() : key.indexOf(',', equals + 1);
+				if (end < 0) {
+					end = key.length();
+				}
+				labels.put(label, key.substring(equals + 1, end));
+				start = end + 1;
+			}
+		}
+
+		String name = sanitize(measurement, true);
+		Family family = families.get(name);
+		if (family == null) {
+			family = new Family(("# TYPE " + name + " gauge\n").getBytes(StandardCharsets.UTF_8));
+			families.put(name, family);
+		}
+
+		// Labels from the key take precedence over the global ones
+		Map<String, String> allLabels = new TreeMap<>(globalLabels);
+		allLabels.putAll(labels);
+		StringBuilder line = new StringBuilder(name);
+		if (!allLabels.isEmpty()) {
+			line.append('{');
+			for (Map.Entry<String, String> label : allLabels.entrySet()) {
+				appendLabel(line, label.getKey(), label.getValue());
+			}
+			// Replace the trailing comma
+			line.setCharAt(line.length() - 1, '}');
+		}
+		line.append(' ');
+
+		Series s = new Series(key, line.toString().getBytes(StandardCharsets.UTF_8));
+		family.series.add(s);
+		return s;
+	}
+
+	/**
+	 * Replace the characters that are not allowed in a Prometheus metric or label name with underscores
+	 */
+	static String sanitize(String name, boolean metricName) {
+		StringBuilder sanitized = new StringBuilder(name.length() + 1);
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			boolean allowed = c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c == '_' || c >= '0' && c <= '9'
+					|| metricName && c == ':';
+			if (i == 0 && c >= '0' && c <= '9') {
+				sanitized.append('_');
+			}
+			sanitized.append(allowed ? c : '_');
+		}
+		return sanitized.length() == 0 ? "_" : sanitized.toString();
+	}
+
+	private static void appendLabel(StringBuilder line, String name, String value) {
+		line.append(name).append("=\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' || c == '"') {
+				line.append('\\').append(c);
+			} else if (c == '\n') {
+				line.append("\\n");
+			} else {
+				line.append(c);
+			}
+		}
+		line.append("\",");
+	}
+
+	private void appendLong(long value) {
+		if (value == Long.MIN_VALUE) {
+			appendAscii(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			appendByte('-');
+			value = -value;
+		}
+
+		long divisor = 1;
+		while (divisor <= value / 10) {
+			divisor *= 10;
+		}
+		for (; divisor > 0; divisor /= 10) {
+			appendByte((int) ('0' + value / divisor % 10));
+		}
+	}
+
+	private void appendDouble(double value) {
+		if (Double.isNaN(value)) {
+			appendAscii("NaN");
+		} else if (Double.isInfinite(value)) {
+			appendAscii(value > 0 ? "+Inf" : "-Inf");
+		} else if (value == (long) value && Math.abs(value) < 1e15) {
+			appendLong((long) value);
+		} else {
+			appendAscii(Double.toString(value));
+		}
+	}
+
+	private void appendAscii(String value) {
+		for (int i = 0; i < value.length(); i++) {
+			appendByte(value.charAt(i));
+		}
+	}
+
+	private void appendBytes(byte[] bytes) {
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, length, bytes.length);
+		length += bytes.length;
+	}
+
+	private void appendByte(int b) {
+		ensureCapacity(1);
+		buffer[length++] = (byte) b;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+		}
+	}
+
+	/**
+	 * The gauges that share a metric name, which Prometheus requires to be listed together
+	 */
+	private static final class Family {
+		private final byte[] header;
+		private final List<Series> series = new ArrayList<>();
+
+		private Family(byte[] header) {
+			this.header = header;
+		}
+	}
+
+	private static final class Series {
+		private final String key;
+		// The metric name and labels, up to the value
+		private final byte[] line;
+		private long longValue;
+		private double doubleValue;
+		private boolean isDouble;
+		private long timestamp;
+
+		private Series(String key, byte[] line) {
+			this.key = key;
+			this.line = line;
+		}
+
+		private void set(long longValue, double doubleValue, boolean isDouble, long timestamp) {
+			this.longValue = longValue;
+			this.doubleValue = doubleValue;
+			this.isDouble = isDouble;
+			this.timestamp = timestamp;
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * An append-only log of gauges on disk, made of memory-mapped segment files of a fixed size
+ *
+ * Gauges are appended to the newest segment and read back from the oldest, with the time they were sampled at.
+ * Reading is in two steps: {@link #read(GaugeBatch, int)} returns the oldest gauges without consuming them, and
+ * {@link #commit()} consumes them once they were sent, so gauges are not lost if sending them fails.
+ * When the segments would take more than maxBytes, the oldest segment is deleted and its gauges are counted as evicted.
+ *
+ * Each segment starts with the position up to which it was read, followed by records of the form
+ * [key length][key][1 if the value is a double][value][timestamp], and a zero key length after the last record.
+ * Writes go to the page cache, so the spool survives the JVM but not the host crashing. A spool left by a JVM that
+ * exited before replaying it is replayed by the next JVM that opens the same directory.
+ *
+ * The directory holds numbered subdirectories, each locked by the JVM using it, so that several JVMs on a host can
+ * share the spoolDir argument: each uses the first subdirectory no other JVM holds.
+ *
+ * Spools are not thread-safe.
+ */
+public class MetricSpool {
+	private static final Logger LOGGER = Logger.getLogger(MetricSpool.class.getName());
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String LOCK_FILE = "lock";
+	private static final int MAX_SUBDIRECTORIES = 1024;
+	// The read position at the start of each segment
+	private static final int HEADER_BYTES = 4;
+	// The key length, the type, the value and the timestamp
+	private static final int RECORD_OVERHEAD_BYTES = 4 + 1 + 8 + 8;
+
+	private final int segmentBytes;
+	private final int maxSegments;
+	private final File directory;
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private long nextSequence;
+	private long size;
+	private long evictedPoints;
+	private byte[] keyBuffer = new byte[256];
+
+	// The gauges returned by the last read and not committed yet
+	private Segment pendingSegment;
+	private int pendingPosition;
+	private int pendingPoints;
+
+	/**
+	 * Open a spool, replaying any gauges left in it
+	 *
+	 * @param root The directory in which to keep the spool
+	 * @param segmentBytes The size of each segment file
+	 * @param maxBytes The maximum size of all segment files
+	 * @throws IOException If the spool cannot be created or opened
+	 */
+	public MetricSpool(File root, int segmentBytes, long maxBytes) throws IOException {
+		Preconditions.checkArgument(segmentBytes > HEADER_BYTES + RECORD_OVERHEAD_BYTES,
+				"Spool segments must be larger than %s bytes", HEADER_BYTES + RECORD_OVERHEAD_BYTES);
+		Preconditions.checkArgument(maxBytes >= segmentBytes, "The spool must hold at least one segment");
+		this.segmentBytes = segmentBytes;
+		this.maxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes);
+
+		for (int i = 0; i < MAX_SUBDIRECTORIES; i++) {
+			File candidate = new File(root, Integer.toString(i));
+			if (!candidate.isDirectory() && !candidate.mkdirs()) {
+				throw new IOException("Could not create spool directory " + candidate);
+			}
+			FileChannel channel = new RandomAccessFile(new File(candidate, LOCK_FILE), "rw").getChannel();
+			FileLock candidateLock = null;
+			try {
+				candidateLock = channel.tryLock();
+			} catch (OverlappingFileLockException e) {
+				// Held by another spool in this JVM
+			}
+			if (candidateLock != null) {
+				directory = candidate;
+				lockChannel = channel;
+				lock = candidateLock;
+				openSegments();
+				return;
+			}
+			channel.close();
+		}
+		throw new IOException("Every spool directory under " + root + " is in use");
+	}
+
+	/**
+	 * Append gauges to the newest segment, evicting the oldest segments if the spool is full
+	 *
+	 * @param batch The gauges to append
+	 * @return The number of gauges appended, which is less than the size of the batch if a key is larger than a segment
+	 * @throws IOException If a new segment cannot be created
+	 */
+	public int append(GaugeBatch batch) throws IOException {
+		int appended = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			byte[] key = batch.keyAt(i).getBytes(StandardCharsets.UTF_8);
+			int recordBytes = RECORD_OVERHEAD_BYTES + key.length;
+			if (HEADER_BYTES + recordBytes > segmentBytes) {
+				continue;
+			}
+
+			Segment tail = segments.peekLast();
+			if (tail == null || tail.writePosition + recordBytes > segmentBytes) {
+				tail = newSegment();
+			}
+			MappedByteBuffer buffer = tail.buffer;
+			int position = tail.writePosition;
+			buffer.position(position + 4);
+			buffer.put(key);
+			buffer.put((byte) (batch.isDouble(i) ? 1 : 0));
+			buffer.putLong(batch.isDouble(i) ? Double.doubleToRawLongBits(batch.doubleAt(i)) : batch.longAt(i));
+			buffer.putLong(batch.timestampAt(i));
+			// Mark the new end of the records before writing the length, so a reader never sees a half-written record
+			if (position + recordBytes + 4 <= segmentBytes) {
+				buffer.putInt(position + recordBytes, 0);
+			}
+			buffer.putInt(position, key.length + 1);
+
+			tail.writePosition = position + recordBytes;
+			tail.points++;
+			size++;
+			appended++;
+		}
+		return appended;
+	}
+
+	/**
+	 * Read the oldest gauges without consuming them
+	 * Reading again before calling {@link #commit()} returns the same gauges
+	 *
+	 * @param batch The batch to which to add the gauges
+	 * @param maxPoints The maximum number of gauges to read
+	 * @return The number of gauges read, which may be less than maxPoints even if the spool holds more
+	 */
+	public int read(GaugeBatch batch, int maxPoints) {
+		pendingSegment = null;
+		while (segments.size() > 1 && segments.peekFirst().points == 0) {
+			deleteHead();
+		}
+		Segment head = segments.peekFirst();
+		if (head == null || maxPoints <= 0) {
+			return 0;
+		}
+
+		MappedByteBuffer buffer = head.buffer;
+		int position = head.readPosition;
+		int read = 0;
+		while (read < maxPoints && position < head.writePosition) {
+			int keyLength = buffer.getInt(position) - 1;
+			if (keyLength > keyBuffer.length) {
+				keyBuffer = new byte[Math.max(keyLength, keyBuffer.length * 2)];
+			}
+			buffer.position(position + 4);
+			buffer.get(keyBuffer, 0, keyLength);
+			String key = new String(keyBuffer, 0, keyLength, StandardCharsets.UTF_8);
+			boolean isDouble = buffer.get() == 1;
+			long value = buffer.getLong();
+			long timestamp = buffer.getLong();
+			if (isDouble) {
+				batch.add(key, Double.longBitsToDouble(value), timestamp);
+			} else {
+				batch.add(key, value, timestamp);
+			}
+			position += RECORD_OVERHEAD_BYTES + keyLength;
+			read++;
+		}
+
+		pendingSegment = head;
+		pendingPosition = position;
+		pendingPoints = read;
+		return read;
+	}
+
+	/**
+	 * Consume the gauges returned by the last read, deleting the oldest segment once it is read entirely
+	 * If the segment they were read from was evicted in the meantime, nothing is consumed
+	 */
+	public void commit() {
+		Segment head = segments.peekFirst();
+		if (pendingSegment == null || pendingSegment != head) {
+			pendingSegment = null;
+			return;
+		}
+		head.readPosition = pendingPosition;
+		head.buffer.putInt(0, pendingPosition);
+		head.points -= pendingPoints;
+		size -= pendingPoints;
+		pendingSegment = null;
+
+		if (head.points == 0 && segments.size() > 1) {
+			deleteHead();
+		}
+	}
+
+	/**
+	 * @return The number of gauges in the spool
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return true if the spool holds no gauges, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return The number of gauges deleted unread because the spool was full
+	 */
+	public long getEvictedPoints() {
+		return evictedPoints;
+	}
+
+	/**
+	 * @return The directory holding the segments, under the root given to the constructor
+	 */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Flush the segments to disk and release the directory, keeping the gauges for the next JVM to replay
+	 */
+	public void close() {
+		for (Segment segment : segments) {
+			segment.buffer.force();
+		}
+		segments.clear();
+		try {
+			lock.release();
+			lockChannel.close();
+		} catch (IOException e) {
+			LOGGER.warning("Could not release spool directory " + directory + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Map the segments left in the directory, finding where each was read and written up to
+	 */
+	private void openSegments() throws IOException {
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			throw new IOException("Could not list spool directory " + directory);
+		}
+		Arrays.sort(files);
+
+		for (File file : files) {
+			String name = file.getName();
+			long sequence;
+			try {
+				sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			if (file.length() != segmentBytes) {
+				// Written with another segment size
+				LOGGER.warning("Deleting spool segment " + file + " of " + file.length() + " bytes");
+				deleteFile(file);
+				continue;
+			}
+
+			Segment segment = new Segment(file, map(file));
+			int readPosition = segment.buffer.getInt(0);
+			segment.readPosition = readPosition >= HEADER_BYTES && readPosition <= segmentBytes ? readPosition
+					: HEADER_BYTES;
+			int position = HEADER_BYTES;
+			int points = 0;
+			while (position + 4 <= segmentBytes) {
+				int keyLength = segment.buffer.getInt(position) - 1;
+				int recordBytes = RECORD_OVERHEAD_BYTES + keyLength;
+				if (keyLength < 0 || keyLength > segmentBytes || position + recordBytes > segmentBytes) {
+					break;
+				}
+				if (position >= segment.readPosition) {
+					points++;
+				}
+				position += recordBytes;
+			}
+			segment.writePosition = position;
+			segment.readPosition = Math.min(segment.readPosition, position);
+			segment.points = points;
+
+			segments.addLast(segment);
+			size += points;
+			nextSequence = sequence + 1;
+		}
+
+		// Drop the segments that were read entirely, keeping the newest to append to
+		while (segments.size() > 1 && segments.peekFirst().points == 0) {
+			deleteHead();
+		}
+		if (size > 0) {
+			LOGGER.info("Replaying " + size + " spooled points from " + directory);
+		}
+	}
+
+	private Segment newSegment() throws IOException {
+		while (segments.size() >= maxSegments) {
+			evictedPoints += segments.peekFirst().points;
+			deleteHead();
+		}
+		File file = new File(directory, String.format("%019d%s", nextSequence++, SEGMENT_SUFFIX));
+		Segment segment = new Segment(file, map(file));
+		segment.buffer.putInt(0, HEADER_BYTES);
+		segment.buffer.putInt(HEADER_BYTES, 0);
+		segments.addLast(segment);
+		return segment;
+	}
+
+	private MappedByteBuffer map(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(segmentBytes);
+			// The mapping stays valid once the file is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		}
+	}
+
+	private void deleteHead() {
+		Segment head = segments.removeFirst();
+		size -= head.points;
+		deleteFile(head.file);
+	}
+
+	private static void deleteFile(File file) {
+		if (!file.delete()) {
+			LOGGER.warning("Could not delete spool segment " + file);
+		}
+	}
+
+	private static final class Segment {
+		private final File file;
+		private final MappedByteBuffer buffer;
+		private int readPosition = HEADER_BYTES;
+		private int writePosition = HEADER_BYTES;
+		// The number of gauges not read yet
+		private int points;
+
+		private Segment(File file, MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+}
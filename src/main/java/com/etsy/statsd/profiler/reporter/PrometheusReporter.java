@@ -0,0 +1,115 @@
+package com.etsy.statsd.profiler.reporter;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.etsy.statsd.profiler.Arguments;
+import com.etsy.statsd.profiler.util.TagUtil;
+import com.google.common.base.Preconditions;
+
+/**
+ * Reporter that keeps the latest value of every gauge for Prometheus to scrape, instead of pushing it anywhere
+ *
+ * The gauges are served from the /metrics route of the embedded HTTP server. Used as the only reporter, nothing is
+ * sent from the JVM at all, and the server and port arguments are not needed.
+ *
+ * @see MetricSnapshot
+ */
+public class PrometheusReporter extends Reporter<MetricSnapshot> {
+	public static final String MAX_AGE_ARG = "prometheusMaxAge";
+
+	public static final int DEFAULT_MAX_AGE_SECONDS = 60;
+
+	private String tagMapping;
+	private int maxAgeSeconds;
+
+	public PrometheusReporter(Arguments arguments) {
+		super(arguments);
+	}
+
+	@Override
+	public void recordGaugeValue(String key, long value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value) {
+		recordGaugeValue(key, value, System.currentTimeMillis());
+	}
+
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+		recordGaugeValues(gauges, System.currentTimeMillis());
+	}
+
+	@Override
+	public void recordGaugeValue(String key, long value, long timestamp) {
+		client.update(key, value, timestamp);
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long, long)
+	 */
+	@Override
+	public void recordGaugeValue(String key, double value, long timestamp) {
+		client.update(key, value, timestamp);
+	}
+
+	@Override
+	public void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+		GaugeBatch batch = new GaugeBatch(gauges.size());
+		for (Map.Entry<String, ? extends Number> gauge : gauges.entrySet()) {
+			batch.add(gauge.getKey(), gauge.getValue(), timestamp);
+		}
+		client.update(batch);
+	}
+
+	@Override
+	public void recordGaugeBatch(GaugeBatch batch) {
+		client.update(batch);
+	}
+
+	/**
+	 * Prometheus has a rich query language and does not need the bounds metrics emitted by CPUTracingProfiler
+	 *
+	 * @return false
+	 */
+	@Override
+	public boolean emitBounds() {
+		return false;
+	}
+
+	/**
+	 * @return The snapshot of the latest gauge values
+	 */
+	public MetricSnapshot getSnapshot() {
+		return client;
+	}
+
+	/**
+	 * @param server Not used
+	 * @param port Not used
+	 * @param prefix The prefix for metrics, which is added as labels like the InfluxDB reporters add it as tags
+	 * @return An empty snapshot
+	 */
+	@Override
+	protected MetricSnapshot createClient(String server, int port, String prefix) {
+		// If we have a tag mapping it must match the number of components of the prefix
+		Preconditions.checkArgument(
+				tagMapping == null || tagMapping.split("\\.").length == prefix.split("\\.").length);
+		return new MetricSnapshot(TagUtil.getTags(tagMapping, prefix, false),
+				TimeUnit.SECONDS.toMillis(maxAgeSeconds));
+	}
+
+	@Override
+	protected void handleArguments(Arguments arguments) {
+		tagMapping = arguments.getStringArgument(InfluxDBReporter.TAG_MAPPING_ARG);
+		maxAgeSeconds = arguments.getIntArgument(MAX_AGE_ARG);
+		if (maxAgeSeconds <= 0) {
+			maxAgeSeconds = DEFAULT_MAX_AGE_SECONDS;
+		}
+	}
+}
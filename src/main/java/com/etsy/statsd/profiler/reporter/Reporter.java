@@ -1,5 +1,6 @@
 package com.etsy.statsd.profiler.reporter;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import com.etsy.statsd.profiler.Arguments;
@@ -45,6 +46,63 @@ public abstract class Reporter<T> {
 	 */
 	public abstract void recordGaugeValues(Map<String, ? extends Number> gauges);
 
+	/**
+	 * Record a gauge value sampled at a given time
+	 * Reporters for backends that store timestamps should override this, by default the timestamp is ignored
+	 *
+	 * @param key The name of the gauge
+	 * @param value The value of the gauge
+	 * @param timestamp The time at which the value was sampled, in milliseconds since the epoch
+	 */
+	public void recordGaugeValue(String key, long value, long timestamp) {
+		recordGaugeValue(key, value);
+	}
+
+	/**
+	 * @see #recordGaugeValue(String, long, long)
+	 */
+	public void recordGaugeValue(String key, double value, long timestamp) {
+		recordGaugeValue(key, value);
+	}
+
+	/**
+	 * Record multiple gauge values sampled at a given time
+	 * Reporters for backends that store timestamps should override this, by default the timestamp is ignored
+	 *
+	 * @param gauges A map of gauge names to values
+	 * @param timestamp The time at which the values were sampled, in milliseconds since the epoch
+	 */
+	public void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+		recordGaugeValues(gauges);
+	}
+
+	/**
+	 * Record a batch of gauge values, each sampled at its own time
+	 * Reporters that can write primitive values directly should override this. By default the batch is adapted to
+	 * {@link #recordGaugeValues(Map, long)}, with a new call whenever the timestamp changes or a key appears again, so
+	 * that no value overwrites an earlier one.
+	 *
+	 * @param batch The gauges to record, which must not be kept after this returns
+	 */
+	public void recordGaugeBatch(GaugeBatch batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		Map<String, Number> gauges = new LinkedHashMap<>();
+		long timestamp = batch.timestampAt(0);
+		for (int i = 0; i < batch.size(); i++) {
+			String key = batch.keyAt(i);
+			if (batch.timestampAt(i) != timestamp || gauges.containsKey(key)) {
+				recordGaugeValues(gauges, timestamp);
+				gauges = new LinkedHashMap<>();
+				timestamp = batch.timestampAt(i);
+			}
+			gauges.put(key, batch.valueAt(i));
+		}
+		recordGaugeValues(gauges, timestamp);
+	}
+
 	/**
 	 * CPUTracingProfiler can emit some metrics that indicate the upper and lower bound on the length of stack traces
 	 * This is helpful for querying this data for some backends (such as Graphite) that do not have rich query languages
@@ -56,6 +114,13 @@ public abstract class Reporter<T> {
 		return true;
 	}
 
+	/**
+	 * Hook to send any data buffered by this reporter and release its resources at JVM shutdown
+	 * Reporters that send data synchronously do not need to override this
+	 */
+	public void close() {
+	}
+
 	/**
 	 * Construct the underlying client implementation for this reporter
 	 *
@@ -55,6 +55,23 @@ public class StatsDReporter extends Reporter<StatsDClient> {
 		}
 	}
 
+	/**
+	 * Record a batch of gauge values in StatsD
+	 * StatsD does not store timestamps, so they are ignored
+	 *
+	 * @param batch The gauges to record
+	 */
+	@Override
+	public void recordGaugeBatch(GaugeBatch batch) {
+		for (int i = 0; i < batch.size(); i++) {
+			if (batch.isDouble(i)) {
+				client.recordGaugeValue(batch.keyAt(i), batch.doubleAt(i));
+			} else {
+				client.recordGaugeValue(batch.keyAt(i), batch.longAt(i));
+			}
+		}
+	}
+
 	/**
 	 * Construct a StatsD client
 	 *
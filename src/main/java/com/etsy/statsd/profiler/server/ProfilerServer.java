@@ -15,6 +15,7 @@ import org.vertx.java.core.VertxFactory;
 import org.vertx.java.core.http.HttpServer;
 
 import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.reporter.MetricSnapshot;
 
 /**
  * Sets up a simple embedded HTTP server for interacting with the profiler while it runs
@@ -39,9 +40,23 @@ public final class ProfilerServer {
 			final Map<String, ScheduledFuture<?>> runningProfilers,
 			final Map<String, Profiler> activeProfilers, final AtomicInteger portHolder,
 			final AtomicReference<Boolean> isRunning, final List<String> errors) {
+		startServer(scheduledExecutorService, runningProfilers, activeProfilers, portHolder, isRunning, errors, null);
+	}
+
+	/**
+	 * Start an embedded HTTP server that also serves the latest gauge values on /metrics
+	 *
+	 * @param activeProfilers The active profilers
+	 * @param portHolder The port on which to bind the server, incremented until a free port is found
+	 * @param snapshot The latest gauge values, or null if no PrometheusReporter is configured
+	 */
+	public static void startServer(final ScheduledExecutorService scheduledExecutorService,
+			final Map<String, ScheduledFuture<?>> runningProfilers,
+			final Map<String, Profiler> activeProfilers, final AtomicInteger portHolder,
+			final AtomicReference<Boolean> isRunning, final List<String> errors, final MetricSnapshot snapshot) {
 		final HttpServer server = VERTX.createHttpServer();
 		server.requestHandler(RequestHandler.getMatcher(scheduledExecutorService, runningProfilers,
-				activeProfilers, isRunning, errors));
+				activeProfilers, isRunning, errors, snapshot));
 		final int port=portHolder.get();
 		server.listen(port, new Handler<AsyncResult<HttpServer>>() {
 			@Override
@@ -50,7 +65,7 @@ public final class ProfilerServer {
 					server.close();
 					portHolder.set(port+1);
 					startServer(scheduledExecutorService, runningProfilers, activeProfilers,
-							portHolder, isRunning, errors);
+							portHolder, isRunning, errors, snapshot);
 				} else if (event.succeeded()) {
 					LOGGER.info("Profiler server started on port " + port);
 				}
@@ -1,5 +1,7 @@
 package com.etsy.statsd.profiler.server;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -7,6 +9,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.vertx.java.core.Handler;
@@ -17,6 +20,9 @@ import org.vertx.java.core.json.JsonObject;
 
 import com.etsy.statsd.profiler.Agent;
 import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.profilers.CPUTracingProfiler;
+import com.etsy.statsd.profiler.reporter.MetricSnapshot;
+import com.etsy.statsd.profiler.util.FlameGraph;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
@@ -28,6 +34,9 @@ import com.google.common.collect.Collections2;
  * @author Andrew Johnson
  */
 public final class RequestHandler {
+	public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	public static final String SVG_CONTENT_TYPE = "image/svg+xml";
+
 	private RequestHandler() {
 	}
 
@@ -41,12 +50,28 @@ public final class RequestHandler {
 			final Map<String, ScheduledFuture<?>> runningProfilers,
 			Map<String, Profiler> activeProfilers, AtomicReference<Boolean> isRunning,
 			List<String> errors) {
+		return getMatcher(scheduledExecutorService, runningProfilers, activeProfilers, isRunning, errors, null);
+	}
+
+	/**
+	 * Construct a RouteMatcher for the supported routes, including /metrics
+	 *
+	 * @param activeProfilers The active profilers
+	 * @param snapshot The latest gauge values served by /metrics, or null if no PrometheusReporter is configured
+	 * @return A RouteMatcher that matches all supported routes
+	 */
+	public static RouteMatcher getMatcher(final ScheduledExecutorService scheduledExecutorService,
+			final Map<String, ScheduledFuture<?>> runningProfilers,
+			Map<String, Profiler> activeProfilers, AtomicReference<Boolean> isRunning,
+			List<String> errors, MetricSnapshot snapshot) {
 		RouteMatcher matcher = new RouteMatcher();
 		matcher.get("/profilers", RequestHandler.handleGetProfilers(runningProfilers));
 		matcher.get("/disable/:profiler", RequestHandler.handleDisableProfiler(runningProfilers));
 		matcher.get("/status/:profiler", RequestHandler.handleProfilerStatus(activeProfilers));
 		matcher.get("/errors", RequestHandler.handleErrorMessages(errors));
 		matcher.get("/isRunning", RequestHandler.isRunning(isRunning));
+		matcher.get("/metrics", RequestHandler.handleMetrics(snapshot));
+		matcher.get("/flamegraph", RequestHandler.handleFlameGraph(activeProfilers));
 
 		matcher.post("/enable/:profiler",
 				RequestHandler.handleEanbleProfiler(scheduledExecutorService, runningProfilers));
@@ -103,6 +128,89 @@ public final class RequestHandler {
 		};
 	}
 
+	/**
+	 * Handle a GET to /metrics
+	 *
+	 * @param snapshot The latest gauge values, or null if no PrometheusReporter is configured
+	 * @return A Handler that returns the latest gauge values in the Prometheus text format
+	 */
+	public static Handler<HttpServerRequest> handleMetrics(final MetricSnapshot snapshot) {
+		return new Handler<HttpServerRequest>() {
+			@Override
+			public void handle(HttpServerRequest httpServerRequest) {
+				if (snapshot == null) {
+					httpServerRequest.response().setStatusCode(404)
+							.end("No PrometheusReporter is configured\n");
+					return;
+				}
+
+				final Buffer body = new Buffer();
+				try {
+					// The snapshot renders into its own reused buffer and copies it into the body in one write
+					snapshot.render(new OutputStream() {
+						@Override
+						public void write(int b) {
+							body.appendByte((byte) b);
+						}
+
+						@Override
+						public void write(byte[] b, int off, int len) {
+							body.appendBytes(b, off, len);
+						}
+					});
+				} catch (IOException e) {
+					httpServerRequest.response().setStatusCode(500).end(e.getMessage());
+					return;
+				}
+				httpServerRequest.response().putHeader("Content-Type", PROMETHEUS_CONTENT_TYPE).end(body);
+			}
+		};
+	}
+
+	/**
+	 * Handle a GET to /flamegraph
+	 * The optional window parameter limits the graph to the last window seconds of traces, pool to the traces of one
+	 * thread pool, and minwidth leaves out the frames narrower than minwidth pixels
+	 *
+	 * @param activeProfilers The active profilers
+	 * @return A Handler that returns an SVG flame graph of the recent CPU traces
+	 */
+	public static Handler<HttpServerRequest> handleFlameGraph(final Map<String, Profiler> activeProfilers) {
+		return new Handler<HttpServerRequest>() {
+			@Override
+			public void handle(HttpServerRequest httpServerRequest) {
+				FlameGraph flameGraph = null;
+				for (Profiler profiler : activeProfilers.values()) {
+					if (profiler instanceof CPUTracingProfiler) {
+						flameGraph = ((CPUTracingProfiler) profiler).getFlameGraph();
+					}
+				}
+				if (flameGraph == null) {
+					httpServerRequest.response().setStatusCode(404)
+							.end("No CPUTracingProfiler with a flame graph history is running\n");
+					return;
+				}
+
+				String window = httpServerRequest.params().get("window");
+				String pool = httpServerRequest.params().get("pool");
+				String minWidth = httpServerRequest.params().get("minwidth");
+				long windowMillis;
+				double minWidthPixels;
+				try {
+					windowMillis = window != null ? TimeUnit.SECONDS.toMillis(Long.parseLong(window)) : 0;
+					minWidthPixels = minWidth != null ? Double.parseDouble(minWidth) : FlameGraph.DEFAULT_MIN_WIDTH;
+				} catch (NumberFormatException e) {
+					httpServerRequest.response().setStatusCode(400)
+							.end(String.format("Invalid parameter: %s\n", e.getMessage()));
+					return;
+				}
+				String tag = pool != null ? CPUTracingProfiler.POOL_TAG + "=" + pool : null;
+				httpServerRequest.response().putHeader("Content-Type", SVG_CONTENT_TYPE)
+						.end(flameGraph.render(windowMillis, tag, minWidthPixels));
+			}
+		};
+	}
+
 	/**
 	 * Handle a GET to /profilers
 	 *
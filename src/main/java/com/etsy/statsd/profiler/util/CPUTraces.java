@@ -1,20 +1,113 @@
 package com.etsy.statsd.profiler.util;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import com.etsy.statsd.profiler.reporter.GaugeBatch;
+import com.etsy.statsd.profiler.reporter.MetricName;
+
 /**
  * Represents the state of the CPU profiler
  *
+ * In bounded mode only the heaviest traces are tracked, in a {@link SpaceSavingTable}, and only the hottest
+ * maxTraces of them are reported. The rest of each prefix's total is reported as a single "other" trace,
+ * so the number of keys per flush and the memory used are capped however many distinct stacks are sampled.
+ *
+ * In either mode the call tree only keeps the stacks that are still being sampled: once it has grown to
+ * {@link #NODES_PER_REPORTED} times the number of traces seen in the last flush, and to at least
+ * {@link #MIN_NODES_BEFORE_REBUILD} nodes, it is replaced by an empty one when the buffers are swapped.
+ *
+ * The counters are double-buffered. Samples are recorded in the active buffer, {@link #swapBuffers()} makes it the
+ * inactive one, and {@link #drainInactive(GaugeBatch, long)} reports it. Trace keys are built when a stack is first recorded,
+ * so draining never reads the call tree and can run on another thread while sampling continues. Increments and
+ * swaps must be synchronized by the caller, while only one thread may drain at a time, between swaps.
+ *
  * @author Andrew Johnson
  */
 public class CPUTraces {
-    private Map<String, Number> traces;
+    public static final String OTHER_TRACE = "other";
+    // How many keys the Space-Saving table tracks for each key that is reported
+    public static final int TRACKED_PER_REPORTED = 4;
+    // How many call tree nodes may be kept for each key that is reported before the tree is rebuilt
+    public static final int NODES_PER_REPORTED = 64;
+    // How many call tree nodes may be kept in unbounded mode before the tree is rebuilt, however few traces are seen
+    public static final int MIN_NODES_BEFORE_REBUILD = 1 << 16;
+
+    private Buffer active;
+    private Buffer inactive;
+    private CallTree callTree;
+    private final StackTraceFilter filter;
+    private final int maxTraces;
+    // Only used when draining in bounded mode
+    private final LongCounterTable prefixReported;
+    // The "other" trace of each prefix, only used when draining in bounded mode
+    private final Map<String, MetricName> otherNames = new HashMap<>();
+    // Given the traces of each flush, if set
+    private FlameGraph flameGraph;
+    // Reused when computing the filter verdicts of new nodes
+    private final List<CallTree.Node> uncheckedNodes = new ArrayList<>();
     private int max = Integer.MIN_VALUE;
     private int min = Integer.MAX_VALUE;
 
     public CPUTraces() {
-        traces = new HashMap<>();
+        this(null);
+    }
+
+    /**
+     * @param filter The filter stack traces must pass to be recorded, or null to record every stack trace
+     */
+    public CPUTraces(StackTraceFilter filter) {
+        this(filter, 0);
+    }
+
+    /**
+     * @param filter The filter stack traces must pass to be recorded, or null to record every stack trace
+     * @param maxTraces The maximum number of traces to report per flush, or 0 to report every trace
+     */
+    public CPUTraces(StackTraceFilter filter, int maxTraces) {
+        this.filter = filter;
+        this.maxTraces = maxTraces;
+        active = new Buffer(maxTraces);
+        inactive = new Buffer(maxTraces);
+        callTree = new CallTree();
+        prefixReported = maxTraces > 0 ? new LongCounterTable() : null;
+    }
+
+    /**
+     * Counters for one buffer
+     * Keyed by either a String trace key or a CallTree.Node
+     */
+    private static final class Buffer {
+        final LongCounterTable traces;
+        // Only used in bounded mode
+        final SpaceSavingTable topTraces;
+        final LongCounterTable prefixTotals;
+        // Set when the call tree is rebuilt while this buffer still holds nodes of the old one, so the keys are
+        // removed once it has been drained rather than keeping the old tree alive
+        boolean stale;
+
+        Buffer(int maxTraces) {
+            if (maxTraces > 0) {
+                traces = null;
+                topTraces = new SpaceSavingTable(maxTraces * TRACKED_PER_REPORTED);
+                prefixTotals = new LongCounterTable();
+            } else {
+                traces = new LongCounterTable();
+                topTraces = null;
+                prefixTotals = null;
+            }
+        }
+
+        void add(long hash, Object key, long prefixHash, String prefix, long inc) {
+            if (topTraces != null) {
+                topTraces.add(hash, key, inc);
+                prefixTotals.add(prefixHash, prefix, inc);
+            } else {
+                traces.add(hash, key, inc);
+            }
+        }
     }
 
     /**
@@ -24,23 +117,140 @@ public class CPUTraces {
      * @param inc The value by which to increment the aggregate time for the trace
      */
     public void increment(String traceKey, long inc) {
-        MapUtil.setOrIncrementMap(traces, traceKey, inc);
+        String prefix = maxTraces > 0 ? getPrefix(traceKey) : null;
+        active.add(LongCounterTable.hash(traceKey), traceKey, prefix == null ? 0 : LongCounterTable.hash(prefix), prefix, inc);
         updateBounds(traceKey);
     }
 
+    /**
+     * Increment the aggregate time for a stack trace
+     * The stack is aggregated in the call tree, so the trace key is only built the first time a distinct stack is seen
+     *
+     * @param prefix The prefix for the trace key
+     * @param stack The stack trace, innermost frame first
+     * @param inc The value by which to increment the aggregate time for the trace
+     * @return True if the stack trace passed the filter and was recorded, false otherwise
+     */
+    public boolean increment(String prefix, StackTraceElement[] stack, long inc) {
+        return increment(callTree.insert(callTree.getRoot(prefix), stack), inc);
+    }
+
+    /**
+     * Increment the aggregate time for a stack trace that has already been added to the call tree
+     *
+     * @param node The node in the call tree representing the innermost frame of the stack
+     * @param inc The value by which to increment the aggregate time for the trace
+     * @return True if the stack trace passed the filter and was recorded, false otherwise
+     */
+    public boolean increment(CallTree.Node node, long inc) {
+        if (!isIncluded(node)) {
+            return false;
+        }
+
+        // Build the key now so draining never needs the call tree
+        callTree.getKey(node);
+        CallTree.Node root = node.getRoot();
+        active.add(node.getHash(), node, root.getHash(), root.getPrefix(), inc);
+        max = Math.max(max, node.getDepth());
+        min = Math.min(min, node.getDepth());
+        return true;
+    }
+
     /**
      * Get data to be flushed from the state
      * It only returns traces that have been updated since the last flush
+     * This swaps the buffers and drains the inactive one, so it must not be mixed with draining on another thread
      *
      */
     public Map<String, Number> getDataToFlush() {
-        Map<String, Number> result = traces;
-        traces = new HashMap<>();
+        swapBuffers();
+        return drainInactive();
+    }
+
+    /**
+     * Make the active buffer inactive, so it can be drained, and start recording in the other one
+     * The inactive buffer must have been drained since the previous swap
+     * The call tree is also replaced here if it has grown too large, so nodes must not be kept across swaps
+     */
+    public void swapBuffers() {
+        Buffer swapped = active;
+        active = inactive;
+        inactive = swapped;
+
+        int maxNodes = maxTraces > 0 ? maxTraces * NODES_PER_REPORTED
+                : Math.max(MIN_NODES_BEFORE_REBUILD, swapped.traces.size() * NODES_PER_REPORTED);
+        if (callTree.getNodeCount() > maxNodes) {
+            callTree = new CallTree();
+            if (active.traces != null) {
+                // Already drained, so it only holds the keys of the old tree
+                active.traces.clear();
+            }
+            inactive.stale = true;
+        }
+    }
+
+    /**
+     * Get the traces in the inactive buffer and reset it
+     * The counters are reset in place so their storage is reused
+     *
+     * @return The trace keys and their counts
+     */
+    public Map<String, Number> drainInactive() {
+        GaugeBatch batch = new GaugeBatch(maxTraces > 0 ? maxTraces + 1 : inactive.traces.size());
+        drainInactive(batch, 0);
+        Map<String, Number> result = new HashMap<>(batch.size() * 2);
+        for (int i = 0; i < batch.size(); i++) {
+            MapUtil.setOrIncrementMap(result, batch.keyAt(i), batch.longAt(i));
+        }
         return result;
     }
 
+    /**
+     * Add the traces in the inactive buffer to a batch and reset it
+     * The counts are not boxed and no map is built, so a batch reused across flushes keeps draining cheap
+     *
+     * @param batch The batch to which to add the trace keys and their counts
+     * @param timestamp The time at which the traces were sampled, in milliseconds since the epoch
+     */
+    public void drainInactive(GaugeBatch batch, long timestamp) {
+        if (maxTraces > 0) {
+            drainTopTraces(inactive, batch, timestamp);
+        } else {
+            LongCounterTable traces = inactive.traces;
+            for (int i = 0; i < traces.size(); i++) {
+                addTrace(batch, traces.keyAt(i), traces.countAt(i), timestamp);
+            }
+            if (inactive.stale) {
+                traces.clear();
+            } else {
+                // Forget the stacks that were not sampled during this flush once they outnumber the ones that were
+                if (traces.capacityUsed() - traces.size() > traces.size()) {
+                    traces.evictUntouched();
+                }
+                traces.reset();
+            }
+        }
+        inactive.stale = false;
+
+        if (flameGraph != null) {
+            flameGraph.finishFlush();
+        }
+    }
+
+    /**
+     * Give the traces of each flush to a flame graph, which is only called by the thread draining the traces
+     *
+     * @param flameGraph The flame graph to give the traces to, or null to stop
+     */
+    public void setFlameGraph(FlameGraph flameGraph) {
+        this.flameGraph = flameGraph;
+    }
+
     /**
      * Get the bounds on the number of path components for the CPU trace metrics
+     * For a stack trace this is its number of frames, the depth of its call tree node. For a String key it is the
+     * number of dot-separated components after cpu.trace, which is the same for keys in the dotted format
+     * cpu.trace.frame.frame but not for keys with tags, whose frames are separated by | and whose tags may contain dots
      *
      * @return A Pair of integers, the left being the minimum number of components and the right being the maximum
      */
@@ -48,6 +258,116 @@ public class CPUTraces {
         return new Range(min, max);
     }
 
+    /**
+     * Get the call tree in which stacks are aggregated
+     * The tree is replaced when it grows too large, so callers must not keep nodes across flushes
+     *
+     * @return The current call tree
+     */
+    public CallTree getCallTree() {
+        return callTree;
+    }
+
+    /**
+     * Get the hottest traces, and the remainder of each prefix's total as its "other" trace
+     * The reported count of a trace is the part of its estimated count that is guaranteed, so the counts reported
+     * for a prefix always add up to its total
+     */
+    private void drainTopTraces(Buffer buffer, GaugeBatch batch, long timestamp) {
+        SpaceSavingTable topTraces = buffer.topTraces;
+        LongCounterTable prefixTotals = buffer.prefixTotals;
+        for (int index : topTraces.topIndexes(maxTraces)) {
+            long count = topTraces.countAt(index) - topTraces.errorAt(index);
+            if (count > 0) {
+                Object key = topTraces.keyAt(index);
+                addTrace(batch, key, count, timestamp);
+                String prefix = getPrefix(key);
+                prefixReported.add(LongCounterTable.hash(prefix), prefix, count);
+            }
+        }
+
+        for (int i = 0; i < prefixTotals.size(); i++) {
+            String prefix = (String) prefixTotals.keyAt(i);
+            long other = prefixTotals.countAt(i) - prefixReported.get(prefixTotals.hashAt(i), prefix);
+            if (other > 0) {
+                MetricName otherName = otherNames.get(prefix);
+                if (otherName == null) {
+                    otherName = new MetricName(prefix + OTHER_TRACE);
+                    otherNames.put(prefix, otherName);
+                }
+                batch.add(otherName, other, timestamp);
+            }
+        }
+
+        topTraces.clear();
+        prefixTotals.reset();
+        prefixReported.reset();
+    }
+
+    /**
+     * Get the prefix of a trace key, which is the key up to and including the tag separator
+     *
+     * @param key A String trace key or a CallTree.Node
+     * @return The prefix, or an empty string if the key has none
+     */
+    private static String getPrefix(Object key) {
+        if (key instanceof CallTree.Node) {
+            return ((CallTree.Node) key).getRoot().getPrefix();
+        }
+
+        String traceKey = (String) key;
+        int separator = traceKey.indexOf(TagUtil.TAG_SEPARATOR);
+        return separator < 0 ? "" : traceKey.substring(0, separator + TagUtil.TAG_SEPARATOR.length());
+    }
+
+    /**
+     * Indicate if the stack for a node passes the filter
+     * The verdicts of the classes on the path are combined and cached on each node, so only the frames of
+     * new nodes are checked, and stacks are never formatted to be filtered
+     *
+     * @param node The node for the stack
+     * @return True if the stack passes the filter, false otherwise
+     */
+    private boolean isIncluded(CallTree.Node node) {
+        if (filter == null) {
+            return true;
+        }
+
+        if (node.classVerdicts == CallTree.Node.UNKNOWN_VERDICTS) {
+            CallTree.Node current = node;
+            while (current.getParent() != null && current.classVerdicts == CallTree.Node.UNKNOWN_VERDICTS) {
+                uncheckedNodes.add(current);
+                current = current.getParent();
+            }
+            // Roots have no frame, so nothing has matched yet
+            int verdicts = current.getParent() == null ? StackTraceFilter.NO_MATCH : current.classVerdicts;
+            FrameDictionary frames = callTree.getFrames();
+            for (int i = uncheckedNodes.size() - 1; i >= 0; i--) {
+                CallTree.Node unchecked = uncheckedNodes.get(i);
+                verdicts |= filter.getClassVerdicts(frames.getClassName(unchecked.getFrameId()));
+                unchecked.classVerdicts = (byte) verdicts;
+            }
+            uncheckedNodes.clear();
+        }
+
+        return filter.isIncluded(node.classVerdicts);
+    }
+
+    /**
+     * Add a trace to a batch, with the handle of its call tree node if it has one, and to the flame graph
+     */
+    private void addTrace(GaugeBatch batch, Object key, long count, long timestamp) {
+        if (key instanceof CallTree.Node) {
+            CallTree.Node node = (CallTree.Node) key;
+            batch.add(node.getMetricName(), count, timestamp);
+            if (flameGraph != null) {
+                flameGraph.add(node, count);
+            }
+        } else {
+            batch.add((String) key, count, timestamp);
+        }
+    }
+
     private void updateBounds(String traceKey) {
         int numComponents = 1;
         int len = traceKey.length();
@@ -0,0 +1,259 @@
+package com.etsy.statsd.profiler.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.etsy.statsd.profiler.reporter.MetricName;
+
+/**
+ * A call tree (trie) of stack traces keyed by interned frame ids
+ * Each distinct stack maps to exactly one node, so a stack only needs to be formatted as a String
+ * once no matter how many times it is sampled
+ *
+ * The tree has a separate root for each trace key prefix, e.g. "cpu.trace" plus its tags
+ * Children of a node are the frames called from that node, so the outermost frame of a stack
+ * is a child of the root and the innermost frame is the leaf
+ *
+ * This class is not thread-safe
+ */
+public class CallTree {
+    private static final int[] NO_FRAMES = new int[0];
+    private static final Node[] NO_NODES = new Node[0];
+
+    private final FrameDictionary frames;
+    private final Map<String, Node> roots;
+    private int nodeCount;
+
+    public CallTree() {
+        this(new FrameDictionary());
+    }
+
+    public CallTree(FrameDictionary frames) {
+        this.frames = frames;
+        roots = new HashMap<>();
+    }
+
+    /**
+     * Get the root node for a trace key prefix, creating it if necessary
+     *
+     * @param prefix The prefix for the keys of all traces below this root
+     * @return The root node for the prefix
+     */
+    public Node getRoot(String prefix) {
+        Node root = roots.get(prefix);
+        if (root == null) {
+            root = new Node(this, prefix);
+            roots.put(prefix, root);
+        }
+
+        return root;
+    }
+
+    /**
+     * Get the node for a stack trace, adding it to the tree if necessary
+     *
+     * @param root The root under which to insert the stack
+     * @param stack The stack trace, innermost frame first as returned by {@link Thread#getStackTrace()}
+     * @return The node representing the innermost frame of the stack
+     */
+    public Node insert(Node root, StackTraceElement[] stack) {
+        Node node = root;
+        for (int i = stack.length - 1; i >= 0; i--) {
+            node = node.getOrAddChild(frames.intern(stack[i]));
+        }
+
+        return node;
+    }
+
+    /**
+     * Get the trace key for a node, building it the first time it is requested
+     * The key is the prefix of the root followed by the stack formatted as by
+     * {@link StackTraceFormatter#formatStackTrace(StackTraceElement[])}
+     * The label of every frame on the path is set at the same time, so flame graphs never read the frame dictionary
+     *
+     * @param node The node for which to get the key
+     * @return The trace key
+     */
+    public String getKey(Node node) {
+        if (node.key == null) {
+            StringBuilder sb = new StringBuilder(node.getRoot().prefix);
+            for (Node n = node; n.parent != null; n = n.parent) {
+                if (n != node) {
+                    sb.append('|');
+                }
+                sb.append(frames.getFormattedFrame(n.frameId));
+                if (n.label == null) {
+                    n.label = frames.getLabel(n.frameId);
+                }
+            }
+            node.key = sb.toString();
+        }
+
+        return node.key;
+    }
+
+    public FrameDictionary getFrames() {
+        return frames;
+    }
+
+    public Map<String, Node> getRoots() {
+        return roots;
+    }
+
+    /**
+     * @return The number of nodes in the tree, including roots
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * A node in the call tree
+     */
+    public static final class Node {
+        static final byte UNKNOWN_VERDICTS = -1;
+
+        private final Node parent;
+        private final Node root;
+        // Only set on root nodes
+        private final CallTree tree;
+        private final int frameId;
+        private final int depth;
+        private final String prefix;
+
+        // Children are kept sorted by frame id so they can be binary searched
+        private int[] childFrames = NO_FRAMES;
+        private Node[] children = NO_NODES;
+        private int childCount;
+
+        // 64-bit hash of the path from the root, for use with a LongCounterTable
+        private final long hash;
+
+        private String key;
+        // Set with the key of this node or of any node below it
+        private String label;
+        // Only created by the thread draining the traces
+        private MetricName metricName;
+        // Filter verdicts of the classes on the path from the root, see StackTraceFilter#getClassVerdicts
+        byte classVerdicts = UNKNOWN_VERDICTS;
+
+        private Node(CallTree tree, String prefix) {
+            this.parent = null;
+            this.root = this;
+            this.tree = tree;
+            tree.nodeCount++;
+            this.frameId = -1;
+            this.depth = 0;
+            this.prefix = prefix;
+            this.hash = LongCounterTable.hash(prefix);
+        }
+
+        private Node(Node parent, int frameId) {
+            this.parent = parent;
+            this.root = parent.root;
+            this.tree = null;
+            root.tree.nodeCount++;
+            this.frameId = frameId;
+            this.depth = parent.depth + 1;
+            this.prefix = null;
+            this.hash = LongCounterTable.combine(parent.hash, frameId);
+        }
+
+        /**
+         * Get the child of this node for a frame, adding it if necessary
+         *
+         * @param childFrameId The interned id of the frame
+         * @return The child node
+         */
+        public Node getOrAddChild(int childFrameId) {
+            int index = Arrays.binarySearch(childFrames, 0, childCount, childFrameId);
+            if (index >= 0) {
+                return children[index];
+            }
+
+            int insertAt = -(index + 1);
+            if (childCount == childFrames.length) {
+                int capacity = Math.max(2, childCount * 2);
+                childFrames = Arrays.copyOf(childFrames, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(childFrames, insertAt, childFrames, insertAt + 1, childCount - insertAt);
+            System.arraycopy(children, insertAt, children, insertAt + 1, childCount - insertAt);
+
+            Node child = new Node(this, childFrameId);
+            childFrames[insertAt] = childFrameId;
+            children[insertAt] = child;
+            childCount++;
+            return child;
+        }
+
+        public Node getRoot() {
+            return root;
+        }
+
+        public Node getParent() {
+            return parent;
+        }
+
+        /**
+         * @return The interned id of the frame for this node, or -1 for a root
+         */
+        public int getFrameId() {
+            return frameId;
+        }
+
+        /**
+         * @return The number of frames between the root and this node
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return The trace key prefix, only set on root nodes
+         */
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        /**
+         * @return The trace key, or null if it has not been built by {@link CallTree#getKey(Node)} yet
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return The label of the frame, or null for a root or if no key has been built through this node yet
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Get a handle for the trace key, so reporters encode it only once however often the node is reported
+         * This is not thread-safe, so only the thread draining the traces may call it
+         *
+         * @return The handle, or null if the key has not been built yet
+         */
+        public MetricName getMetricName() {
+            if (metricName == null && key != null) {
+                metricName = new MetricName(key);
+            }
+            return metricName;
+        }
+
+        public int getChildCount() {
+            return childCount;
+        }
+
+        public Node getChild(int index) {
+            return children[index];
+        }
+    }
+}
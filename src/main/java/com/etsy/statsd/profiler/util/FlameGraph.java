@@ -0,0 +1,475 @@
+package com.etsy.statsd.profiler.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps the traces of recent flushes and renders them as an SVG flame graph
+ *
+ * The thread draining the traces adds the call tree node and count of each trace with {@link #add(CallTree.Node, long)}
+ * and publishes them with {@link #finishFlush()}, which merges them into a frame tree owned by the flame graph.
+ * Nodes are resolved by walking up their parents, so nodes shared by many traces are only resolved once per flush, and
+ * a node's frame is the label cached on it when its key was built. Nodes with the same frames are merged even if they
+ * belong to different call trees, as when CPUTraces rebuilds its tree, and no node is kept once its flush is merged,
+ * so a replaced call tree is not kept alive by the flame graph.
+ *
+ * Each flush keeps the frames and counts it added, which are subtracted from the frame tree once the flush is older
+ * than the retention, so frames no longer sampled are removed. Rendering copies the frame tree, or merges the flushes
+ * of a shorter window, and lays it out without holding the lock, so a slow render never delays a flush.
+ * In bounded mode the remainder reported as the other trace is not included.
+ *
+ * The graph has a frame for each root of the call trees, labeled with its prefix and tags, e.g. cpu.trace,pool=worker,
+ * above a single frame for all traces. Clicking a frame zooms into it, and hovering shows its count.
+ */
+public class FlameGraph {
+    public static final int WIDTH = 1200;
+    public static final double DEFAULT_MIN_WIDTH = 0.1;
+
+    private static final int FRAME_HEIGHT = 16;
+    private static final int FONT_SIZE = 12;
+    private static final double FONT_WIDTH = 0.59;
+    private static final int PAD_X = 10;
+    private static final int PAD_TOP = 40;
+    private static final int PAD_BOTTOM = 10;
+    private static final String ALL = "all";
+
+    private static final String SCRIPT = "var frames, W = " + WIDTH + ", P = " + PAD_X + ";\n"
+            + "function init(evt) { frames = document.getElementsByClassName(\"frame\"); }\n"
+            + "function attr(f, name) { return parseFloat(f.getAttribute(name)); }\n"
+            + "function place(f, x, w) {\n"
+            + "  var rect = f.getElementsByTagName(\"rect\")[0], text = f.getElementsByTagName(\"text\")[0];\n"
+            + "  var label = f.getAttribute(\"data-label\"), chars = Math.floor((w - 3) / (" + FONT_SIZE + " * "
+            + FONT_WIDTH + "));\n"
+            + "  rect.setAttribute(\"x\", x); rect.setAttribute(\"width\", w); text.setAttribute(\"x\", x + 3);\n"
+            + "  text.textContent = chars < 3 ? \"\"\n"
+            + "      : label.length <= chars ? label : label.substring(0, chars - 2) + \"..\";\n"
+            + "  f.style.display = \"\";\n"
+            + "}\n"
+            + "function zoom(g) {\n"
+            + "  var x = attr(g, \"data-x\"), w = attr(g, \"data-w\"), y = attr(g, \"data-y\"), scale = (W - 2 * P) / w;\n"
+            + "  for (var i = 0; i < frames.length; i++) {\n"
+            + "    var f = frames[i], fx = attr(f, \"data-x\"), fw = attr(f, \"data-w\");\n"
+            + "    if (fx + fw <= x + 0.0001 || fx >= x + w - 0.0001) { f.style.display = \"none\"; }\n"
+            + "    else if (attr(f, \"data-y\") > y) { place(f, P, W - 2 * P); }\n"
+            + "    else { place(f, P + (fx - x) * scale, fw * scale); }\n"
+            + "  }\n"
+            + "}\n"
+            + "function unzoom() {\n"
+            + "  for (var i = 0; i < frames.length; i++) {\n"
+            + "    place(frames[i], attr(frames[i], \"data-x\"), attr(frames[i], \"data-w\"));\n"
+            + "  }\n"
+            + "}\n";
+
+    private final long retentionMillis;
+
+    // Guarded by this, as are the children and counts of its frames
+    private final Deque<Flush> flushes = new ArrayDeque<>();
+    private final Frame all = new Frame(null, ALL);
+
+    // The flush being added, only accessed by the thread draining the traces
+    private CallTree.Node[] pendingNodes = new CallTree.Node[16];
+    private long[] pendingCounts = new long[16];
+    private int pendingSize;
+    private final Map<CallTree.Node, Frame> resolvedNodes = new IdentityHashMap<>();
+    private final List<CallTree.Node> unresolvedNodes = new ArrayList<>();
+
+    /**
+     * @param retentionMillis How long to keep the traces of each flush
+     */
+    public FlameGraph(long retentionMillis) {
+        this.retentionMillis = retentionMillis;
+    }
+
+    /**
+     * Add a trace to the flush being drained
+     *
+     * @param node The call tree node of the innermost frame of the trace
+     * @param count The count of the trace in this flush
+     */
+    public void add(CallTree.Node node, long count) {
+        if (pendingSize == pendingNodes.length) {
+            pendingNodes = Arrays.copyOf(pendingNodes, pendingSize * 2);
+            pendingCounts = Arrays.copyOf(pendingCounts, pendingSize * 2);
+        }
+        pendingNodes[pendingSize] = node;
+        pendingCounts[pendingSize] = count;
+        pendingSize++;
+    }
+
+    /**
+     * Merge the traces added since the previous flush into the frame tree, and subtract the flushes older than the
+     * retention
+     */
+    public void finishFlush() {
+        long now = System.currentTimeMillis();
+        Frame[] frames = new Frame[pendingSize];
+        long[] counts = Arrays.copyOf(pendingCounts, pendingSize);
+
+        synchronized (this) {
+            for (int i = 0; i < pendingSize; i++) {
+                frames[i] = resolve(pendingNodes[i]);
+                frames[i].add(counts[i]);
+            }
+            flushes.addLast(new Flush(now, frames, counts));
+            while (flushes.peekFirst().timestamp < now - retentionMillis) {
+                Flush expired = flushes.removeFirst();
+                for (int i = 0; i < expired.frames.length; i++) {
+                    expired.frames[i].subtract(expired.counts[i]);
+                }
+            }
+        }
+
+        // Keep no nodes, so a call tree replaced by CPUTraces can be collected
+        Arrays.fill(pendingNodes, 0, pendingSize, null);
+        pendingSize = 0;
+        resolvedNodes.clear();
+    }
+
+    /**
+     * Render the traces of the recent flushes as an SVG flame graph
+     *
+     * @param windowMillis How far back to include flushes, or 0 to include every flush kept
+     * @param tag Only include the traces with this tag, e.g. pool=worker, or null to include every trace
+     * @param minWidth The width in pixels below which frames and the frames above them are left out
+     * @return The SVG document
+     */
+    public String render(long windowMillis, String tag, double minWidth) {
+        long oldest = windowMillis > 0 ? System.currentTimeMillis() - windowMillis : Long.MIN_VALUE;
+        // Every root label is the prefix up to the tag separator, so a comma after it makes each tag end with one
+        String tagFilter = tag != null ? "," + tag + "," : null;
+
+        Frame all;
+        List<Flush> window = null;
+        synchronized (this) {
+            if (flushes.isEmpty() || flushes.peekFirst().timestamp >= oldest) {
+                all = copy(this.all, null, tagFilter);
+            } else {
+                all = null;
+                window = new ArrayList<>(flushes.size());
+                for (Flush flush : flushes) {
+                    if (flush.timestamp >= oldest) {
+                        window.add(flush);
+                    }
+                }
+            }
+        }
+        if (all == null) {
+            // The labels and parents of frames never change, so the flushes are merged without the lock
+            all = merge(window, tagFilter);
+        }
+
+        double scale = all.total > 0 ? (WIDTH - 2.0 * PAD_X) / all.total : 0;
+        int height = PAD_TOP + (all.maxDepth(minWidth / scale) + 1) * FRAME_HEIGHT + PAD_BOTTOM;
+        StringBuilder svg = new StringBuilder(64 * 1024);
+        svg.append("<?xml version=\"1.0\" standalone=\"no\"?>\n")
+                .append("<svg version=\"1.1\" width=\"").append(WIDTH).append("\" height=\"").append(height)
+                .append("\" onload=\"init(evt)\" viewBox=\"0 0 ").append(WIDTH).append(' ').append(height)
+                .append("\" xmlns=\"http://www.w3.org/2000/svg\">\n")
+                .append("<style>text { font-family: Verdana, sans-serif; font-size: ").append(FONT_SIZE)
+                .append("px; } .frame:hover rect { stroke: black; stroke-width: 0.5; cursor: pointer; }</style>\n")
+                .append("<script type=\"text/ecmascript\"><![CDATA[\n").append(SCRIPT).append("]]></script>\n")
+                .append("<rect x=\"0\" y=\"0\" width=\"").append(WIDTH).append("\" height=\"").append(height)
+                .append("\" fill=\"#eeeeee\"/>\n")
+                .append("<text x=\"").append(WIDTH / 2)
+                .append("\" y=\"24\" text-anchor=\"middle\" style=\"font-size: 17px\">")
+                .append(all.total > 0 ? "Flame Graph" : "No traces").append("</text>\n")
+                .append("<text x=\"").append(PAD_X).append("\" y=\"24\" onclick=\"unzoom()\" style=\"cursor: pointer\">")
+                .append("Reset Zoom</text>\n");
+        if (all.total > 0) {
+            layout(svg, all, 0, PAD_X, scale, minWidth, height - PAD_BOTTOM, all.total);
+        }
+        svg.append("</svg>\n");
+        return svg.toString();
+    }
+
+    /**
+     * Get the frame of a node, adding the frames of the nodes below it that have not been resolved in this flush first
+     */
+    private Frame resolve(CallTree.Node node) {
+        Frame frame = resolvedNodes.get(node);
+        if (frame != null) {
+            return frame;
+        }
+
+        CallTree.Node current = node;
+        while (current != null && !resolvedNodes.containsKey(current)) {
+            unresolvedNodes.add(current);
+            current = current.getParent();
+        }
+        frame = current != null ? resolvedNodes.get(current) : all;
+        for (int i = unresolvedNodes.size() - 1; i >= 0; i--) {
+            CallTree.Node unresolved = unresolvedNodes.get(i);
+            frame = frame.child(unresolved.getParent() == null ? rootLabel(unresolved.getPrefix())
+                    : unresolved.getLabel());
+            resolvedNodes.put(unresolved, frame);
+        }
+        unresolvedNodes.clear();
+        return frame;
+    }
+
+    /**
+     * Copy a frame and the frames above it, which must be called while holding the lock
+     *
+     * @param tagFilter Only copy the roots whose label contains this, or null to copy every root
+     */
+    private static Frame copy(Frame frame, Frame parent, String tagFilter) {
+        Frame copy = new Frame(parent, frame.label);
+        copy.self = frame.self;
+        copy.total = frame.self;
+        if (frame.children != null) {
+            for (Frame child : frame.children.values()) {
+                if (parent == null && !matches(child, tagFilter)) {
+                    continue;
+                }
+                Frame childCopy = copy(child, copy, null);
+                if (copy.children == null) {
+                    copy.children = new HashMap<>();
+                }
+                copy.children.put(childCopy.label, childCopy);
+                copy.total += childCopy.total;
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Merge the frames and counts of some flushes into a new frame tree
+     *
+     * @param tagFilter Only merge the traces whose root label contains this, or null to merge every trace
+     */
+    private static Frame merge(List<Flush> window, String tagFilter) {
+        Frame all = new Frame(null, ALL);
+        Map<Frame, Frame> copies = new IdentityHashMap<>();
+        List<Frame> uncopied = new ArrayList<>();
+        for (Flush flush : window) {
+            for (int i = 0; i < flush.frames.length; i++) {
+                Frame frame = flush.frames[i];
+                Frame copy = copies.get(frame);
+                if (copy == null) {
+                    Frame current = frame;
+                    while (current.parent != null && !copies.containsKey(current)) {
+                        uncopied.add(current);
+                        current = current.parent;
+                    }
+                    copy = current.parent != null ? copies.get(current) : all;
+                    if (copy == all && !matches(uncopied.get(uncopied.size() - 1), tagFilter)) {
+                        uncopied.clear();
+                        continue;
+                    }
+                    for (int j = uncopied.size() - 1; j >= 0; j--) {
+                        copy = copy.child(uncopied.get(j).label);
+                        copies.put(uncopied.get(j), copy);
+                    }
+                    uncopied.clear();
+                }
+                copy.self += flush.counts[i];
+            }
+        }
+        all.sum();
+        return all;
+    }
+
+    private static boolean matches(Frame root, String tagFilter) {
+        return tagFilter == null || (root.label + ",").contains(tagFilter);
+    }
+
+    /**
+     * Label a root with its prefix without the tags every trace has, e.g. cpu.trace,pool=worker
+     */
+    private static String rootLabel(String prefix) {
+        int separator = prefix.indexOf(TagUtil.TAG_SEPARATOR);
+        return separator < 0 ? prefix : prefix.substring(0, separator);
+    }
+
+    private static void layout(StringBuilder svg, Frame frame, int depth, double x, double scale, double minWidth,
+            int bottom, long total) {
+        double width = frame.total * scale;
+        if (width < minWidth) {
+            return;
+        }
+
+        int y = bottom - (depth + 1) * FRAME_HEIGHT;
+        String label = escape(frame.label);
+        svg.append("<g class=\"frame\" onclick=\"zoom(this)\" data-x=\"").append(format(x))
+                .append("\" data-w=\"").append(format(width)).append("\" data-y=\"").append(y)
+                .append("\" data-label=\"").append(label).append("\">\n<title>").append(label).append(" (")
+                .append(frame.total).append(", ").append(format(100.0 * frame.total / total)).append("%)</title>")
+                .append("<rect x=\"").append(format(x)).append("\" y=\"").append(y).append("\" width=\"")
+                .append(format(width)).append("\" height=\"").append(FRAME_HEIGHT - 1)
+                .append("\" rx=\"2\" fill=\"").append(color(frame.label)).append("\"/>")
+                .append("<text x=\"").append(format(x + 3)).append("\" y=\"").append(y + FRAME_HEIGHT - 4)
+                .append("\">").append(escape(trim(frame.label, width))).append("</text>\n</g>\n");
+
+        double childX = x;
+        for (Frame child : frame.sortedChildren()) {
+            layout(svg, child, depth + 1, childX, scale, minWidth, bottom, total);
+            childX += child.total * scale;
+        }
+    }
+
+    /**
+     * Trim a label to the characters that fit in a frame, or nothing if fewer than three fit
+     */
+    static String trim(String label, double width) {
+        int chars = (int) ((width - 3) / (FONT_SIZE * FONT_WIDTH));
+        if (chars < 3) {
+            return "";
+        }
+        return label.length() <= chars ? label : label.substring(0, chars - 2) + "..";
+    }
+
+    /**
+     * Pick a color from the warm palette of FlameGraph, always the same for a label
+     */
+    private static String color(String label) {
+        int hash = label.hashCode() * 0x9E3779B9;
+        int r = 205 + (hash >>> 26) % 50;
+        int g = (hash >>> 8 & 0xff) * 230 / 255;
+        int b = (hash & 0xff) * 55 / 255;
+        return "rgb(" + r + "," + g + "," + b + ")";
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    escaped.append("&amp;");
+                    break;
+                case '<':
+                    escaped.append("&lt;");
+                    break;
+                case '>':
+                    escaped.append("&gt;");
+                    break;
+                case '"':
+                    escaped.append("&quot;");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static final class Flush {
+        private final long timestamp;
+        // The frames the traces of the flush ended at, which are only added to while the flush is kept
+        private final Frame[] frames;
+        private final long[] counts;
+
+        private Flush(long timestamp, Frame[] frames, long[] counts) {
+            this.timestamp = timestamp;
+            this.frames = frames;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * A frame of the graph, merging the call tree nodes with the same frames
+     */
+    private static final class Frame {
+        private static final Comparator<Frame> BY_LABEL = new Comparator<Frame>() {
+            @Override
+            public int compare(Frame a, Frame b) {
+                return a.label.compareTo(b.label);
+            }
+        };
+
+        private final Frame parent;
+        private final String label;
+        private Map<String, Frame> children;
+        // The count of the traces ending at this frame, and including the frames above it
+        private long self;
+        private long total;
+
+        private Frame(Frame parent, String label) {
+            this.parent = parent;
+            this.label = label != null ? label : "?";
+        }
+
+        private Frame child(String childLabel) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            Frame child = children.get(childLabel != null ? childLabel : "?");
+            if (child == null) {
+                child = new Frame(this, childLabel);
+                children.put(child.label, child);
+            }
+            return child;
+        }
+
+        /**
+         * Add the count of traces ending at this frame to it and to the frames below it
+         */
+        private void add(long count) {
+            self += count;
+            for (Frame frame = this; frame != null; frame = frame.parent) {
+                frame.total += count;
+            }
+        }
+
+        /**
+         * Subtract the count of traces ending at this frame, and remove the frames left without any traces
+         */
+        private void subtract(long count) {
+            self -= count;
+            for (Frame frame = this; frame != null; frame = frame.parent) {
+                frame.total -= count;
+                if (frame.total == 0 && frame.parent != null) {
+                    frame.parent.children.remove(frame.label, frame);
+                }
+            }
+        }
+
+        private long sum() {
+            total = self;
+            if (children != null) {
+                for (Frame child : children.values()) {
+                    total += child.sum();
+                }
+            }
+            return total;
+        }
+
+        /**
+         * @param minTotal The total below which frames are left out
+         * @return The number of frames above this one, not counting the frames left out
+         */
+        private int maxDepth(double minTotal) {
+            int depth = 0;
+            if (children != null) {
+                for (Frame child : children.values()) {
+                    if (child.total >= minTotal) {
+                        depth = Math.max(depth, child.maxDepth(minTotal) + 1);
+                    }
+                }
+            }
+            return depth;
+        }
+
+        private List<Frame> sortedChildren() {
+            if (children == null) {
+                return Collections.emptyList();
+            }
+            List<Frame> sorted = new ArrayList<>(children.values());
+            Collections.sort(sorted, BY_LABEL);
+            return sorted;
+        }
+    }
+}
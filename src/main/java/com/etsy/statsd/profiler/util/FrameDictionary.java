@@ -0,0 +1,153 @@
+package com.etsy.statsd.profiler.util;
+
+import java.util.Arrays;
+
+/**
+ * Interns stack frames as dense integer ids
+ * Two frames are the same if they have the same class, method and line number, which matches what
+ * {@link StackTraceFormatter#formatStackTraceElement(StackTraceElement)} includes in its output
+ * The formatted representation of a frame is only built the first time the frame is seen
+ *
+ * This class is not thread-safe
+ */
+public class FrameDictionary {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int EMPTY = -1;
+
+    private int[] slots;
+    private String[] classNames;
+    private String[] methodNames;
+    private int[] lineNumbers;
+    private String[] formatted;
+    // Built the first time they are requested
+    private String[] labels;
+    private int size;
+
+    public FrameDictionary() {
+        slots = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(slots, EMPTY);
+        classNames = new String[INITIAL_CAPACITY];
+        methodNames = new String[INITIAL_CAPACITY];
+        lineNumbers = new int[INITIAL_CAPACITY];
+        formatted = new String[INITIAL_CAPACITY];
+        labels = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Get the id for a frame, assigning a new one if the frame has not been seen before
+     *
+     * @param element The frame to intern
+     * @return The id of the frame
+     */
+    public int intern(StackTraceElement element) {
+        return intern(element.getClassName(), element.getMethodName(), element.getLineNumber());
+    }
+
+    /**
+     * Get the id for a frame, assigning a new one if the frame has not been seen before
+     *
+     * @param className The fully qualified name of the class
+     * @param methodName The name of the method
+     * @param lineNumber The line number, or a negative value if it is not known
+     * @return The id of the frame
+     */
+    public int intern(String className, String methodName, int lineNumber) {
+        int mask = slots.length - 1;
+        int slot = hash(className, methodName, lineNumber) & mask;
+        while (true) {
+            int id = slots[slot];
+            if (id == EMPTY) {
+                return add(slot, className, methodName, lineNumber);
+            }
+            if (lineNumbers[id] == lineNumber && methodNames[id].equals(methodName) && classNames[id].equals(className)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Get the formatted representation of a frame
+     *
+     * @param id The id of the frame
+     * @return The frame formatted as by {@link StackTraceFormatter#formatStackTraceElement(StackTraceElement)}
+     */
+    public String getFormattedFrame(int id) {
+        return formatted[id];
+    }
+
+    /**
+     * Get the label of a frame for a flame graph
+     *
+     * @param id The id of the frame
+     * @return The frame formatted as by {@link StackTraceFormatter#formatFrameLabel(String, String, int)}
+     */
+    public String getLabel(int id) {
+        if (labels[id] == null) {
+            labels[id] = StackTraceFormatter.formatFrameLabel(classNames[id], methodNames[id], lineNumbers[id]);
+        }
+        return labels[id];
+    }
+
+    /**
+     * Get the class name of a frame
+     *
+     * @param id The id of the frame
+     * @return The fully qualified class name of the frame
+     */
+    public String getClassName(int id) {
+        return classNames[id];
+    }
+
+    /**
+     * Get the number of distinct frames that have been interned
+     *
+     * @return The number of distinct frames
+     */
+    public int size() {
+        return size;
+    }
+
+    private int add(int slot, String className, String methodName, int lineNumber) {
+        int id = size++;
+        if (id == classNames.length) {
+            int capacity = classNames.length * 2;
+            classNames = Arrays.copyOf(classNames, capacity);
+            methodNames = Arrays.copyOf(methodNames, capacity);
+            lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+            formatted = Arrays.copyOf(formatted, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+        }
+        classNames[id] = className;
+        methodNames[id] = methodName;
+        lineNumbers[id] = lineNumber;
+        formatted[id] = StackTraceFormatter.formatStackTraceElement(className, methodName, lineNumber);
+        slots[slot] = id;
+
+        // Keep the load factor of the slot table at or below 0.5
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+
+        return id;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        Arrays.fill(slots, EMPTY);
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(classNames[id], methodNames[id], lineNumbers[id]) & mask;
+            while (slots[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id;
+        }
+    }
+
+    private static int hash(String className, String methodName, int lineNumber) {
+        int h = (className.hashCode() * 31 + methodName.hashCode()) * 31 + lineNumber;
+        // Spread the high bits into the low bits, which are the ones used to pick a slot
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,123 @@
+package com.etsy.statsd.profiler.util;
+
+import com.etsy.statsd.profiler.worker.ProfilerThreadFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Samples allocation sites with an in-process JFR RecordingStream
+ *
+ * Each jdk.ObjectAllocationSample event is recorded in a {@link CPUTraces} under a root for the allocated class,
+ * weighted by the bytes the sample stands for. JFR throttles these events to a fixed rate, so the overhead does not
+ * grow with the allocation rate. Events are delivered on the stream's own thread, so the traces are locked while
+ * they are updated; readers must synchronize on the same CPUTraces instance.
+ *
+ * Only use this class after checking {@link JfrSupport#isAvailable()}, and create it through JfrSupport since it is
+ * not compiled on JDKs older than 14
+ */
+public class JfrAllocationSampler implements JfrSampler {
+    public static final String ALLOCATION_SAMPLE_EVENT = JfrSupport.ALLOCATION_SAMPLE_EVENT;
+
+    private final RecordingStream stream;
+    // The thread delivering the events, which is excluded from sampling like the other profiler threads
+    private volatile long streamThreadId = -1;
+    private final CPUTraces traces;
+    private final String prefix;
+    private final int maxDepth;
+    // The call tree the roots belong to, which is replaced by CPUTraces when it grows too large
+    private CallTree tree;
+    // Roots of the call tree by allocated class name
+    private final Map<String, CallTree.Node> roots = new HashMap<>();
+
+    /**
+     * @param traces The traces in which to record the samples
+     * @param prefix The prefix for the trace keys, to which the class tag and the tag separator are appended
+     * @param throttle The maximum rate of samples, e.g. 100/s
+     * @param maxDepth The maximum number of frames to record for each stack
+     */
+    public JfrAllocationSampler(CPUTraces traces, String prefix, String throttle, int maxDepth) {
+        this.traces = traces;
+        this.prefix = prefix;
+        this.maxDepth = maxDepth;
+
+        stream = new RecordingStream();
+        stream.enable(ALLOCATION_SAMPLE_EVENT).with("throttle", throttle).withStackTrace();
+        stream.onEvent(ALLOCATION_SAMPLE_EVENT, new Consumer<RecordedEvent>() {
+            @Override
+            public void accept(RecordedEvent event) {
+                recordSample(event);
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        stream.startAsync();
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+        if (streamThreadId >= 0) {
+            ProfilerThreadFactory.unregister(streamThreadId);
+        }
+    }
+
+    private void recordSample(RecordedEvent event) {
+        if (streamThreadId < 0) {
+            // The stream's thread is created by JFR, so it is only known once it delivers an event
+            streamThreadId = Thread.currentThread().getId();
+            ProfilerThreadFactory.register(streamThreadId);
+        }
+        RecordedThread thread = event.getThread("eventThread");
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        RecordedClass objectClass = event.getClass("objectClass");
+        long weight = event.getLong("weight");
+        if (stackTrace == null || objectClass == null || weight <= 0
+                || thread != null && ProfilerThreadFactory.isProfilerThread(thread.getJavaThreadId(), thread.getJavaName())) {
+            return;
+        }
+
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        int depth = Math.min(frames.size(), maxDepth);
+        if (depth == 0) {
+            return;
+        }
+
+        synchronized (traces) {
+            if (traces.getCallTree() != tree) {
+                tree = traces.getCallTree();
+                roots.clear();
+            }
+            FrameDictionary dictionary = tree.getFrames();
+            CallTree.Node node = getRoot(objectClass.getName());
+            for (int i = depth - 1; i >= 0; i--) {
+                RecordedFrame frame = frames.get(i);
+                RecordedMethod method = frame.getMethod();
+                node = node.getOrAddChild(dictionary.intern(method.getType().getName(), method.getName(), frame.getLineNumber()));
+            }
+            traces.increment(node, weight);
+        }
+    }
+
+    private CallTree.Node getRoot(String className) {
+        CallTree.Node root = roots.get(className);
+        if (root == null) {
+            root = tree.getRoot(prefix + ThreadNameNormalizer.toTagValue(className) + TagUtil.TAG_SEPARATOR);
+            roots.put(className, root);
+        }
+
+        return root;
+    }
+}
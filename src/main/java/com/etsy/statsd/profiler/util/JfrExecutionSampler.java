@@ -0,0 +1,139 @@
+package com.etsy.statsd.profiler.util;
+
+import com.etsy.statsd.profiler.worker.ProfilerThreadFactory;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedMethod;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Samples CPU stack traces with an in-process JFR RecordingStream instead of the ThreadMXBean
+ *
+ * JFR samples threads that are running Java code asynchronously, without bringing the JVM to a safepoint,
+ * and does not suffer from safepoint bias. Each jdk.ExecutionSample event is recorded in a {@link CPUTraces}.
+ * Events are delivered on the stream's own thread, so the traces are locked while they are updated;
+ * readers must synchronize on the same CPUTraces instance.
+ * If a {@link ThreadNameNormalizer} is given, each sample is also tagged with the pool of the sampled thread.
+ *
+ * Only use this class after checking {@link JfrSupport#isAvailable()}, and create it through JfrSupport since it is
+ * not compiled on JDKs older than 14
+ */
+public class JfrExecutionSampler implements JfrSampler {
+    public static final String EXECUTION_SAMPLE_EVENT = "jdk.ExecutionSample";
+
+    private final RecordingStream stream;
+    // The thread delivering the events, which is excluded from sampling like the other profiler threads
+    private volatile long streamThreadId = -1;
+    private final CPUTraces traces;
+    private final String prefix;
+    // The call tree the roots belong to, which is replaced by CPUTraces when it grows too large
+    private CallTree tree;
+    private CallTree.Node root;
+    private final int maxDepth;
+    private final ThreadNameNormalizer threadNames;
+    // Roots of the call tree by pool name
+    private final Map<String, CallTree.Node> poolRoots = new HashMap<>();
+
+    /**
+     * @param traces The traces in which to record the samples
+     * @param prefix The prefix for the trace keys
+     * @param periodMillis The sampling period
+     * @param maxDepth The maximum number of frames to record for each stack
+     */
+    public JfrExecutionSampler(CPUTraces traces, String prefix, long periodMillis, int maxDepth) {
+        this(traces, prefix, periodMillis, maxDepth, null);
+    }
+
+    /**
+     * @param traces The traces in which to record the samples
+     * @param prefix The prefix for the trace keys, ending with the tag separator
+     * @param periodMillis The sampling period
+     * @param maxDepth The maximum number of frames to record for each stack
+     * @param threadNames Normalizes the names of sampled threads into the pool tag, or null to not tag samples
+     */
+    public JfrExecutionSampler(CPUTraces traces, String prefix, long periodMillis, int maxDepth,
+                               ThreadNameNormalizer threadNames) {
+        this.traces = traces;
+        this.prefix = prefix;
+        this.maxDepth = maxDepth;
+        this.threadNames = threadNames;
+
+        stream = new RecordingStream();
+        stream.enable(EXECUTION_SAMPLE_EVENT).withPeriod(Duration.ofMillis(periodMillis)).withStackTrace();
+        stream.onEvent(EXECUTION_SAMPLE_EVENT, new Consumer<RecordedEvent>() {
+            @Override
+            public void accept(RecordedEvent event) {
+                recordSample(event);
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        stream.startAsync();
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+        if (streamThreadId >= 0) {
+            ProfilerThreadFactory.unregister(streamThreadId);
+        }
+    }
+
+    private void recordSample(RecordedEvent event) {
+        if (streamThreadId < 0) {
+            // The stream's thread is created by JFR, so it is only known once it delivers an event
+            streamThreadId = Thread.currentThread().getId();
+            ProfilerThreadFactory.register(streamThreadId);
+        }
+        RecordedThread thread = event.getThread("sampledThread");
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace == null || thread != null && ProfilerThreadFactory.isProfilerThread(thread.getJavaThreadId(), thread.getJavaName())) {
+            return;
+        }
+
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        int depth = Math.min(frames.size(), maxDepth);
+        // certain threads do not have stack traces
+        if (depth == 0) {
+            return;
+        }
+
+        synchronized (traces) {
+            if (traces.getCallTree() != tree) {
+                tree = traces.getCallTree();
+                root = tree.getRoot(prefix);
+                poolRoots.clear();
+            }
+            FrameDictionary dictionary = tree.getFrames();
+            CallTree.Node node = threadNames != null && thread != null ? getPoolRoot(thread) : root;
+            for (int i = depth - 1; i >= 0; i--) {
+                RecordedFrame frame = frames.get(i);
+                RecordedMethod method = frame.getMethod();
+                node = node.getOrAddChild(dictionary.intern(method.getType().getName(), method.getName(), frame.getLineNumber()));
+            }
+            traces.increment(node, 1);
+        }
+    }
+
+    private CallTree.Node getPoolRoot(RecordedThread thread) {
+        String pool = threadNames.normalize(thread.getJavaThreadId(), thread.getJavaName());
+        CallTree.Node poolRoot = poolRoots.get(pool);
+        if (poolRoot == null) {
+            poolRoot = tree.getRoot(TagUtil.addTag(prefix, "pool", pool));
+            poolRoots.put(pool, poolRoot);
+        }
+
+        return poolRoot;
+    }
+}
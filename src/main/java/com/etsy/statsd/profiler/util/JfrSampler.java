@@ -0,0 +1,19 @@
+package com.etsy.statsd.profiler.util;
+
+/**
+ * A sampler that records JFR events into a {@link CPUTraces} from its own thread
+ *
+ * The implementations use the jdk.jfr.consumer API of JDK 14 and later and are only compiled on those JDKs,
+ * so profilers create them through {@link JfrSupport} and only refer to them by this interface.
+ */
+public interface JfrSampler {
+    /**
+     * Start consuming events on a background thread
+     */
+    void start();
+
+    /**
+     * Stop the recording and release its resources
+     */
+    void close();
+}
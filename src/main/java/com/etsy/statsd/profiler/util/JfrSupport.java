@@ -0,0 +1,117 @@
+package com.etsy.statsd.profiler.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+/**
+ * Utility class for checking if JDK Flight Recorder event streaming is available, and creating the JFR samplers
+ * This class must not reference any jdk.jfr types so it can be loaded on any JVM
+ *
+ * The samplers are only compiled on JDK 14 or later, so they are loaded by name. A JAR built on an older JDK
+ * runs everywhere, but never has JFR sampling.
+ */
+public final class JfrSupport {
+    /**
+     * The JFR event sampling allocations, which was added in JDK 16
+     */
+    public static final String ALLOCATION_SAMPLE_EVENT = "jdk.ObjectAllocationSample";
+
+    private static final String RECORDING_STREAM_CLASS = "jdk.jfr.consumer.RecordingStream";
+    private static final String FLIGHT_RECORDER_CLASS = "jdk.jfr.FlightRecorder";
+    private static final String EXECUTION_SAMPLER_CLASS = "com.etsy.statsd.profiler.util.JfrExecutionSampler";
+    private static final String ALLOCATION_SAMPLER_CLASS = "com.etsy.statsd.profiler.util.JfrAllocationSampler";
+
+    private JfrSupport() { }
+
+    /**
+     * Indicate if this JVM supports in-process JFR event streaming (JDK 14+), and the samplers were compiled
+     *
+     * @return True if a RecordingStream can be used, false otherwise
+     */
+    public static boolean isAvailable() {
+        try {
+            Class.forName(RECORDING_STREAM_CLASS);
+            Class.forName(EXECUTION_SAMPLER_CLASS, false, JfrSupport.class.getClassLoader());
+            Class<?> flightRecorder = Class.forName(FLIGHT_RECORDER_CLASS);
+            return (Boolean) flightRecorder.getMethod("isAvailable").invoke(null);
+        } catch (Exception | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Indicate if this JVM's Flight Recorder has an event type, since event streaming predates some of the events
+     * Only call this after checking {@link #isAvailable()}
+     *
+     * @param eventName The name of the event, e.g. jdk.ObjectAllocationSample
+     * @return True if the event type is registered, false otherwise
+     */
+    public static boolean isEventAvailable(String eventName) {
+        try {
+            Class<?> flightRecorder = Class.forName(FLIGHT_RECORDER_CLASS);
+            Object recorder = flightRecorder.getMethod("getFlightRecorder").invoke(null);
+            List<?> eventTypes = (List<?>) flightRecorder.getMethod("getEventTypes").invoke(recorder);
+            for (Object eventType : eventTypes) {
+                if (eventName.equals(eventType.getClass().getMethod("getName").invoke(eventType))) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (Exception | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a sampler of CPU stack traces, see JfrExecutionSampler
+     * Only call this after checking {@link #isAvailable()}
+     *
+     * @param traces The traces in which to record the samples
+     * @param prefix The prefix for the trace keys, ending with the tag separator
+     * @param periodMillis The sampling period
+     * @param maxDepth The maximum number of frames to record for each stack
+     * @param threadNames Normalizes the names of sampled threads into the pool tag, or null to not tag samples
+     * @return The sampler, which has not been started
+     * @throws ReflectiveOperationException If the sampler cannot be created
+     */
+    public static JfrSampler newExecutionSampler(CPUTraces traces, String prefix, long periodMillis, int maxDepth,
+                                                 ThreadNameNormalizer threadNames) throws ReflectiveOperationException {
+        return newSampler(EXECUTION_SAMPLER_CLASS,
+                new Class<?>[] { CPUTraces.class, String.class, long.class, int.class, ThreadNameNormalizer.class },
+                traces, prefix, periodMillis, maxDepth, threadNames);
+    }
+
+    /**
+     * Create a sampler of allocation sites, see JfrAllocationSampler
+     * Only call this after checking {@link #isAvailable()}
+     *
+     * @param traces The traces in which to record the samples
+     * @param prefix The prefix for the trace keys, to which the class tag and the tag separator are appended
+     * @param throttle The maximum rate of samples, e.g. 100/s
+     * @param maxDepth The maximum number of frames to record for each stack
+     * @return The sampler, which has not been started
+     * @throws ReflectiveOperationException If the sampler cannot be created
+     */
+    public static JfrSampler newAllocationSampler(CPUTraces traces, String prefix, String throttle, int maxDepth)
+            throws ReflectiveOperationException {
+        return newSampler(ALLOCATION_SAMPLER_CLASS,
+                new Class<?>[] { CPUTraces.class, String.class, String.class, int.class },
+                traces, prefix, throttle, maxDepth);
+    }
+
+    private static JfrSampler newSampler(String className, Class<?>[] parameterTypes, Object... arguments)
+            throws ReflectiveOperationException {
+        try {
+            return (JfrSampler) Class.forName(className).getConstructor(parameterTypes).newInstance(arguments);
+        } catch (InvocationTargetException e) {
+            // Rethrow what the constructor threw, so it is what gets logged
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.etsy.statsd.profiler.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing table of primitive long counters keyed by a 64-bit hash
+ *
+ * Every entry also keeps the object the hash was computed from, which is compared on lookup
+ * so a hash collision never merges two different keys.  A null key means the hash is the key itself.
+ *
+ * Entries are never removed by {@link #reset()}, it only zeroes the counters that were touched since the
+ * previous reset. That way the same keys can be counted again in the next period without allocating.
+ * Keys that stop being counted can be removed with {@link #evictUntouched()}.
+ *
+ * This class is not thread-safe
+ */
+public class LongCounterTable {
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private long[] hashes;
+    private Object[] keys;
+    private long[] counts;
+    private boolean[] occupied;
+    private int occupiedCount;
+
+    // Slots touched since the last reset, in the order they were first touched
+    private int[] touched;
+    private boolean[] isTouched;
+    private int touchedCount;
+
+    public LongCounterTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize The number of keys the table should hold without resizing
+     */
+    public LongCounterTable(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Add to the counter for a key
+     *
+     * @param hash The 64-bit hash of the key
+     * @param key The key, used to verify hash matches, or null if the hash is the key
+     * @param inc The value to add to the counter
+     * @return The new value of the counter
+     */
+    public long add(long hash, Object key, long inc) {
+        int slot = findOrInsert(hash, key);
+        markTouched(slot);
+        counts[slot] += inc;
+        return counts[slot];
+    }
+
+    /**
+     * Set the counter for a key
+     *
+     * @param hash The 64-bit hash of the key
+     * @param key The key, used to verify hash matches, or null if the hash is the key
+     * @param value The new value of the counter
+     * @return The previous value of the counter, 0 if the key was not present
+     */
+    public long put(long hash, Object key, long value) {
+        int slot = findOrInsert(hash, key);
+        markTouched(slot);
+        long previous = counts[slot];
+        counts[slot] = value;
+        return previous;
+    }
+
+    /**
+     * Get the counter for a key
+     *
+     * @param hash The 64-bit hash of the key
+     * @param key The key, used to verify hash matches, or null if the hash is the key
+     * @return The value of the counter, 0 if the key is not present
+     */
+    public long get(long hash, Object key) {
+        int mask = hashes.length - 1;
+        int slot = spread(hash) & mask;
+        while (occupied[slot]) {
+            if (matches(slot, hash, key)) {
+                return counts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return The number of keys touched since the last reset
+     */
+    public int size() {
+        return touchedCount;
+    }
+
+    /**
+     * @param index An index in [0, size())
+     * @return The key of the index-th entry touched since the last reset
+     */
+    public Object keyAt(int index) {
+        return keys[touched[index]];
+    }
+
+    /**
+     * @param index An index in [0, size())
+     * @return The hash of the index-th entry touched since the last reset
+     */
+    public long hashAt(int index) {
+        return hashes[touched[index]];
+    }
+
+    /**
+     * @param index An index in [0, size())
+     * @return The counter of the index-th entry touched since the last reset
+     */
+    public long countAt(int index) {
+        return counts[touched[index]];
+    }
+
+    /**
+     * @return The number of keys held by the table, including those not touched since the last reset
+     */
+    public int capacityUsed() {
+        return occupiedCount;
+    }
+
+    /**
+     * Zero every counter touched since the last reset, keeping the keys and storage for reuse
+     */
+    public void reset() {
+        for (int i = 0; i < touchedCount; i++) {
+            int slot = touched[i];
+            counts[slot] = 0;
+            isTouched[slot] = false;
+        }
+        touchedCount = 0;
+    }
+
+    /**
+     * Remove every key that has not been touched since the last reset, keeping the touched ones and their counters
+     * The storage shrinks to what the touched keys need, so callers should only evict once the untouched keys
+     * make up a good part of the table rather than after every period
+     *
+     * @return The number of keys removed
+     */
+    public int evictUntouched() {
+        int evicted = occupiedCount - touchedCount;
+        if (evicted == 0) {
+            return 0;
+        }
+
+        long[] oldHashes = hashes;
+        Object[] oldKeys = keys;
+        long[] oldCounts = counts;
+        int[] oldTouched = touched;
+        int oldTouchedCount = touchedCount;
+
+        allocate(Math.min(oldHashes.length, capacityFor(oldTouchedCount)));
+        for (int i = 0; i < oldTouchedCount; i++) {
+            int oldSlot = oldTouched[i];
+            int slot = findOrInsert(oldHashes[oldSlot], oldKeys[oldSlot]);
+            counts[slot] = oldCounts[oldSlot];
+            markTouched(slot);
+        }
+        return evicted;
+    }
+
+    /**
+     * Remove every key from the table
+     */
+    public void clear() {
+        Arrays.fill(hashes, 0);
+        Arrays.fill(keys, null);
+        Arrays.fill(counts, 0);
+        Arrays.fill(occupied, false);
+        Arrays.fill(isTouched, false);
+        occupiedCount = 0;
+        touchedCount = 0;
+    }
+
+    /**
+     * Compute a 64-bit hash of a String
+     *
+     * @param s The String to hash
+     * @return A 64-bit FNV-1a hash of the characters of s
+     */
+    public static long hash(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        return h;
+    }
+
+    /**
+     * Combine a 64-bit hash with another value, e.g. to hash a path one component at a time
+     *
+     * @param hash The hash so far
+     * @param value The value to add to the hash
+     * @return The combined hash
+     */
+    public static long combine(long hash, long value) {
+        long h = hash * 31 + value;
+        // MurmurHash3 finalizer
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private int findOrInsert(long hash, Object key) {
+        int mask = hashes.length - 1;
+        int slot = spread(hash) & mask;
+        while (occupied[slot]) {
+            if (matches(slot, hash, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Keep the load factor at or below 0.5
+        if ((occupiedCount + 1) * 2 > hashes.length) {
+            resize();
+            return findOrInsert(hash, key);
+        }
+
+        occupied[slot] = true;
+        hashes[slot] = hash;
+        keys[slot] = key;
+        occupiedCount++;
+        return slot;
+    }
+
+    private boolean matches(int slot, long hash, Object key) {
+        if (hashes[slot] != hash) {
+            return false;
+        }
+        Object existing = keys[slot];
+        return existing == key || key != null && key.equals(existing);
+    }
+
+    private void markTouched(int slot) {
+        if (!isTouched[slot]) {
+            isTouched[slot] = true;
+            touched[touchedCount++] = slot;
+        }
+    }
+
+    private void allocate(int capacity) {
+        hashes = new long[capacity];
+        keys = new Object[capacity];
+        counts = new long[capacity];
+        occupied = new boolean[capacity];
+        isTouched = new boolean[capacity];
+        touched = new int[capacity];
+        occupiedCount = 0;
+        touchedCount = 0;
+    }
+
+    private void resize() {
+        long[] oldHashes = hashes;
+        Object[] oldKeys = keys;
+        long[] oldCounts = counts;
+        boolean[] oldOccupied = occupied;
+        boolean[] oldIsTouched = isTouched;
+        int[] oldTouched = touched;
+        int oldTouchedCount = touchedCount;
+
+        allocate(oldHashes.length * 2);
+
+        // Re-insert touched slots first so the order of touched entries is preserved
+        for (int i = 0; i < oldTouchedCount; i++) {
+            int oldSlot = oldTouched[i];
+            int slot = findOrInsert(oldHashes[oldSlot], oldKeys[oldSlot]);
+            counts[slot] = oldCounts[oldSlot];
+            markTouched(slot);
+        }
+        for (int oldSlot = 0; oldSlot < oldHashes.length; oldSlot++) {
+            if (oldOccupied[oldSlot] && !oldIsTouched[oldSlot]) {
+                int slot = findOrInsert(oldHashes[oldSlot], oldKeys[oldSlot]);
+                counts[slot] = oldCounts[oldSlot];
+            }
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+        return Integer.highestOneBit(Math.max(expectedSize, 8) - 1) << 2;
+    }
+
+    private static int spread(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
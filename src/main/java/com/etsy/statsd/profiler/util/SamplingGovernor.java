@@ -0,0 +1,114 @@
+package com.etsy.statsd.profiler.util;
+
+/**
+ * Adapts the sampling period of a profiler to stay within a CPU overhead budget
+ *
+ * The profiler is still scheduled at its base period, and the governor decides on each tick whether to take
+ * a sample, so the effective period is always a multiple of the base period.
+ * The cost of a sample is the time it took plus how late the sampling thread got to run,
+ * and it is smoothed with an exponentially weighted moving average.
+ * The period is then set so that the average cost divided by the period stays at or below the budget,
+ * which slows sampling down when e.g. the number of threads spikes and speeds it back up when the process is quiet.
+ *
+ * This class is not thread-safe
+ */
+public class SamplingGovernor {
+    // Weight given to the newest sample in the moving average of the sample cost
+    private static final double SMOOTHING = 0.2;
+
+    private final long basePeriodNanos;
+    private final double overheadBudget;
+    private final int maxStride;
+
+    private double averageCostNanos;
+    private int stride = 1;
+    private int ticksSinceSample;
+    private long expectedTickNanos;
+    private long schedulingDelayNanos;
+    private boolean started;
+
+    private long windowStartNanos;
+    private long windowCostNanos;
+
+    /**
+     * @param basePeriodNanos The period at which the profiler is scheduled
+     * @param maxPeriodNanos The longest period the governor may slow down to
+     * @param overheadBudget The fraction of one core sampling may use, e.g. 0.01 for 1%
+     */
+    public SamplingGovernor(long basePeriodNanos, long maxPeriodNanos, double overheadBudget) {
+        if (basePeriodNanos <= 0 || overheadBudget <= 0) {
+            throw new IllegalArgumentException("The base period and overhead budget must be positive");
+        }
+        this.basePeriodNanos = basePeriodNanos;
+        this.overheadBudget = overheadBudget;
+        this.maxStride = (int) Math.max(1, maxPeriodNanos / basePeriodNanos);
+    }
+
+    /**
+     * Called at the start of every scheduled tick
+     *
+     * @param nowNanos The current value of System.nanoTime()
+     * @return True if a sample should be taken on this tick, false otherwise
+     */
+    public boolean shouldSample(long nowNanos) {
+        if (!started) {
+            started = true;
+            expectedTickNanos = nowNanos;
+            windowStartNanos = nowNanos;
+        }
+
+        long delay = nowNanos - expectedTickNanos;
+        if (delay < 0 || delay > basePeriodNanos * maxStride) {
+            // The executor skipped or bunched up ticks, so start measuring from here again
+            delay = 0;
+            expectedTickNanos = nowNanos;
+        }
+        expectedTickNanos += basePeriodNanos;
+
+        if (++ticksSinceSample < stride) {
+            return false;
+        }
+
+        ticksSinceSample = 0;
+        schedulingDelayNanos = delay;
+        return true;
+    }
+
+    /**
+     * Record the cost of a sample and adjust the period
+     *
+     * @param startNanos System.nanoTime() when the sample started
+     * @param endNanos System.nanoTime() when the sample finished
+     */
+    public void recordSample(long startNanos, long endNanos) {
+        long cost = endNanos - startNanos + schedulingDelayNanos;
+        windowCostNanos += cost;
+        averageCostNanos = averageCostNanos == 0 ? cost : SMOOTHING * cost + (1 - SMOOTHING) * averageCostNanos;
+
+        double targetPeriodNanos = averageCostNanos / overheadBudget;
+        stride = (int) Math.min(maxStride, Math.max(1, Math.ceil(targetPeriodNanos / basePeriodNanos)));
+    }
+
+    /**
+     * Get the current sampling period
+     *
+     * @return The current period in nanoseconds
+     */
+    public long getPeriodNanos() {
+        return basePeriodNanos * stride;
+    }
+
+    /**
+     * Get the overhead achieved since the previous call and start a new measurement window
+     *
+     * @param nowNanos The current value of System.nanoTime()
+     * @return The fraction of one core spent sampling since the previous call
+     */
+    public double takeOverhead(long nowNanos) {
+        long elapsed = nowNanos - windowStartNanos;
+        double overhead = elapsed > 0 ? (double) windowCostNanos / elapsed : 0;
+        windowStartNanos = nowNanos;
+        windowCostNanos = 0;
+        return overhead;
+    }
+}
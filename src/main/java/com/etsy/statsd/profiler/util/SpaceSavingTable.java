@@ -0,0 +1,248 @@
+package com.etsy.statsd.profiler.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Bounded table of the heaviest keys by the Space-Saving algorithm
+ *
+ * The table holds at most capacity keys. When it is full, a new key replaces the key with the smallest count
+ * and inherits that count as its error, so the count of every key is an overestimate by at most its error.
+ * Any key whose true count is more than the total divided by the capacity is guaranteed to be in the table.
+ * Keys are compared like in {@link LongCounterTable}: a null key means the hash is the key itself.
+ *
+ * This class is not thread-safe
+ */
+public class SpaceSavingTable {
+    private final int capacity;
+
+    // Entries, indexed from 0 to size
+    private final long[] hashes;
+    private final Object[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private int size;
+    private long total;
+
+    // Min-heap of entry indexes by count, and the position of each entry in the heap
+    private final int[] heap;
+    private final int[] heapPositions;
+
+    // Open-addressing index from hash to entry index + 1, 0 for an empty slot
+    private final int[] slots;
+
+    /**
+     * @param capacity The maximum number of keys to track
+     */
+    public SpaceSavingTable(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        this.capacity = capacity;
+        hashes = new long[capacity];
+        keys = new Object[capacity];
+        counts = new long[capacity];
+        errors = new long[capacity];
+        heap = new int[capacity];
+        heapPositions = new int[capacity];
+        slots = new int[Integer.highestOneBit(capacity - 1 | 1) << 2];
+    }
+
+    /**
+     * Add to the count for a key, evicting the key with the smallest count if the table is full
+     *
+     * @param hash The 64-bit hash of the key
+     * @param key The key, used to verify hash matches, or null if the hash is the key
+     * @param inc The value to add to the count
+     */
+    public void add(long hash, Object key, long inc) {
+        total += inc;
+        int entry = find(hash, key);
+        if (entry < 0) {
+            if (size < capacity) {
+                entry = size++;
+                counts[entry] = 0;
+                errors[entry] = 0;
+                heap[entry] = entry;
+                heapPositions[entry] = entry;
+            } else {
+                // Replace the minimum, which stays at the root of the heap until its count is raised below
+                entry = heap[0];
+                removeFromIndex(entry);
+                errors[entry] = counts[entry];
+            }
+            hashes[entry] = hash;
+            keys[entry] = key;
+            addToIndex(entry);
+            siftUp(heapPositions[entry]);
+        }
+
+        counts[entry] += inc;
+        siftDown(heapPositions[entry]);
+    }
+
+    /**
+     * @return The number of keys in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The sum of every increment since the table was cleared, including those of evicted keys
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public Object keyAt(int index) {
+        return keys[index];
+    }
+
+    public long hashAt(int index) {
+        return hashes[index];
+    }
+
+    /**
+     * @param index An index in [0, size())
+     * @return The estimated count of the key, which is at most errorAt(index) more than its true count
+     */
+    public long countAt(int index) {
+        return counts[index];
+    }
+
+    /**
+     * @param index An index in [0, size())
+     * @return The largest amount by which the count of the key may be overestimated
+     */
+    public long errorAt(int index) {
+        return errors[index];
+    }
+
+    /**
+     * Get the indexes of the keys with the highest counts
+     *
+     * @param n The maximum number of keys to return
+     * @return The indexes of at most n keys, in descending order of count
+     */
+    public int[] topIndexes(int n) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(counts[b], counts[a]);
+            }
+        });
+
+        int[] top = new int[Math.min(n, size)];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = order[i];
+        }
+        return top;
+    }
+
+    /**
+     * Remove every key
+     */
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(slots, 0);
+        size = 0;
+        total = 0;
+    }
+
+    private int find(long hash, Object key) {
+        int mask = slots.length - 1;
+        int slot = spread(hash) & mask;
+        while (slots[slot] != 0) {
+            int entry = slots[slot] - 1;
+            if (hashes[entry] == hash && (key == keys[entry] || key != null && key.equals(keys[entry]))) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    private void addToIndex(int entry) {
+        int mask = slots.length - 1;
+        int slot = spread(hashes[entry]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = entry + 1;
+    }
+
+    /**
+     * Remove an entry from the index, shifting back the entries after it so that lookups never stop early
+     */
+    private void removeFromIndex(int entry) {
+        int mask = slots.length - 1;
+        int slot = spread(hashes[entry]) & mask;
+        while (slots[slot] != entry + 1) {
+            slot = (slot + 1) & mask;
+        }
+
+        int empty = slot;
+        slot = (slot + 1) & mask;
+        while (slots[slot] != 0) {
+            int home = spread(hashes[slots[slot] - 1]) & mask;
+            // Move the entry back if its home slot is not cyclically between the empty slot and its current slot
+            if (((slot - home) & mask) >= ((slot - empty) & mask)) {
+                slots[empty] = slots[slot];
+                empty = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[empty] = 0;
+    }
+
+    private void siftUp(int position) {
+        int entry = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[entry]) {
+                break;
+            }
+            moveInHeap(heap[parent], position);
+            position = parent;
+        }
+        moveInHeap(entry, position);
+    }
+
+    private void siftDown(int position) {
+        int entry = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[heap[child]] >= counts[entry]) {
+                break;
+            }
+            moveInHeap(heap[child], position);
+            position = child;
+        }
+        moveInHeap(entry, position);
+    }
+
+    private void moveInHeap(int entry, int position) {
+        heap[position] = entry;
+        heapPositions[entry] = position;
+    }
+
+    private static int spread(long hash) {
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
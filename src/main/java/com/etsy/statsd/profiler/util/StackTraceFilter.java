@@ -4,13 +4,21 @@ import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.Lists;
 
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Utility class for filtering stack traces
- * Assumes a string representation like that produced by @link{StackTraceFormatter}
+ * A stack trace is included if any of its frames is in an included package, or there are no included packages,
+ * and none of its frames is in an excluded package.
+ *
+ * Stack traces can be filtered directly as StackTraceElement[], using a trie of package prefixes over class names
+ * with the verdict for each class cached, or in a string representation like that produced by @link{StackTraceFormatter}.
+ * The StackTraceElement[] methods are not thread-safe.
  *
  * @author Andrew Johnson
  */
@@ -18,15 +26,83 @@ public class StackTraceFilter {
     public static final Pattern MATCH_EVERYTHING = Pattern.compile("^.*$");
     public static final Pattern MATCH_NOTHING = Pattern.compile("$^");
 
+    // Class verdicts, combined with bitwise or across the frames of a stack
+    public static final int NO_MATCH = 0;
+    public static final int INCLUDE_MATCH = 1;
+    public static final int EXCLUDE_MATCH = 2;
+
     private final Pattern includePattern;
     private final Pattern excludePattern;
     // This allows us to shortcut doing regex matching for performance
     private final boolean arePatternsDefault;
 
+    private final PackageTrie includePackages;
+    private final PackageTrie excludePackages;
+    private final Map<String, Integer> classVerdicts = new HashMap<>();
+
     public StackTraceFilter(List<String> includePackages, List<String> excludePackages) {
         includePattern = getPackagePattern(includePackages, MATCH_EVERYTHING);
         excludePattern = getPackagePattern(excludePackages, MATCH_NOTHING);
         arePatternsDefault = includePattern == MATCH_EVERYTHING && excludePattern == MATCH_NOTHING;
+        this.includePackages = PackageTrie.of(includePackages);
+        this.excludePackages = PackageTrie.of(excludePackages);
+    }
+
+    /**
+     * Indicate if this stack trace should be included in the filter
+     * Rejected stack traces are never formatted
+     *
+     * @param stack The stack trace to check for inclusion in the filter
+     * @return True if it should be included, false otherwise
+     */
+    public boolean includeStackTrace(StackTraceElement[] stack) {
+        if (arePatternsDefault) {
+            return true;
+        }
+
+        int verdicts = NO_MATCH;
+        for (StackTraceElement element : stack) {
+            verdicts |= getClassVerdicts(element.getClassName());
+            if ((verdicts & EXCLUDE_MATCH) != 0) {
+                return false;
+            }
+        }
+
+        return isIncluded(verdicts);
+    }
+
+    /**
+     * Get which package lists a class matches
+     * The result is cached per class name
+     *
+     * @param className The fully qualified name of the class
+     * @return INCLUDE_MATCH and/or EXCLUDE_MATCH combined with bitwise or, or NO_MATCH
+     */
+    public int getClassVerdicts(String className) {
+        Integer verdicts = classVerdicts.get(className);
+        if (verdicts == null) {
+            int computed = NO_MATCH;
+            if (includePackages.matchesPrefixOf(className)) {
+                computed |= INCLUDE_MATCH;
+            }
+            if (excludePackages.matchesPrefixOf(className)) {
+                computed |= EXCLUDE_MATCH;
+            }
+            verdicts = computed;
+            classVerdicts.put(className, verdicts);
+        }
+
+        return verdicts;
+    }
+
+    /**
+     * Indicate if a stack trace should be included given the combined verdicts of its classes
+     *
+     * @param verdicts The verdicts of every class in the stack trace, combined with bitwise or
+     * @return True if it should be included, false otherwise
+     */
+    public boolean isIncluded(int verdicts) {
+        return (includePackages.isEmpty() || (verdicts & INCLUDE_MATCH) != 0) && (verdicts & EXCLUDE_MATCH) == 0;
     }
 
     /**
@@ -73,6 +149,77 @@ public class StackTraceFilter {
         return matcher.matches();
     }
 
+    /**
+     * A trie of package prefixes over the characters of class names
+     */
+    private static final class PackageTrie {
+        private static final char[] NO_CHARS = new char[0];
+        private static final PackageTrie[] NO_CHILDREN = new PackageTrie[0];
+
+        // Children are kept sorted by character so they can be binary searched
+        private char[] chars = NO_CHARS;
+        private PackageTrie[] children = NO_CHILDREN;
+        private boolean terminal;
+
+        static PackageTrie of(List<String> packages) {
+            PackageTrie root = new PackageTrie();
+            if (packages != null) {
+                for (String p : packages) {
+                    root.add(p);
+                }
+            }
+            return root;
+        }
+
+        boolean isEmpty() {
+            return !terminal && chars.length == 0;
+        }
+
+        /**
+         * Indicate if any package in the trie is a prefix of the class name
+         *
+         * @param className The class name to check
+         * @return True if a package is a prefix of the class name, false otherwise
+         */
+        boolean matchesPrefixOf(String className) {
+            PackageTrie node = this;
+            for (int i = 0; i < className.length(); i++) {
+                if (node.terminal) {
+                    return true;
+                }
+                int index = Arrays.binarySearch(node.chars, className.charAt(i));
+                if (index < 0) {
+                    return false;
+                }
+                node = node.children[index];
+            }
+            return node.terminal;
+        }
+
+        private void add(String packageName) {
+            PackageTrie node = this;
+            for (int i = 0; i < packageName.length(); i++) {
+                char c = packageName.charAt(i);
+                int index = Arrays.binarySearch(node.chars, c);
+                if (index < 0) {
+                    index = -index - 1;
+                    char[] chars = new char[node.chars.length + 1];
+                    PackageTrie[] children = new PackageTrie[chars.length];
+                    System.arraycopy(node.chars, 0, chars, 0, index);
+                    System.arraycopy(node.children, 0, children, 0, index);
+                    System.arraycopy(node.chars, index, chars, index + 1, node.chars.length - index);
+                    System.arraycopy(node.children, index, children, index + 1, node.children.length - index);
+                    chars[index] = c;
+                    children[index] = new PackageTrie();
+                    node.chars = chars;
+                    node.children = children;
+                }
+                node = node.children[index];
+            }
+            node.terminal = true;
+        }
+    }
+
     /**
      * Construct a Pattern that matches any of the given packages
      *
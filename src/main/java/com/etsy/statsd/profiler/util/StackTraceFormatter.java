@@ -21,8 +21,34 @@ public final class StackTraceFormatter {
 	 * @return A String representing the given StackTraceElement
 	 */
 	public static String formatStackTraceElement(StackTraceElement element) {
-		return String.format("%s-%s-%d", element.getClassName().replace(".", "-"),
-				element.getMethodName(), element.getLineNumber());
+		return formatStackTraceElement(element.getClassName(), element.getMethodName(),
+				element.getLineNumber());
+	}
+
+	/**
+	 * Formats the components of a stack frame as a String
+	 *
+	 * @param className The fully qualified name of the class
+	 * @param methodName The name of the method
+	 * @param lineNumber The line number
+	 * @return A String representing the given frame
+	 */
+	public static String formatStackTraceElement(String className, String methodName,
+			int lineNumber) {
+		return String.format("%s-%s-%d", className.replace(".", "-"), methodName, lineNumber);
+	}
+
+	/**
+	 * Formats the components of a stack frame as a label for a flame graph, e.g. com.etsy.Foo.bar:10
+	 *
+	 * @param className The fully qualified name of the class
+	 * @param methodName The name of the method
+	 * @param lineNumber The line number, or a negative value if it is not known
+	 * @return A label for the given frame
+	 */
+	public static String formatFrameLabel(String className, String methodName, int lineNumber) {
+		String label = className + "." + methodName;
+		return lineNumber >= 0 ? label + ":" + lineNumber : label;
 	}
 
 	/**
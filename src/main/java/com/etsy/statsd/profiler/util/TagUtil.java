@@ -39,6 +39,23 @@ public final class TagUtil {
 	private TagUtil() {
 	}
 
+	/**
+	 * Adds a tag to a metric prefix that ends with the tag separator
+	 *
+	 * @param prefix The metric prefix, e.g. cpu.trace followed by TAG_SEPARATOR
+	 * @param tag The name of the tag
+	 * @param value The value of the tag
+	 * @return The prefix with the tag inserted before the tag separator
+	 */
+	public static String addTag(String prefix, String tag, String value) {
+		if (!prefix.endsWith(TAG_SEPARATOR)) {
+			throw new IllegalArgumentException("Prefix does not end with the tag separator: " + prefix);
+		}
+
+		return prefix.substring(0, prefix.length() - TAG_SEPARATOR.length()) + "," + tag + "=" + value
+				+ TAG_SEPARATOR;
+	}
+
 	public static Map<String, String> getGlobalTags(Map<String, String> tags) {
 		// Add the jvm name, pid, hostname as tags to help identify different processes
 		final String jvmName = ManagementFactory.getRuntimeMXBean().getName();
@@ -0,0 +1,127 @@
+package com.etsy.statsd.profiler.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Tracks how much CPU time threads have used between calls
+ *
+ * Uses the bulk com.sun.management.ThreadMXBean#getThreadCpuTime(long[]) where it exists, and falls back to
+ * one ThreadMXBean#getThreadCpuTime(long) call per thread otherwise
+ * Only create a timer after checking {@link #isSupported(ThreadMXBean)}
+ *
+ * This class is not thread-safe
+ */
+public class ThreadCpuTimer {
+    public static final long UNKNOWN = -1;
+
+    // How many dead threads may be remembered before the table of previous CPU times is cleared
+    private static final int MAX_STALE_THREADS = 1024;
+
+    private final ThreadMXBean threadMXBean;
+    private final com.sun.management.ThreadMXBean bulkThreadMXBean;
+    private final LongCounterTable lastCpuTimes;
+    private long[] cpuTimes = new long[0];
+    private long[] deltas = new long[0];
+
+    public ThreadCpuTimer() {
+        this(ManagementFactory.getThreadMXBean());
+    }
+
+    /**
+     * @param threadMXBean The ThreadMXBean to read CPU times from, which must support thread CPU time
+     * @throws UnsupportedOperationException If the ThreadMXBean does not support thread CPU time
+     */
+    public ThreadCpuTimer(ThreadMXBean threadMXBean) {
+        if (!threadMXBean.isThreadCpuTimeSupported()) {
+            throw new UnsupportedOperationException("This JVM does not support measuring thread CPU time");
+        }
+        if (!threadMXBean.isThreadCpuTimeEnabled()) {
+            threadMXBean.setThreadCpuTimeEnabled(true);
+        }
+
+        this.threadMXBean = threadMXBean;
+        this.bulkThreadMXBean = getBulkThreadMXBean(threadMXBean);
+        lastCpuTimes = new LongCounterTable();
+    }
+
+    /**
+     * Indicate if this JVM can measure the CPU time of other threads
+     *
+     * @return True if a ThreadCpuTimer can be created, false otherwise
+     */
+    public static boolean isSupported() {
+        return isSupported(ManagementFactory.getThreadMXBean());
+    }
+
+    /**
+     * @param threadMXBean The ThreadMXBean to check
+     * @return True if a ThreadCpuTimer can be created for the ThreadMXBean, false otherwise
+     */
+    public static boolean isSupported(ThreadMXBean threadMXBean) {
+        return threadMXBean.isThreadCpuTimeSupported();
+    }
+
+    /**
+     * Get the CPU time each thread has used since the previous call
+     *
+     * @param threadIds The ids of the threads to measure
+     * @return The CPU time in nanoseconds used by each thread since the previous call, at the same index as its id.
+     *         {@link #UNKNOWN} if the thread was not measured by the previous call or is no longer alive.
+     *         The array is reused by the next call.
+     */
+    public long[] update(long[] threadIds) {
+        if (deltas.length < threadIds.length) {
+            deltas = new long[threadIds.length];
+        }
+        long[] times = getCpuTimes(threadIds);
+
+        if (lastCpuTimes.capacityUsed() > threadIds.length + MAX_STALE_THREADS) {
+            lastCpuTimes.clear();
+        }
+
+        for (int i = 0; i < threadIds.length; i++) {
+            if (times[i] < 0) {
+                deltas[i] = UNKNOWN;
+                continue;
+            }
+            // Times are stored plus one so that 0 means the thread was not measured before
+            long previous = lastCpuTimes.put(threadIds[i], null, times[i] + 1);
+            deltas[i] = previous == 0 ? UNKNOWN : times[i] - (previous - 1);
+        }
+
+        return deltas;
+    }
+
+    private long[] getCpuTimes(long[] threadIds) {
+        if (bulkThreadMXBean != null) {
+            return bulkThreadMXBean.getThreadCpuTime(threadIds);
+        }
+
+        if (cpuTimes.length < threadIds.length) {
+            cpuTimes = new long[threadIds.length];
+        }
+        for (int i = 0; i < threadIds.length; i++) {
+            cpuTimes[i] = threadMXBean.getThreadCpuTime(threadIds[i]);
+        }
+        return cpuTimes;
+    }
+
+    /**
+     * Get the HotSpot extension of the ThreadMXBean, which supports bulk queries
+     *
+     * @param threadMXBean The platform ThreadMXBean
+     * @return The bean as a com.sun.management.ThreadMXBean, or null if that interface is not available
+     */
+    static com.sun.management.ThreadMXBean getBulkThreadMXBean(ThreadMXBean threadMXBean) {
+        try {
+            if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+                return (com.sun.management.ThreadMXBean) threadMXBean;
+            }
+        } catch (LinkageError e) {
+            // Not a HotSpot-derived JVM
+        }
+
+        return null;
+    }
+}
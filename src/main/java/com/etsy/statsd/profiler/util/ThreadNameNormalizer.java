@@ -0,0 +1,157 @@
+package com.etsy.statsd.profiler.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes thread names into pool names, so that metrics from the threads of a pool can be aggregated
+ *
+ * Rules are given as regex->replacement, e.g. hystrix-(\w+)-\d+->hystrix-$1, and compiled once.
+ * The first rule whose regex is found in a thread name replaces every match in it.
+ * If no rule matches, runs of digits are collapsed, e.g. pool-3-thread-17 becomes pool-N-thread-N.
+ * Characters that are not valid in a tag value, or that StatsD would read as a separator such as . and :, are then
+ * replaced. Normalized names are cached per thread id.
+ *
+ * This class is not thread-safe
+ */
+public class ThreadNameNormalizer {
+    public static final String UNKNOWN = "unknown";
+    public static final String RULES_ARG = "threadNameRules";
+    public static final String RULE_SEPARATOR = "->";
+
+    // How many threads may be cached before the cache is cleared
+    private static final int MAX_CACHED_THREADS = 4096;
+
+    private static final Pattern DIGITS = Pattern.compile("[0-9]+");
+    private static final Pattern INVALID_TAG_CHARACTERS = Pattern.compile("[ ,=|]");
+    private static final Pattern INVALID_THREAD_TAG_CHARACTERS = Pattern.compile("[ ,=|:.]");
+
+    private final Pattern[] patterns;
+    private final String[] replacements;
+
+    // Maps thread id to index + 1 in names and pools
+    private final LongCounterTable index = new LongCounterTable();
+    private final List<String> names = new ArrayList<>();
+    private final List<String> pools = new ArrayList<>();
+
+    public ThreadNameNormalizer() {
+        this(new String[0]);
+    }
+
+    /**
+     * @param rules The normalization rules, in regex->replacement form
+     */
+    public ThreadNameNormalizer(String[] rules) {
+        patterns = new Pattern[rules.length];
+        replacements = new String[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            int separator = rules[i].lastIndexOf(RULE_SEPARATOR);
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Thread name rules must be in regex" + RULE_SEPARATOR
+                        + "replacement form: " + rules[i]);
+            }
+            patterns[i] = Pattern.compile(rules[i].substring(0, separator));
+            replacements[i] = rules[i].substring(separator + RULE_SEPARATOR.length());
+        }
+    }
+
+    /**
+     * Get the pool name for a thread
+     *
+     * @param threadId The id of the thread
+     * @param threadName The current name of the thread
+     * @return The normalized name
+     */
+    public String normalize(long threadId, String threadName) {
+        if (threadName == null) {
+            return UNKNOWN;
+        }
+
+        long i = index.get(threadId, null);
+        if (i > 0) {
+            int position = (int) i - 1;
+            // Threads may be renamed, in which case the pool is recomputed
+            if (names.get(position).equals(threadName)) {
+                return pools.get(position);
+            }
+            String pool = normalize(threadName);
+            names.set(position, threadName);
+            pools.set(position, pool);
+            return pool;
+        }
+
+        if (index.capacityUsed() >= MAX_CACHED_THREADS) {
+            index.clear();
+            names.clear();
+            pools.clear();
+        }
+
+        String pool = normalize(threadName);
+        names.add(threadName);
+        pools.add(pool);
+        index.put(threadId, null, names.size());
+        return pool;
+    }
+
+    /**
+     * Get the cached pool name for a thread, without knowing its name
+     *
+     * @param threadId The id of the thread
+     * @return The cached pool name, or null if the thread has not been normalized before
+     */
+    public String getCachedPool(long threadId) {
+        long i = index.get(threadId, null);
+        return i > 0 ? pools.get((int) i - 1) : null;
+    }
+
+    /**
+     * Get the cached name of a thread
+     *
+     * @param threadId The id of the thread
+     * @return The name the thread was last normalized with, or null if it has not been normalized before
+     */
+    public String getCachedName(long threadId) {
+        long i = index.get(threadId, null);
+        return i > 0 ? names.get((int) i - 1) : null;
+    }
+
+    /**
+     * Normalize a thread name without caching it
+     *
+     * @param threadName The name of the thread
+     * @return The normalized name
+     */
+    public String normalize(String threadName) {
+        for (int i = 0; i < patterns.length; i++) {
+            Matcher matcher = patterns[i].matcher(threadName);
+            if (matcher.find()) {
+                return toThreadTagValue(matcher.replaceAll(replacements[i]));
+            }
+        }
+
+        return toThreadTagValue(DIGITS.matcher(threadName).replaceAll("N"));
+    }
+
+    /**
+     * Replace the characters that cannot appear in a tag value
+     *
+     * @param value The value to sanitize
+     * @return The value with separators replaced by underscores
+     */
+    public static String toTagValue(String value) {
+        return INVALID_TAG_CHARACTERS.matcher(value).replaceAll("_");
+    }
+
+    /**
+     * Replace the characters that cannot appear in a tag value, and the . and : that StatsD reads as separators
+     * Unlike class names, thread names are free-form, so they are sanitized for every backend
+     *
+     * @param threadName The thread or pool name to sanitize
+     * @return The name with separators replaced by underscores
+     */
+    public static String toThreadTagValue(String threadName) {
+        return INVALID_THREAD_TAG_CHARACTERS.matcher(threadName).replaceAll("_");
+    }
+}
@@ -0,0 +1,97 @@
+package com.etsy.statsd.profiler.util;
+
+import com.etsy.statsd.profiler.worker.ProfilerThreadFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the stacks of a cached set of threads with a bounded stack depth
+ *
+ * Unlike {@link ThreadDumper#getAllThreads(boolean, boolean)} this does not dump every thread on every call.
+ * The ids of the threads to sample are refreshed at most once per refresh interval, and threads owned by
+ * the profiler are left out by id, or by name for those the {@link ProfilerThreadFactory} does not know. Only the innermost maxDepth frames of each stack are captured,
+ * which bounds the time the JVM spends at the safepoint for deep stacks.
+ *
+ * This class is not thread-safe
+ */
+public class ThreadSampler {
+    public static final long DEFAULT_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ThreadMXBean threadMXBean;
+    private final int maxDepth;
+    private final long refreshIntervalNanos;
+
+    private long[] threadIds = new long[0];
+    private long lastRefresh;
+    private boolean refreshed;
+
+    public ThreadSampler(int maxDepth) {
+        this(ManagementFactory.getThreadMXBean(), maxDepth, DEFAULT_REFRESH_INTERVAL_NANOS);
+    }
+
+    /**
+     * @param threadMXBean The ThreadMXBean to sample from
+     * @param maxDepth The maximum number of frames to capture for each thread
+     * @param refreshIntervalNanos How often to refresh the set of threads to sample
+     */
+    public ThreadSampler(ThreadMXBean threadMXBean, int maxDepth, long refreshIntervalNanos) {
+        this.threadMXBean = threadMXBean;
+        this.maxDepth = maxDepth;
+        this.refreshIntervalNanos = refreshIntervalNanos;
+    }
+
+    /**
+     * Sample the candidate threads
+     * Threads that have died since the candidates were refreshed are returned as null
+     *
+     * @return A ThreadInfo for each candidate thread, or null if the thread is no longer alive
+     */
+    public ThreadInfo[] sample() {
+        long now = System.nanoTime();
+        if (!refreshed || now - lastRefresh >= refreshIntervalNanos) {
+            refreshThreadIds();
+            lastRefresh = now;
+            refreshed = true;
+        }
+
+        return threadMXBean.getThreadInfo(threadIds, maxDepth);
+    }
+
+    /**
+     * Get the ids of the threads that are currently being sampled
+     *
+     * @return The ids of the candidate threads
+     */
+    public long[] getThreadIds() {
+        return threadIds;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Refresh the set of candidate threads, excluding those owned by the profiler
+     */
+    private void refreshThreadIds() {
+        long[] allThreadIds = threadMXBean.getAllThreadIds();
+        // Only the names are needed, so no stacks are captured
+        ThreadInfo[] infos = threadMXBean.getThreadInfo(allThreadIds, 0);
+        long currentThreadId = Thread.currentThread().getId();
+        int count = 0;
+        for (int i = 0; i < allThreadIds.length; i++) {
+            long id = allThreadIds[i];
+            // threads that died since their ids were listed are null
+            if (id != currentThreadId && infos[i] != null
+                    && !ProfilerThreadFactory.isProfilerThread(id, infos[i].getThreadName())) {
+                allThreadIds[count++] = id;
+            }
+        }
+
+        threadIds = count == allThreadIds.length ? allThreadIds : Arrays.copyOf(allThreadIds, count);
+    }
+}
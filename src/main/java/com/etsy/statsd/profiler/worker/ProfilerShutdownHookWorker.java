@@ -1,6 +1,7 @@
 package com.etsy.statsd.profiler.worker;
 
 import com.etsy.statsd.profiler.Profiler;
+import com.etsy.statsd.profiler.reporter.Reporter;
 
 import java.util.Collection;
 import java.util.concurrent.atomic.AtomicReference;
@@ -12,9 +13,20 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class ProfilerShutdownHookWorker implements Runnable {
     private final Collection<Profiler> profilers;
+    private final Reporter<?> reporter;
     private final AtomicReference<Boolean> isRunning;
     public ProfilerShutdownHookWorker(Collection<Profiler> profilers, AtomicReference<Boolean> isRunning) {
+        this(profilers, null, isRunning);
+    }
+
+    /**
+     * @param profilers The profilers to flush
+     * @param reporter The reporter to close once the profilers are flushed, or null
+     * @param isRunning Set to false once everything is flushed
+     */
+    public ProfilerShutdownHookWorker(Collection<Profiler> profilers, Reporter<?> reporter, AtomicReference<Boolean> isRunning) {
         this.profilers = profilers;
+        this.reporter = reporter;
         this.isRunning = isRunning;
     }
 
@@ -23,6 +35,9 @@ public class ProfilerShutdownHookWorker implements Runnable {
         for (Profiler p : profilers) {
             p.flushData();
         }
+        if (reporter != null) {
+            reporter.close();
+        }
 
         isRunning.set(false);
     }
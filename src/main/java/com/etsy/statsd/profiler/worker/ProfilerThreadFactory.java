@@ -1,5 +1,8 @@
 package com.etsy.statsd.profiler.worker;
 
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 
@@ -7,12 +10,16 @@ import java.util.concurrent.ThreadFactory;
  * ThreadFactory for the profiler threads
  * This factory prefixes the thread name with 'statsd-jvm-profiler'
  * This allows the profilers to identify other profiler threads
+ * The ids of the live threads it creates are also recorded so they can be identified without comparing names
+ * Profiler threads it does not create, such as the threads delivering JFR events, can be registered by id too
  *
  * @author Andrew Johnson
  */
 public class ProfilerThreadFactory implements ThreadFactory {
     public static final String NAME_PREFIX = "statsd-jvm-profiler";
 
+    private static final Set<Long> PROFILER_THREAD_IDS = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
     private final ThreadFactory defaultThreadFactory = Executors.defaultThreadFactory();
 
     /**
@@ -22,12 +29,61 @@ public class ProfilerThreadFactory implements ThreadFactory {
      *         create a thread is rejected
      */
     @Override
-    public Thread newThread(Runnable r) {
-        Thread t = defaultThreadFactory.newThread(r);
+    public Thread newThread(final Runnable r) {
+        Thread t = defaultThreadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    r.run();
+                } finally {
+                    // Thread ids may be reused once the thread has exited
+                    unregister(Thread.currentThread().getId());
+                }
+            }
+        });
         if (t != null) {
             t.setName(String.format("%s-%s", NAME_PREFIX, t.getName()));
+            register(t.getId());
         }
 
         return t;
     }
+
+    /**
+     * Indicate if a thread was created by a ProfilerThreadFactory or registered as a profiler thread
+     *
+     * @param threadId The id of the thread
+     * @return True if the thread is owned by the profiler, false otherwise
+     */
+    public static boolean isProfilerThread(long threadId) {
+        return PROFILER_THREAD_IDS.contains(threadId);
+    }
+
+    /**
+     * Indicate if a thread is owned by the profiler, by id or else by its name starting with 'statsd-jvm-profiler'
+     *
+     * @param threadId The id of the thread
+     * @param threadName The name of the thread, or null if it is not known
+     * @return True if the thread is owned by the profiler, false otherwise
+     */
+    public static boolean isProfilerThread(long threadId, String threadName) {
+        return PROFILER_THREAD_IDS.contains(threadId) || threadName != null && threadName.startsWith(NAME_PREFIX);
+    }
+
+    /**
+     * Record a thread the factory did not create as a profiler thread
+     * It must be unregistered once it exits, as thread ids may be reused
+     *
+     * @param threadId The id of the thread
+     */
+    public static void register(long threadId) {
+        PROFILER_THREAD_IDS.add(threadId);
+    }
+
+    /**
+     * @param threadId The id of a thread that is no longer a profiler thread
+     */
+    public static void unregister(long threadId) {
+        PROFILER_THREAD_IDS.remove(threadId);
+    }
 }
@@ -3,8 +3,10 @@ package com.etsy.statsd.profiler;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +18,9 @@ import org.junit.rules.ExpectedException;
 
 import com.etsy.statsd.profiler.profilers.CPUTracingProfiler;
 import com.etsy.statsd.profiler.profilers.MemoryProfiler;
+import com.etsy.statsd.profiler.reporter.CompositeReporter;
+import com.etsy.statsd.profiler.reporter.InfluxDBReporter;
+import com.etsy.statsd.profiler.reporter.PrometheusReporter;
 import com.etsy.statsd.profiler.reporter.StatsDReporter;
 
 public class ArgumentsTest {
@@ -67,6 +72,20 @@ public class ArgumentsTest {
 		Arguments.parseArgs(args);
 	}
 
+	@Test
+	public void testMultipleReporters() {
+		String args = "server=localhost,port=8125,reporter=StatsDReporter:InfluxDBReporter,InfluxDBReporter-port=8086";
+		Arguments arguments = Arguments.parseArgs(args);
+
+		assertEquals(CompositeReporter.class, arguments.reporter);
+		assertEquals(Arrays.asList(StatsDReporter.class, InfluxDBReporter.class), arguments.reporters);
+		assertEquals(8125, arguments.port);
+		Arguments influxArguments = arguments.forComponent("InfluxDBReporter");
+		assertEquals(8086, influxArguments.port);
+		assertEquals("localhost", influxArguments.server);
+		assertEquals(8125, arguments.forComponent("StatsDReporter").port);
+	}
+
 	@Test
 	public void testNoOptionalArguments() {
 		String args = "server=localhost,port=8125";
@@ -169,4 +188,27 @@ public class ArgumentsTest {
 
 		assertFalse(arguments.httpServerEnabled);
 	}
+
+	@Test
+	public void testPrometheusReporterNeedsNoServer() {
+		String args = "reporter=PrometheusReporter";
+		Arguments arguments = Arguments.parseArgs(args);
+
+		assertEquals(PrometheusReporter.class, arguments.reporter);
+		assertNull(arguments.server);
+	}
+
+	@Test
+	public void testLocalReportersNeedNoServer() {
+		String args = "reporter=PrometheusReporter:FoldedStackReporter";
+		Arguments arguments = Arguments.parseArgs(args);
+
+		assertEquals(CompositeReporter.class, arguments.reporter);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testPushReporterWithPrometheusNeedsServer() {
+		String args = "reporter=PrometheusReporter:StatsDReporter";
+		Arguments.parseArgs(args);
+	}
 }
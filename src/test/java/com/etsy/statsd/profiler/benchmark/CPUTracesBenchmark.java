@@ -0,0 +1,161 @@
+package com.etsy.statsd.profiler.benchmark;
+
+import com.etsy.statsd.profiler.util.CPUTraces;
+import com.etsy.statsd.profiler.util.LongCounterTable;
+import com.etsy.statsd.profiler.util.MapUtil;
+import com.etsy.statsd.profiler.util.StackTraceFormatter;
+import com.etsy.statsd.profiler.util.TagUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of one CPUTracingProfiler tick between the String/HashMap path used by
+ * MapUtil and the call tree and LongCounterTable path used by CPUTraces
+ *
+ * Each benchmark invocation records one sample for every thread and flushes every flushInterval ticks,
+ * the same way CPUTracingProfiler does. Run with -prof gc to compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CPUTracesBenchmark {
+    private static final String PREFIX = "cpu.trace" + TagUtil.TAG_SEPARATOR;
+
+    @Param({"400"})
+    public int threads;
+
+    @Param({"50"})
+    public int distinctStacks;
+
+    @Param({"40"})
+    public int depth;
+
+    @Param({"100"})
+    public int flushInterval;
+
+    private StackTraceElement[][] stacks;
+    private String[] keys;
+    private long[] hashes;
+    private int ticks;
+
+    private Map<String, Number> legacyTraces;
+    private CPUTraces traces;
+    private LongCounterTable table;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        StackTraceElement[][] distinct = new StackTraceElement[distinctStacks][];
+        for (int i = 0; i < distinctStacks; i++) {
+            distinct[i] = new StackTraceElement[depth];
+            for (int j = 0; j < depth; j++) {
+                distinct[i][j] = new StackTraceElement("com.etsy.benchmark.Class" + random.nextInt(depth * 2),
+                        "method" + random.nextInt(10), "Class.java", random.nextInt(500));
+            }
+        }
+
+        stacks = new StackTraceElement[threads][];
+        keys = new String[threads];
+        hashes = new long[threads];
+        for (int i = 0; i < threads; i++) {
+            stacks[i] = distinct[random.nextInt(distinctStacks)];
+            keys[i] = PREFIX + StackTraceFormatter.formatStackTrace(stacks[i]);
+            hashes[i] = LongCounterTable.hash(keys[i]);
+        }
+
+        legacyTraces = new HashMap<>();
+        traces = new CPUTraces();
+        table = new LongCounterTable();
+    }
+
+    /**
+     * The original sampling path: format every stack and count it in a HashMap through MapUtil
+     */
+    @Benchmark
+    public Object formatAndMapUtil() {
+        for (StackTraceElement[] stack : stacks) {
+            String traceKey = "cpu.trace" + TagUtil.TAG_SEPARATOR_SB + StackTraceFormatter.formatStackTrace(stack);
+            MapUtil.setOrIncrementMap(legacyTraces, traceKey, 1);
+        }
+
+        if (++ticks == flushInterval) {
+            ticks = 0;
+            Map<String, Number> result = legacyTraces;
+            legacyTraces = new HashMap<>();
+            return result;
+        }
+        return legacyTraces;
+    }
+
+    /**
+     * The current sampling path: intern the stack in the call tree and count it in a LongCounterTable
+     */
+    @Benchmark
+    public Object callTreeAndCounterTable() {
+        for (StackTraceElement[] stack : stacks) {
+            traces.increment(PREFIX, stack, 1);
+        }
+
+        if (++ticks == flushInterval) {
+            ticks = 0;
+            return traces.getDataToFlush();
+        }
+        return traces;
+    }
+
+    /**
+     * Counting already formatted keys through MapUtil, isolating the cost of boxing and rehashing
+     */
+    @Benchmark
+    public Object preformattedMapUtil() {
+        for (String key : keys) {
+            MapUtil.setOrIncrementMap(legacyTraces, key, 1);
+        }
+
+        if (++ticks == flushInterval) {
+            ticks = 0;
+            legacyTraces = new HashMap<>();
+        }
+        return legacyTraces;
+    }
+
+    /**
+     * Counting already formatted keys in a LongCounterTable
+     */
+    @Benchmark
+    public Object preformattedCounterTable() {
+        for (int i = 0; i < keys.length; i++) {
+            table.add(hashes[i], keys[i], 1);
+        }
+
+        if (++ticks == flushInterval) {
+            ticks = 0;
+            table.reset();
+        }
+        return table;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CPUTracesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,138 @@
+package com.etsy.statsd.profiler.benchmark;
+
+import com.etsy.statsd.profiler.reporter.DatagramStatsDReporter;
+import com.etsy.statsd.profiler.reporter.StatsDReporter;
+import com.etsy.statsd.profiler.util.MockArguments;
+import com.etsy.statsd.profiler.util.TagUtil;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares sending a flush of CPU trace gauges with the StatsDReporter, which sends one datagram per gauge,
+ * and the DatagramStatsDReporter, which packs gauges into MTU-sized datagrams
+ *
+ * The gauges are sent to a stand-in StatsD server on the loopback interface, which counts the packets it receives.
+ * The packets counter is reported per second next to the throughput. Run with -prof gc to compare allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsDReporterBenchmark {
+    private static final AtomicLong RECEIVED = new AtomicLong();
+
+    @Param({"1000"})
+    public int gauges;
+
+    private DatagramSocket server;
+    private Thread receiver;
+
+    private Map<String, Number> traces;
+    private StatsDReporter statsDReporter;
+    private DatagramStatsDReporter datagramReporter;
+
+    /**
+     * Packets received by the stand-in server during the iteration
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Packets {
+        public long packets;
+        private long start;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            start = RECEIVED.get();
+            packets = 0;
+        }
+
+        void update() {
+            packets = RECEIVED.get() - start;
+        }
+    }
+
+    @Setup
+    public void setup() throws SocketException {
+        server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        server.setReceiveBufferSize(4 * 1024 * 1024);
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+                try {
+                    while (true) {
+                        server.receive(packet);
+                        RECEIVED.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    // The socket was closed
+                }
+            }
+        });
+        receiver.setDaemon(true);
+        receiver.start();
+
+        traces = new LinkedHashMap<>();
+        for (int i = 0; i < gauges; i++) {
+            traces.put("cpu.trace" + TagUtil.TAG_SEPARATOR + "com-etsy-benchmark-Class" + i + "-method-" + i, (long) i);
+        }
+
+        statsDReporter = new StatsDReporter(MockArguments.createArgs("127.0.0.1", server.getLocalPort(), "benchmark", null));
+        datagramReporter = new DatagramStatsDReporter(MockArguments.createArgs("127.0.0.1", server.getLocalPort(), "benchmark", null));
+    }
+
+    @TearDown
+    public void tearDown() {
+        datagramReporter.close();
+        server.close();
+    }
+
+    /**
+     * One datagram per gauge through the NonBlockingStatsDClient
+     */
+    @Benchmark
+    public void statsDClient(Packets packets) {
+        statsDReporter.recordGaugeValues(traces);
+        packets.update();
+    }
+
+    /**
+     * Gauges encoded into a reused buffer and packed into MTU-sized datagrams
+     */
+    @Benchmark
+    public void packedDatagrams(Packets packets) {
+        datagramReporter.recordGaugeValues(traces);
+        packets.update();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StatsDReporterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,63 @@
+package com.etsy.statsd.profiler.profilers;
+
+import com.etsy.statsd.profiler.reporter.MockReporter;
+import com.etsy.statsd.profiler.util.MockArguments;
+import com.etsy.statsd.profiler.util.TagUtil;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class AllocationProfilerTest {
+    @Test
+    public void testPoolAndTopThreadRates() throws InterruptedException {
+        Assume.assumeNotNull(AllocationProfiler.getAllocationMXBean(ManagementFactory.getThreadMXBean()));
+
+        MockReporter reporter = new MockReporter();
+        AllocationProfiler profiler = new AllocationProfiler(reporter,
+                MockArguments.createArgs("localhost", 8888, "prefix", Collections.singletonMap("allocationTopThreads", "1")));
+
+        final CountDownLatch allocate = new CountDownLatch(1);
+        final CountDownLatch allocated = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    allocate.await();
+                    byte[][] garbage = new byte[64][];
+                    for (int i = 0; i < garbage.length; i++) {
+                        garbage[i] = new byte[1024 * 1024];
+                    }
+                    allocated.countDown();
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "alloc-test-7");
+        thread.start();
+
+        try {
+            profiler.profile();
+            allocate.countDown();
+            allocated.await();
+            Thread.sleep(10);
+            profiler.profile();
+        } finally {
+            done.countDown();
+            thread.join();
+        }
+
+        Number poolRate = reporter.getOutput().get(AllocationProfiler.POOL_PREFIX + "alloc-test-N" + TagUtil.TAG_SEPARATOR + AllocationProfiler.RATE);
+        assertNotNull(poolRate);
+        assertTrue(poolRate.longValue() > 0);
+        assertNotNull(reporter.getOutput().get(AllocationProfiler.THREAD_PREFIX + "alloc-test-7" + TagUtil.TAG_SEPARATOR + AllocationProfiler.RATE));
+        assertNotNull(reporter.getOutput().get(AllocationProfiler.TOTAL_METRIC));
+    }
+}
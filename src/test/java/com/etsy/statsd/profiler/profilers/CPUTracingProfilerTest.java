@@ -0,0 +1,82 @@
+package com.etsy.statsd.profiler.profilers;
+
+import com.etsy.statsd.profiler.reporter.MockReporter;
+import com.etsy.statsd.profiler.util.MockArguments;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CPUTracingProfilerTest {
+    private static volatile boolean spinning = true;
+
+    @Test
+    public void testSlowReporterDoesNotBlockSampling() throws InterruptedException {
+        final CountDownLatch reporting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        MockReporter reporter = new MockReporter() {
+            @Override
+            public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+                reporting.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.recordGaugeValues(gauges);
+            }
+        };
+        // A one second period makes every call to profile() a reporting tick
+        CPUTracingProfiler profiler = new CPUTracingProfiler(reporter, MockArguments.createArgs("localhost", 8888, "prefix",
+                Collections.singletonMap("CPUTracingProfiler-period", "1000")));
+
+        Thread spinner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (spinning) {
+                    Thread.yield();
+                }
+            }
+        });
+        spinner.start();
+        try {
+            while (!reporting.await(10, TimeUnit.MILLISECONDS)) {
+                profiler.profile();
+            }
+
+            // The flush thread is stuck in the reporter, but sampling carries on
+            long start = System.nanoTime();
+            for (int i = 0; i < 5; i++) {
+                profiler.profile();
+            }
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        } finally {
+            release.countDown();
+            spinning = false;
+            spinner.join();
+        }
+
+        profiler.flushData();
+        boolean foundTrace = false;
+        for (String key : reporter.getOutput().keySet()) {
+            foundTrace |= key.startsWith("cpu.trace");
+        }
+        assertTrue(foundTrace);
+    }
+
+    @Test
+    public void testFlameGraphOnlyWithHttpServer() {
+        CPUTracingProfiler profiler = new CPUTracingProfiler(new MockReporter(), MockArguments.BASIC);
+        assertNotNull(profiler.getFlameGraph());
+
+        profiler = new CPUTracingProfiler(new MockReporter(), MockArguments.createArgs("localhost", 8888, "prefix",
+                Collections.singletonMap("httpServerEnabled", "false")));
+        assertNull(profiler.getFlameGraph());
+    }
+}
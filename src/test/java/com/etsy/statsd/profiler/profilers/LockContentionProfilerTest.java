@@ -0,0 +1,146 @@
+package com.etsy.statsd.profiler.profilers;
+
+import com.etsy.statsd.profiler.reporter.MockReporter;
+import com.etsy.statsd.profiler.util.MockArguments;
+import com.etsy.statsd.profiler.util.ThreadNameNormalizer;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LockContentionProfilerTest {
+    @Test
+    public void testBlockedThread() throws InterruptedException {
+        MockReporter reporter = new MockReporter();
+        LockContentionProfiler profiler = new LockContentionProfiler(reporter, MockArguments.BASIC);
+
+        final Object lock = new Object();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    lock.hashCode();
+                }
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try {
+            synchronized (lock) {
+                blocked.start();
+                while (blocked.getState() != Thread.State.BLOCKED) {
+                    Thread.sleep(1);
+                }
+                profiler.profile();
+                Thread.sleep(50);
+                profiler.profile();
+            }
+            while (blocked.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            profiler.profile();
+            profiler.flushData();
+        } finally {
+            done.countDown();
+            blocked.join();
+        }
+
+        String owner = new ThreadNameNormalizer().normalize(Thread.currentThread().getName());
+        boolean foundTrace = false;
+        boolean foundTime = false;
+        for (Map.Entry<String, Number> entry : reporter.getOutput().entrySet()) {
+            if (entry.getKey().startsWith("lock.trace,lock=java.lang.Object,owner=" + owner + ",")) {
+                foundTrace = true;
+                assertEquals(2L, entry.getValue());
+            } else if (entry.getKey().startsWith("lock.time,lock=java.lang.Object,") && entry.getKey().endsWith("blocked")) {
+                foundTime = true;
+                assertTrue(entry.getValue().longValue() > 0);
+            }
+        }
+        assertTrue(foundTrace);
+        assertTrue(foundTime);
+    }
+
+    @Test
+    public void testIdleTimeAfterBlockingIsNotAttributed() throws InterruptedException {
+        MockReporter reporter = new MockReporter();
+        LockContentionProfiler profiler = new LockContentionProfiler(reporter, MockArguments.BASIC);
+
+        final Object lock = new Object();
+        final CountDownLatch idle = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean idled = new AtomicBoolean();
+        Thread blocked = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (lock) {
+                    lock.hashCode();
+                }
+                try {
+                    // Neither latch has an owner, so these waits are idle rather than contended
+                    idle.await();
+                    idled.set(true);
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try {
+            synchronized (lock) {
+                blocked.start();
+                while (blocked.getState() != Thread.State.BLOCKED) {
+                    Thread.sleep(1);
+                }
+                profiler.profile();
+                Thread.sleep(50);
+                profiler.profile();
+            }
+            while (blocked.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            profiler.profile();
+
+            // The waited time of the idle wait is only updated once it ends
+            Thread.sleep(200);
+            idle.countDown();
+            while (!idled.get() || blocked.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            profiler.profile();
+            profiler.flushData();
+        } finally {
+            done.countDown();
+            blocked.join();
+        }
+
+        long blockedTime = 0;
+        long waitedTime = 0;
+        long tracedTime = 0;
+        for (Map.Entry<String, Number> entry : reporter.getOutput().entrySet()) {
+            if (entry.getKey().startsWith("lock.time,lock=java.lang.Object,")) {
+                if (entry.getKey().endsWith("blocked")) {
+                    blockedTime += entry.getValue().longValue();
+                } else {
+                    waitedTime += entry.getValue().longValue();
+                }
+            } else if (entry.getKey().startsWith("lock.time.trace,")) {
+                tracedTime += entry.getValue().longValue();
+            }
+        }
+        assertTrue(blockedTime > 0);
+        // Acquiring the monitor may wait briefly, but the 200ms idle wait must not be charged to the lock
+        assertTrue(waitedTime < 100);
+        assertEquals(blockedTime + waitedTime, tracedTime);
+    }
+}
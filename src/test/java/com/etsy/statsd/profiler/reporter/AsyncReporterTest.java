@@ -0,0 +1,183 @@
+package com.etsy.statsd.profiler.reporter;
+
+import com.etsy.statsd.profiler.util.MockArguments;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncReporterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPointsAreSentByWriter() {
+        MockReporter delegate = new MockReporter();
+        AsyncReporter reporter = new AsyncReporter(delegate, MockArguments.BASIC);
+
+        reporter.recordGaugeValue("a", 1L);
+        reporter.recordGaugeValue("b", 2.5);
+        reporter.recordGaugeValues(ImmutableMap.of("a", 3L, "c", 4L));
+        reporter.close();
+
+        Map<String, Number> output = delegate.getOutput();
+        assertEquals(4L, output.get("a"));
+        assertEquals(2.5, output.get("b"));
+        assertEquals(4L, output.get("c"));
+        assertEquals(0, reporter.getQueueDepth());
+        assertEquals(0, reporter.getDroppedPoints());
+    }
+
+    @Test
+    public void testPointsKeepTheirTimestamps() {
+        final Map<String, Long> timestamps = new HashMap<>();
+        MockReporter delegate = new MockReporter() {
+            @Override
+            public void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+                for (String key : gauges.keySet()) {
+                    timestamps.put(key, timestamp);
+                }
+                super.recordGaugeValues(gauges, timestamp);
+            }
+        };
+        AsyncReporter reporter = new AsyncReporter(delegate, MockArguments.BASIC);
+
+        reporter.recordGaugeValue("a", 1L, 1000L);
+        reporter.recordGaugeValues(ImmutableMap.of("b", 2L, "c", 3.0), 2000L);
+        reporter.recordGaugeValue("d", 4.0, 3000L);
+        reporter.close();
+
+        assertEquals(Long.valueOf(1000L), timestamps.get("a"));
+        assertEquals(Long.valueOf(2000L), timestamps.get("b"));
+        assertEquals(Long.valueOf(2000L), timestamps.get("c"));
+        assertEquals(Long.valueOf(3000L), timestamps.get("d"));
+        assertEquals(4, delegate.getOutput().size());
+    }
+
+    @Test
+    public void testDropNewest() throws InterruptedException {
+        Map<String, Number> output = fillQueue("newest");
+        assertTrue(output.containsKey("b"));
+        assertTrue(output.containsKey("c"));
+        assertFalse(output.containsKey("d"));
+    }
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        Map<String, Number> output = fillQueue("oldest");
+        assertFalse(output.containsKey("b"));
+        assertTrue(output.containsKey("c"));
+        assertTrue(output.containsKey("d"));
+    }
+
+    @Test
+    public void testFailingReporterDoesNotStopWriter() {
+        final MockReporter delegate = new MockReporter() {
+            @Override
+            public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+                if (gauges.containsKey("fail")) {
+                    throw new RuntimeException("Backend is down");
+                }
+                super.recordGaugeValues(gauges);
+            }
+        };
+        AsyncReporter reporter = new AsyncReporter(delegate, MockArguments.BASIC);
+
+        reporter.recordGaugeValue("fail", 1L);
+        reporter.close();
+        reporter = new AsyncReporter(delegate, MockArguments.BASIC);
+        reporter.recordGaugeValue("ok", 1L);
+        reporter.close();
+
+        assertFalse(delegate.getOutput().containsKey("fail"));
+        assertEquals(1L, delegate.getOutput().get("ok"));
+    }
+
+    @Test
+    public void testSpoolsWhileReporterFails() throws InterruptedException {
+        final AtomicBoolean down = new AtomicBoolean(true);
+        final Map<String, Long> timestamps = new ConcurrentHashMap<>();
+        MockReporter delegate = new MockReporter() {
+            @Override
+            public void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+                if (down.get()) {
+                    throw new RuntimeException("Backend is down");
+                }
+                for (String key : gauges.keySet()) {
+                    timestamps.put(key, timestamp);
+                }
+            }
+        };
+        AsyncReporter reporter = new AsyncReporter(delegate, MockArguments.createArgs("localhost", 8888, "prefix",
+                ImmutableMap.of(AsyncReporter.SPOOL_DIR_ARG, folder.getRoot().getPath(),
+                        AsyncReporter.SPOOL_SEGMENT_BYTES_ARG, "1024")));
+
+        reporter.recordGaugeValue("a", 1L, 1000L);
+        reporter.recordGaugeValue("b", 2.0, 2000L);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (reporter.getQueueDepth() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // The next point shows the backend is back, and the spooled points follow it
+        down.set(false);
+        reporter.recordGaugeValue("c", 3L, 3000L);
+        while (timestamps.size() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        reporter.close();
+
+        assertEquals(Long.valueOf(1000L), timestamps.get("a"));
+        assertEquals(Long.valueOf(2000L), timestamps.get("b"));
+        assertEquals(Long.valueOf(3000L), timestamps.get("c"));
+        assertEquals(0, reporter.getDroppedPoints());
+    }
+
+    /**
+     * Record a point that blocks the writer, then three more points into a queue of two
+     */
+    private Map<String, Number> fillQueue(String policy) throws InterruptedException {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        MockReporter delegate = new MockReporter() {
+            @Override
+            public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+                if (gauges.containsKey("a")) {
+                    sending.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.recordGaugeValues(gauges);
+            }
+        };
+        AsyncReporter reporter = new AsyncReporter(delegate, MockArguments.createArgs("localhost", 8888, "prefix",
+                ImmutableMap.of(AsyncReporter.QUEUE_SIZE_ARG, "2", AsyncReporter.DROP_POLICY_ARG, policy)));
+
+        reporter.recordGaugeValue("a", 1L);
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+        reporter.recordGaugeValue("b", 1L);
+        reporter.recordGaugeValue("c", 1L);
+        reporter.recordGaugeValue("d", 1L);
+        assertEquals(2, reporter.getQueueDepth());
+        assertEquals(1, reporter.getDroppedPoints());
+
+        release.countDown();
+        reporter.close();
+        assertEquals(0, reporter.getQueueDepth());
+        return delegate.getOutput();
+    }
+}
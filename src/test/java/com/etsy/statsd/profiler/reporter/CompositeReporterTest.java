@@ -0,0 +1,98 @@
+package com.etsy.statsd.profiler.reporter;
+
+import com.etsy.statsd.profiler.Arguments;
+import com.etsy.statsd.profiler.util.MockArguments;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompositeReporterTest {
+    // The gauges received by each reporter, by the server it was given
+    private static final Map<String, Map<String, Number>> RECEIVED = new ConcurrentHashMap<>();
+    private static final CountDownLatch RELEASE_SLOW = new CountDownLatch(1);
+
+    @Test
+    public void testFansOutWithoutWaitingForSlowReporter() throws InterruptedException {
+        Arguments arguments = MockArguments.createArgs("localhost", 8888, "prefix", ImmutableMap.of(
+                "reporter", FastReporter.class.getName() + ":" + SlowReporter.class.getName(),
+                "FastReporter-server", "fast",
+                "SlowReporter-server", "slow"));
+        assertEquals(CompositeReporter.class, arguments.reporter);
+
+        CompositeReporter reporter = new CompositeReporter(arguments);
+        assertEquals(2, reporter.getReporters().size());
+        assertTrue(reporter.getReporters().get(0) instanceof AsyncReporter);
+
+        reporter.recordGaugeValue("a", 1L);
+        reporter.recordGaugeBatch(new GaugeBatch().add("b", 2.5, 1000L));
+
+        // The fast reporter gets the points while the slow one is still blocked on them
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (RECEIVED.get("fast").size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1L, RECEIVED.get("fast").get("a"));
+        assertEquals(2.5, RECEIVED.get("fast").get("b"));
+        assertFalse(RECEIVED.get("slow").containsKey("b"));
+
+        RELEASE_SLOW.countDown();
+        reporter.close();
+        assertEquals(1L, RECEIVED.get("slow").get("a"));
+        assertEquals(2.5, RECEIVED.get("slow").get("b"));
+    }
+
+    public static class FastReporter extends Reporter<Map<String, Number>> {
+        public FastReporter(Arguments arguments) {
+            super(arguments);
+        }
+
+        @Override
+        public void recordGaugeValue(String key, long value) {
+            client.put(key, value);
+        }
+
+        @Override
+        public void recordGaugeValue(String key, double value) {
+            client.put(key, value);
+        }
+
+        @Override
+        public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+            client.putAll(gauges);
+        }
+
+        @Override
+        protected Map<String, Number> createClient(String server, int port, String prefix) {
+            Map<String, Number> received = new ConcurrentHashMap<>();
+            RECEIVED.put(server, received);
+            return received;
+        }
+
+        @Override
+        protected void handleArguments(Arguments arguments) { }
+    }
+
+    public static class SlowReporter extends FastReporter {
+        public SlowReporter(Arguments arguments) {
+            super(arguments);
+        }
+
+        @Override
+        public void recordGaugeValues(Map<String, ? extends Number> gauges) {
+            try {
+                RELEASE_SLOW.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.recordGaugeValues(gauges);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.etsy.statsd.profiler.reporter;
+
+import com.etsy.statsd.profiler.util.MockArguments;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DatagramStatsDReporterTest {
+    private DatagramSocket server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(5000);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testRecordGaugeValue() throws IOException {
+        DatagramStatsDReporter reporter = createReporter(null);
+        reporter.recordGaugeValue("fake", 100L);
+        reporter.recordGaugeValue("negative", -42L);
+        reporter.recordGaugeValue("double", 1.25);
+        reporter.recordGaugeValue("small", -0.0000004);
+        reporter.recordGaugeValue("rounded", 2.0000004);
+        reporter.recordGaugeValue("unicodeé", 1L);
+        reporter.recordGaugeValue("negativeDouble", -1.5);
+
+        assertEquals("test.fake:100|g", receive());
+        // A signed gauge would be read as a decrement, so it is reset first
+        assertEquals("test.negative:0|g\ntest.negative:-42|g", receive());
+        assertEquals("test.double:1.25|g", receive());
+        assertEquals("test.small:0|g", receive());
+        assertEquals("test.rounded:2|g", receive());
+        assertEquals("test.unicodeé:1|g", receive());
+        assertEquals("test.negativeDouble:0|g\ntest.negativeDouble:-1.5|g", receive());
+        assertEquals(7, reporter.getPacketsSent());
+        reporter.close();
+    }
+
+    @Test
+    public void testRecordGaugeBatch() throws IOException {
+        DatagramStatsDReporter reporter = createReporter(null);
+        GaugeBatch batch = new GaugeBatch();
+        batch.add(MetricName.of("named"), 1L, 0).add("unnamed", 2.5, 0).add(new MetricName("unicodeé"), 3L, 0);
+        reporter.recordGaugeBatch(batch);
+
+        assertEquals("test.named:1|g\ntest.unnamed:2.5|g\ntest.unicodeé:3|g", receive());
+        assertEquals(1, reporter.getPacketsSent());
+        reporter.close();
+    }
+
+    @Test
+    public void testPacksGaugesUpToPacketSize() throws IOException {
+        DatagramStatsDReporter reporter = createReporter("64");
+        Map<String, Number> gauges = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            gauges.put("gauge" + i, (long) i);
+        }
+        reporter.recordGaugeValues(gauges);
+
+        List<String> lines = new ArrayList<>();
+        for (long i = 0; i < reporter.getPacketsSent(); i++) {
+            String packet = receive();
+            assertTrue(packet.getBytes(StandardCharsets.UTF_8).length <= 64);
+            for (String line : packet.split("\n")) {
+                lines.add(line);
+            }
+        }
+
+        // Each gauge is 15 bytes plus a newline, so 4 fit in a packet
+        assertEquals(3, reporter.getPacketsSent());
+        assertEquals(10, lines.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("test.gauge" + i + ":" + i + "|g", lines.get(i));
+        }
+        reporter.close();
+    }
+
+    @Test
+    public void testDropsGaugeLargerThanPacket() throws IOException {
+        DatagramStatsDReporter reporter = createReporter("16");
+        reporter.recordGaugeValues(ImmutableMap.of("this.key.is.too.long", 1L, "ok", 2L));
+
+        assertEquals("test.ok:2|g", receive());
+        assertEquals(1, reporter.getPacketsSent());
+        assertEquals(1, reporter.getDroppedGauges());
+        reporter.close();
+    }
+
+    private DatagramStatsDReporter createReporter(String maxPacketSize) {
+        Map<String, String> args = maxPacketSize == null ? null
+                : ImmutableMap.of(DatagramStatsDReporter.MAX_PACKET_SIZE_ARG, maxPacketSize);
+        return new DatagramStatsDReporter(MockArguments.createArgs("127.0.0.1", server.getLocalPort(), "test", args));
+    }
+
+    private String receive() throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+        server.receive(packet);
+        return new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+    }
+}
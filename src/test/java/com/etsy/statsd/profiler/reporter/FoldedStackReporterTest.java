@@ -0,0 +1,108 @@
+package com.etsy.statsd.profiler.reporter;
+
+import com.etsy.statsd.profiler.util.CPUTraces;
+import com.etsy.statsd.profiler.util.MockArguments;
+import com.etsy.statsd.profiler.util.TagUtil;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FoldedStackReporterTest {
+    private static final String TRACE = "cpu.trace" + TagUtil.TAG_SEPARATOR;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFold() {
+        assertEquals("com.etsy.Main.main:10;com.etsy.Foo.bar:25",
+                FoldedStackReporter.fold(TRACE + "com-etsy-Foo-bar-25|com-etsy-Main-main-10"));
+        assertEquals("state=WAITING;pool=worker;java.lang.Object.wait",
+                FoldedStackReporter.fold("offcpu.trace,state=WAITING,pool=worker" + TagUtil.TAG_SEPARATOR
+                        + "java-lang-Object-wait--1"));
+        assertEquals(CPUTraces.OTHER_TRACE, FoldedStackReporter.fold(TRACE + "other"));
+        assertNull(FoldedStackReporter.fold("cpu.trace.10"));
+        assertNull(FoldedStackReporter.fold("heap" + TagUtil.TAG_SEPARATOR + "used"));
+    }
+
+    @Test
+    public void testWritesTraces() throws IOException {
+        FoldedStackReporter reporter = createReporter(new HashMap<String, String>());
+        GaugeBatch batch = new GaugeBatch()
+                .add(TRACE + "Foo-bar-2|Main-main-1", 3L, 1000L)
+                .add("cpu.trace.5", 5L, 1000L)
+                .add(TRACE + "Foo-baz-4|Main-main-1", 7L, 1000L);
+        reporter.recordGaugeBatch(batch);
+        reporter.recordGaugeValues(ImmutableMap.of(TRACE + "Foo-bar-2|Main-main-1", 2L), 2000L);
+        reporter.close();
+
+        File[] files = folder.getRoot().listFiles();
+        assertEquals(1, files.length);
+        assertTrue(files[0].getName().startsWith("prefix-"));
+        assertTrue(files[0].getName().endsWith("-0.folded"));
+        assertEquals("Main.main:1;Foo.bar:2 3\nMain.main:1;Foo.baz:4 7\nMain.main:1;Foo.bar:2 2\n",
+                read(files[0], false));
+    }
+
+    @Test
+    public void testRotatesOnTime() throws IOException {
+        FoldedStackReporter reporter = createReporter(ImmutableMap.of(FoldedStackReporter.ROTATE_SECONDS_ARG, "60"));
+        reporter.recordGaugeValue(TRACE + "a-1", 1L, 0L);
+        reporter.recordGaugeValue(TRACE + "b-1", 1L, 59999L);
+        reporter.recordGaugeValue(TRACE + "c-1", 1L, 60000L);
+        reporter.close();
+
+        File[] files = sortedFiles();
+        assertEquals(2, files.length);
+        assertEquals("a:1 1\nb:1 1\n", read(files[0], false));
+        assertEquals("c:1 1\n", read(files[1], false));
+    }
+
+    @Test
+    public void testRotatesOnSizeWithGzip() throws IOException {
+        FoldedStackReporter reporter = createReporter(ImmutableMap.of(FoldedStackReporter.ROTATE_BYTES_ARG, "1",
+                FoldedStackReporter.GZIP_ARG, "true"));
+        reporter.recordGaugeBatch(new GaugeBatch().add(TRACE + "a-1", 1L, 0L).add(TRACE + "b-1", 2L, 0L));
+        reporter.close();
+
+        File[] files = sortedFiles();
+        assertEquals(2, files.length);
+        assertTrue(files[0].getName().endsWith(".folded.gz"));
+        assertEquals("a:1 1\n", read(files[0], true));
+        assertEquals("b:1 2\n", read(files[1], true));
+    }
+
+    private FoldedStackReporter createReporter(Map<String, String> args) {
+        Map<String, String> allArgs = new HashMap<>(args);
+        allArgs.put(FoldedStackReporter.DIR_ARG, folder.getRoot().getPath());
+        return new FoldedStackReporter(MockArguments.createArgs("localhost", 8888, "prefix", allArgs));
+    }
+
+    private File[] sortedFiles() {
+        File[] files = folder.getRoot().listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static String read(File file, boolean gzip) throws IOException {
+        try (InputStream in = gzip ? new GZIPInputStream(new FileInputStream(file)) : new FileInputStream(file)) {
+            return new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.etsy.statsd.profiler.reporter;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GaugeBatchTest {
+    @Test
+    public void testAddAndRead() {
+        GaugeBatch batch = new GaugeBatch(1);
+        batch.add("a", 1L, 1000L).add("b", 2.5, 2000L).add("c", Integer.valueOf(3), 3000L);
+
+        assertEquals(3, batch.size());
+        assertEquals("a", batch.keyAt(0));
+        assertFalse(batch.isDouble(0));
+        assertEquals(1L, batch.longAt(0));
+        assertEquals(1000L, batch.timestampAt(0));
+        assertTrue(batch.isDouble(1));
+        assertEquals(2.5, batch.doubleAt(1), 0);
+        assertEquals(2.5, batch.valueAt(1));
+        assertEquals(3L, batch.valueAt(2));
+        assertEquals(3000L, batch.timestampAt(2));
+    }
+
+    @Test
+    public void testClearKeepsCapacity() {
+        GaugeBatch batch = new GaugeBatch(2);
+        batch.add("a", 1L, 0).add("b", 2L, 0).add("c", 3L, 0);
+        batch.clear();
+        assertTrue(batch.isEmpty());
+
+        batch.add("d", 4.0, 5L);
+        assertEquals(1, batch.size());
+        assertEquals("d", batch.keyAt(0));
+        assertTrue(batch.isDouble(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testReadPastSize() {
+        GaugeBatch batch = new GaugeBatch();
+        batch.add("a", 1L, 0);
+        batch.clear();
+        batch.keyAt(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnexpectedNumberType() {
+        new GaugeBatch().add("a", new BigDecimal(1), 0);
+    }
+}
@@ -0,0 +1,98 @@
+package com.etsy.statsd.profiler.reporter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GaugeRingTest {
+    @Test
+    public void testDrainsInOrder() throws InterruptedException {
+        GaugeRing ring = new GaugeRing(8);
+        MetricName name = new MetricName("named");
+        GaugeBatch batch = new GaugeBatch().add("a", 1L, 1000L).add(name, 2.5, 2000L);
+        assertEquals(0, ring.addAll(batch, true));
+        assertEquals(0, ring.add("b", null, 3L, 0, false, 3000L, true));
+        assertEquals(3, ring.size());
+
+        GaugeBatch drained = new GaugeBatch();
+        assertEquals(2, ring.drainTo(drained, 2, 0));
+        assertEquals("a", drained.keyAt(0));
+        assertEquals(1L, drained.longAt(0));
+        assertEquals(1000L, drained.timestampAt(0));
+        assertSame(name, drained.nameAt(1));
+        assertTrue(drained.isDouble(1));
+        assertEquals(2.5, drained.doubleAt(1), 0);
+
+        drained.clear();
+        assertEquals(1, ring.drainTo(drained, 10, 0));
+        assertEquals("b", drained.keyAt(0));
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.drainTo(drained, 10, 10));
+    }
+
+    @Test
+    public void testGrowsAcrossWrap() throws InterruptedException {
+        GaugeRing ring = new GaugeRing(5000);
+        GaugeBatch drained = new GaugeBatch();
+        for (int i = 0; i < 1000; i++) {
+            ring.add("old" + i, null, i, 0, false, 0, true);
+        }
+        // Move the head, so the ring wraps before it grows
+        assertEquals(500, ring.drainTo(drained, 500, 0));
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(0, ring.add("new" + i, null, i, 0, false, 0, true));
+        }
+
+        drained.clear();
+        assertEquals(3500, ring.drainTo(drained, 5000, 0));
+        assertEquals("old500", drained.keyAt(0));
+        assertEquals("old999", drained.keyAt(499));
+        assertEquals("new0", drained.keyAt(500));
+        assertEquals("new2999", drained.keyAt(3499));
+    }
+
+    @Test
+    public void testDropPolicies() throws InterruptedException {
+        GaugeBatch batch = new GaugeBatch().add("a", 1L, 0).add("b", 2L, 0).add("c", 3L, 0);
+
+        GaugeRing ring = new GaugeRing(2);
+        assertEquals(1, ring.addAll(batch, true));
+        GaugeBatch drained = new GaugeBatch();
+        ring.drainTo(drained, 10, 0);
+        assertEquals("b", drained.keyAt(0));
+        assertEquals("c", drained.keyAt(1));
+
+        ring = new GaugeRing(2);
+        assertEquals(1, ring.addAll(batch, false));
+        drained.clear();
+        ring.drainTo(drained, 10, 0);
+        assertEquals("a", drained.keyAt(0));
+        assertEquals("b", drained.keyAt(1));
+        assertFalse(ring.size() > 0);
+    }
+
+    @Test
+    public void testWakesWaitingConsumer() throws InterruptedException {
+        final GaugeRing ring = new GaugeRing(8);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                ring.add("a", null, 1L, 0, false, 0, true);
+            }
+        });
+        producer.start();
+
+        long start = System.nanoTime();
+        assertEquals(1, ring.drainTo(new GaugeBatch(), 10, 5000));
+        assertTrue(System.nanoTime() - start < 4000L * 1000000);
+        producer.join();
+    }
+}
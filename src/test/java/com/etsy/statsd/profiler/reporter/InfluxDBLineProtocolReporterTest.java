@@ -0,0 +1,216 @@
+package com.etsy.statsd.profiler.reporter;
+
+import com.etsy.statsd.profiler.util.MockArguments;
+import com.etsy.statsd.profiler.util.TagUtil;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.influxdb.dto.Point;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InfluxDBLineProtocolReporterTest {
+    private HttpServer server;
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private final List<String> queries = new CopyOnWriteArrayList<>();
+    private final HttpHandler writeHandler = new HttpHandler() {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            InputStream body = exchange.getRequestBody();
+            if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                body = new GZIPInputStream(body);
+            }
+            bodies.add(new String(ByteStreams.toByteArray(body), StandardCharsets.UTF_8));
+            queries.add(exchange.getRequestURI().getQuery());
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/write", writeHandler);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBatchesAcrossCalls() {
+        InfluxDBLineProtocolReporter reporter = createReporter(ImmutableMap.of(
+                InfluxDBLineProtocolReporter.BATCH_AGE_ARG, "0"));
+        reporter.recordGaugeValue("fake", 100L);
+        reporter.recordGaugeValue("cpu.trace" + TagUtil.TAG_SEPARATOR + "com-etsy-Foo-bar-10", 2.5);
+        reporter.recordGaugeValues(ImmutableMap.of("a b", 1L, "c", 2L));
+        assertEquals(0, bodies.size());
+
+        reporter.close();
+        assertEquals(1, bodies.size());
+        assertTrue(queries.get(0).contains("db=database"));
+        assertTrue(queries.get(0).contains("precision=ms"));
+
+        String[] lines = bodies.get(0).split("\n");
+        assertEquals(4, lines.length);
+        assertEquals(lineWithoutTime(Point.measurement("fake").field(InfluxDBReporter.VALUE_COLUMN, 100L)), withoutTime(lines[0]));
+        assertTrue(lines[1].startsWith("cpu.trace\\,pid\\="));
+        assertTrue(lines[1].contains("\\,type\\=com-etsy-Foo-bar-10,"));
+        assertTrue(lines[1].contains(" value=2.5 "));
+        assertTrue(lines[2].startsWith("a\\ b,"));
+    }
+
+    @Test
+    public void testWritesSampleTime() {
+        InfluxDBLineProtocolReporter reporter = createReporter(ImmutableMap.of(
+                InfluxDBLineProtocolReporter.BATCH_AGE_ARG, "0"));
+        reporter.recordGaugeValue("a", 1L, 1000L);
+        reporter.recordGaugeValues(ImmutableMap.of("b", 2.5), 2000L);
+        reporter.close();
+
+        String[] lines = bodies.get(0).split("\n");
+        assertTrue(lines[0].endsWith(" value=1 1000"));
+        assertTrue(lines[1].endsWith(" value=2.5 2000"));
+    }
+
+    @Test
+    public void testNamedGaugesMatchStrings() {
+        InfluxDBLineProtocolReporter reporter = createReporter(ImmutableMap.of(
+                InfluxDBLineProtocolReporter.BATCH_AGE_ARG, "0"));
+        String key = "gc" + TagUtil.TAG_SEPARATOR + "G1 Young.count";
+        GaugeBatch batch = new GaugeBatch();
+        batch.add(new MetricName(key), 1L, 1000L).add(key, 1L, 1000L);
+        reporter.recordGaugeBatch(batch);
+        reporter.close();
+
+        String[] lines = bodies.get(0).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(lines[1], lines[0]);
+        assertTrue(lines[0].startsWith("gc\\,pid\\="));
+    }
+
+    @Test
+    public void testPostsFullBatch() throws InterruptedException {
+        InfluxDBLineProtocolReporter reporter = createReporter(ImmutableMap.of(
+                InfluxDBLineProtocolReporter.BATCH_AGE_ARG, "0", InfluxDBLineProtocolReporter.BATCH_BYTES_ARG, "1"));
+        reporter.recordGaugeValue("gauge", 1L);
+
+        // The point fills a batch, so it is posted without waiting for a flush
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (bodies.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, bodies.size());
+        assertEquals(1, reporter.client.getPostsSent());
+        reporter.close();
+        assertEquals(1, bodies.size());
+    }
+
+    @Test
+    public void testSlowServerDoesNotBlockWriters() {
+        final CountDownLatch release = new CountDownLatch(1);
+        server.removeContext("/write");
+        server.createContext("/write", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                writeHandler.handle(exchange);
+            }
+        });
+        InfluxDBLineProtocolReporter reporter = createReporter(ImmutableMap.of(
+                InfluxDBLineProtocolReporter.BATCH_AGE_ARG, "0", InfluxDBLineProtocolReporter.BATCH_BYTES_ARG, "1"));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 10; i++) {
+            reporter.recordGaugeValue("gauge" + i, (long) i);
+        }
+        // The server holds the first batch, so the writers neither post nor wait
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(0, bodies.size());
+
+        release.countDown();
+        reporter.close();
+        int posted = 0;
+        for (String body : bodies) {
+            posted += body.split("\n").length;
+        }
+        // One batch is being posted and one is full, so the rest are dropped
+        assertEquals(2, posted);
+        assertEquals(8, reporter.client.getDroppedPoints());
+    }
+
+    @Test
+    public void testPostsOldBatch() throws InterruptedException {
+        InfluxDBLineProtocolReporter reporter = createReporter(ImmutableMap.of(
+                InfluxDBLineProtocolReporter.BATCH_AGE_ARG, "50", InfluxDBLineProtocolReporter.GZIP_ARG, "false"));
+        reporter.recordGaugeValue("fake", 1L);
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (bodies.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, bodies.size());
+        assertTrue(bodies.get(0).startsWith("fake,"));
+        reporter.close();
+    }
+
+    @Test
+    public void testDropsBatchOnError() {
+        server.stop(0);
+        InfluxDBLineProtocolReporter reporter = createReporter(ImmutableMap.of(
+                InfluxDBLineProtocolReporter.BATCH_AGE_ARG, "0"));
+        reporter.recordGaugeValues(ImmutableMap.of("a", 1L, "b", 2L));
+        reporter.close();
+
+        assertEquals(0, reporter.client.getPostsSent());
+        assertEquals(2, reporter.client.getDroppedPoints());
+    }
+
+    private InfluxDBLineProtocolReporter createReporter(Map<String, String> args) {
+        Map<String, String> allArgs = new HashMap<>(args);
+        allArgs.put("username", "user");
+        allArgs.put("password", "password");
+        allArgs.put("database", "database");
+        return new InfluxDBLineProtocolReporter(MockArguments.createArgs("127.0.0.1", server.getAddress().getPort(),
+                "influxdb.reporter.test", allArgs));
+    }
+
+    /**
+     * The line protocol of influxdb-java's Point with the same tags, without the timestamp
+     */
+    private String lineWithoutTime(Point.Builder builder) {
+        for (Map.Entry<String, String> tag : TagUtil.getTags(null, "influxdb.reporter.test", true).entrySet()) {
+            builder.tag(tag.getKey(), tag.getValue());
+        }
+        return withoutTime(builder.build().lineProtocol()).replace("value=100.0", "value=100");
+    }
+
+    private static String withoutTime(String line) {
+        return line.substring(0, line.lastIndexOf(' '));
+    }
+}
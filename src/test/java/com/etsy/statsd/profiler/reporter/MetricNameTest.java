@@ -0,0 +1,28 @@
+package com.etsy.statsd.profiler.reporter;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MetricNameTest {
+    @Test
+    public void testRegistryResolvesOnce() {
+        MetricName name = MetricName.of("heap.used");
+        assertSame(name, MetricName.of(new String("heap.used")));
+        assertNotSame(name, new MetricName("heap.used"));
+        assertEquals(name, new MetricName("heap.used"));
+    }
+
+    @Test
+    public void testEncodings() {
+        MetricName name = new MetricName("cpu.trace,pid=1 é");
+        assertArrayEquals("cpu.trace,pid=1 é".getBytes(StandardCharsets.UTF_8), name.getStatsDBytes());
+        assertArrayEquals("cpu.trace\\,pid\\=1\\ é".getBytes(StandardCharsets.UTF_8), name.getLineProtocolBytes());
+        assertSame(name.getLineProtocolBytes(), name.getLineProtocolBytes());
+    }
+}
@@ -0,0 +1,94 @@
+package com.etsy.statsd.profiler.reporter;
+
+import com.etsy.statsd.profiler.util.TagUtil;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MetricSnapshotTest {
+    @Test
+    public void testRendersLatestValues() throws IOException {
+        MetricSnapshot snapshot = new MetricSnapshot(Collections.<String, String>emptyMap(), 60000);
+        long now = System.currentTimeMillis();
+        snapshot.update("heap.used", 1L, now);
+        snapshot.update("heap.used", 2L, now);
+        snapshot.update("cpu.load", 0.5, now);
+        snapshot.update("cpu.idle", 3.0, now);
+
+        assertEquals(3, snapshot.size());
+        assertEquals("# TYPE heap_used gauge\nheap_used 2\n"
+                + "# TYPE cpu_load gauge\ncpu_load 0.5\n"
+                + "# TYPE cpu_idle gauge\ncpu_idle 3\n", render(snapshot));
+    }
+
+    @Test
+    public void testParsesLabels() throws IOException {
+        Map<String, String> labels = ImmutableMap.of("env", "prod", "pid", "global");
+        MetricSnapshot snapshot = new MetricSnapshot(labels, 60000);
+        long now = System.currentTimeMillis();
+        GaugeBatch batch = new GaugeBatch();
+        batch.add("cpu.trace" + TagUtil.TAG_SEPARATOR + "com-etsy-Foo-bar,baz=\"1\"", 10L, now);
+        batch.add("cpu.trace" + TagUtil.TAG_SEPARATOR + "com-etsy-Foo-qux", 20L, now);
+        snapshot.update(batch);
+
+        String[] lines = render(snapshot).split("\n");
+        assertEquals(3, lines.length);
+        assertEquals("# TYPE cpu_trace gauge", lines[0]);
+        // Labels from the key override the global ones, and the type takes the rest of the key
+        assertTrue(lines[1].startsWith("cpu_trace{env=\"prod\",pid=\""));
+        assertFalse(lines[1].contains("global"));
+        assertTrue(lines[1].endsWith(",type=\"com-etsy-Foo-bar,baz=\\\"1\\\"\"} 10"));
+        assertTrue(lines[2].endsWith(",type=\"com-etsy-Foo-qux\"} 20"));
+    }
+
+    @Test
+    public void testDropsOldValues() throws IOException {
+        MetricSnapshot snapshot = new MetricSnapshot(Collections.<String, String>emptyMap(), 1000);
+        long now = System.currentTimeMillis();
+        snapshot.update("old", 1L, now - 2000);
+        snapshot.update("new", Double.NaN, now);
+
+        assertEquals("# TYPE new gauge\nnew NaN\n", render(snapshot));
+        assertEquals(1, snapshot.size());
+    }
+
+    @Test
+    public void testFormatsValues() throws IOException {
+        MetricSnapshot snapshot = new MetricSnapshot(Collections.<String, String>emptyMap(), 60000);
+        long now = System.currentTimeMillis();
+        snapshot.update("a", Long.MIN_VALUE, now);
+        snapshot.update("b", -120L, now);
+        snapshot.update("c", 0L, now);
+        snapshot.update("d", Double.NEGATIVE_INFINITY, now);
+        snapshot.update("e", 1.5e20, now);
+
+        assertEquals("# TYPE a gauge\na -9223372036854775808\n"
+                + "# TYPE b gauge\nb -120\n"
+                + "# TYPE c gauge\nc 0\n"
+                + "# TYPE d gauge\nd -Inf\n"
+                + "# TYPE e gauge\ne 1.5E20\n", render(snapshot));
+    }
+
+    @Test
+    public void testSanitize() {
+        assertEquals("cpu_trace", MetricSnapshot.sanitize("cpu.trace", true));
+        assertEquals("_9lives:total", MetricSnapshot.sanitize("9lives:total", true));
+        assertEquals("a_b", MetricSnapshot.sanitize("a:b", false));
+        assertEquals("_", MetricSnapshot.sanitize("", true));
+    }
+
+    private static String render(MetricSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.render(out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
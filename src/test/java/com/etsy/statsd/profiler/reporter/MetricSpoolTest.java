@@ -0,0 +1,152 @@
+package com.etsy.statsd.profiler.reporter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MetricSpoolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReadsInOrderUntilCommitted() throws IOException {
+        MetricSpool spool = new MetricSpool(folder.getRoot(), 1024, 4096);
+        spool.append(new GaugeBatch().add("a", 1L, 1000L).add("b", 2.5, 2000L).add("c", 3L, 3000L));
+        assertEquals(3, spool.size());
+
+        GaugeBatch batch = new GaugeBatch();
+        assertEquals(2, spool.read(batch, 2));
+        assertEquals("a", batch.keyAt(0));
+        assertEquals(1L, batch.longAt(0));
+        assertEquals(1000L, batch.timestampAt(0));
+        assertTrue(batch.isDouble(1));
+        assertEquals(2.5, batch.doubleAt(1), 0);
+        assertEquals(2000L, batch.timestampAt(1));
+
+        // Not committed, so the same points are read again
+        batch.clear();
+        assertEquals(2, spool.read(batch, 2));
+        assertEquals("a", batch.keyAt(0));
+        spool.commit();
+        assertEquals(1, spool.size());
+
+        batch.clear();
+        assertEquals(1, spool.read(batch, 10));
+        assertEquals("c", batch.keyAt(0));
+        assertEquals(3000L, batch.timestampAt(0));
+        spool.commit();
+        assertTrue(spool.isEmpty());
+        spool.close();
+    }
+
+    @Test
+    public void testReadsAcrossSegments() throws IOException {
+        MetricSpool spool = new MetricSpool(folder.getRoot(), 64, 1024);
+        for (int i = 0; i < 20; i++) {
+            spool.append(new GaugeBatch().add("gauge" + i, (long) i, i));
+        }
+        assertEquals(20, spool.size());
+
+        GaugeBatch batch = new GaugeBatch();
+        while (spool.read(batch, 100) > 0) {
+            spool.commit();
+        }
+        assertEquals(20, batch.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("gauge" + i, batch.keyAt(i));
+            assertEquals(i, batch.longAt(i));
+        }
+        assertTrue(spool.isEmpty());
+        assertEquals(1, segmentFiles(spool).length);
+        spool.close();
+    }
+
+    @Test
+    public void testEvictsOldestSegment() throws IOException {
+        // Each segment holds two points, and the spool three segments
+        MetricSpool spool = new MetricSpool(folder.getRoot(), 4 + 2 * 23, 3 * 50);
+        for (int i = 0; i < 8; i++) {
+            spool.append(new GaugeBatch().add("g" + i, (long) i, i));
+        }
+
+        assertEquals(6, spool.size());
+        assertEquals(2, spool.getEvictedPoints());
+        GaugeBatch batch = new GaugeBatch();
+        spool.read(batch, 1);
+        assertEquals("g2", batch.keyAt(0));
+        spool.close();
+    }
+
+    @Test
+    public void testDropsKeysLargerThanSegment() throws IOException {
+        MetricSpool spool = new MetricSpool(folder.getRoot(), 64, 1024);
+        assertEquals(1, spool.append(new GaugeBatch().add(new String(new char[64]).replace('\0', 'x'), 1L, 0)
+                .add("small", 1L, 0)));
+        assertEquals(1, spool.size());
+        spool.close();
+    }
+
+    @Test
+    public void testReplaysAfterReopening() throws IOException {
+        MetricSpool spool = new MetricSpool(folder.getRoot(), 64, 1024);
+        for (int i = 0; i < 10; i++) {
+            spool.append(new GaugeBatch().add("gauge" + i, (long) i, i));
+        }
+        // Reads stop at the end of the oldest segment, which holds two points
+        GaugeBatch batch = new GaugeBatch();
+        assertEquals(2, spool.read(batch, 3));
+        spool.commit();
+        batch.clear();
+        assertEquals(1, spool.read(batch, 1));
+        spool.commit();
+        spool.close();
+
+        spool = new MetricSpool(folder.getRoot(), 64, 1024);
+        assertEquals(7, spool.size());
+        batch.clear();
+        spool.read(batch, 1);
+        assertEquals("gauge3", batch.keyAt(0));
+        assertEquals(3L, batch.timestampAt(0));
+
+        spool.append(new GaugeBatch().add("new", 1L, 100L));
+        assertEquals(8, spool.size());
+        spool.close();
+    }
+
+    @Test
+    public void testSpoolsInUseAreNotShared() throws IOException {
+        MetricSpool first = new MetricSpool(folder.getRoot(), 64, 1024);
+        MetricSpool second = new MetricSpool(folder.getRoot(), 64, 1024);
+        assertNotEquals(first.getDirectory(), second.getDirectory());
+
+        first.append(new GaugeBatch().add("a", 1L, 0));
+        assertFalse(first.isEmpty());
+        assertTrue(second.isEmpty());
+        first.close();
+        second.close();
+
+        // Once released, the first directory is used again
+        MetricSpool third = new MetricSpool(folder.getRoot(), 64, 1024);
+        assertEquals(first.getDirectory(), third.getDirectory());
+        assertEquals(1, third.size());
+        third.close();
+    }
+
+    private static File[] segmentFiles(MetricSpool spool) {
+        return spool.getDirectory().listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".seg");
+            }
+        });
+    }
+}
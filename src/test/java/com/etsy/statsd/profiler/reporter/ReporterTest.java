@@ -3,7 +3,9 @@ package com.etsy.statsd.profiler.reporter;
 import com.etsy.statsd.profiler.profilers.MockReportingProfiler;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
@@ -22,4 +24,32 @@ public class ReporterTest {
         expected.put("flushData", 1L);
         assertEquals(expected, mockReporter.getOutput());
     }
+
+    @Test
+    public void testGaugeBatchAdapter() {
+        final List<Map<String, Number>> calls = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+        MockReporter mockReporter = new MockReporter() {
+            @Override
+            public void recordGaugeValues(Map<String, ? extends Number> gauges, long timestamp) {
+                calls.add(new HashMap<String, Number>(gauges));
+                timestamps.add(timestamp);
+                super.recordGaugeValues(gauges, timestamp);
+            }
+        };
+
+        GaugeBatch batch = new GaugeBatch();
+        batch.add("a", 1L, 1000L).add("b", 2.5, 1000L).add("a", 3L, 1000L).add("c", 4L, 2000L);
+        mockReporter.recordGaugeBatch(batch);
+
+        // A repeated key or a new timestamp starts a new call
+        assertEquals(3, calls.size());
+        assertEquals(2, calls.get(0).size());
+        assertEquals(2.5, calls.get(0).get("b"));
+        assertEquals(3L, calls.get(1).get("a"));
+        assertEquals(4L, calls.get(2).get("c"));
+        assertEquals(Long.valueOf(1000L), timestamps.get(1));
+        assertEquals(Long.valueOf(2000L), timestamps.get(2));
+        assertEquals(4L, mockReporter.getOutput().get("a"));
+    }
 }
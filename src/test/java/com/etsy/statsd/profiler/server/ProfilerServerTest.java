@@ -30,9 +30,11 @@ import org.junit.Test;
 import com.etsy.statsd.profiler.Profiler;
 import com.etsy.statsd.profiler.profilers.MockProfiler1;
 import com.etsy.statsd.profiler.profilers.MockProfiler2;
+import com.etsy.statsd.profiler.reporter.MetricSnapshot;
 import com.etsy.statsd.profiler.worker.ProfilerThreadFactory;
 import com.etsy.statsd.profiler.worker.ProfilerWorkerThread;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.MoreExecutors;
 
 public class ProfilerServerTest {
@@ -70,8 +72,11 @@ public class ProfilerServerTest {
 		runningProfilers.put("MockProfiler1", future1);
 		runningProfilers.put("MockProfiler2", future2);
 
+		MetricSnapshot snapshot = new MetricSnapshot(ImmutableMap.of("host", "localhost"), 60000);
+		snapshot.update("heap.used", 100L, System.currentTimeMillis());
+
 		ProfilerServer.startServer(scheduledExecutorService, runningProfilers, activeProfilers,
-				port, isRunning, errors);
+				port, isRunning, errors, snapshot);
 		client = HttpClients.createDefault();
 
 
@@ -115,12 +120,26 @@ public class ProfilerServerTest {
 		httpRequestTest("isRunning", String.format("isRunning: %s", isRunning.get().toString()));
 	}
 
+	@Test
+	public void testMetrics() throws IOException {
+		httpRequestTest("metrics", "# TYPE heap_used gauge\nheap_used{host=\"localhost\"} 100\n");
+	}
+
+	@Test
+	public void testFlameGraphWithoutCPUTracingProfiler() throws IOException {
+		httpRequestTest("flamegraph", 404, "No CPUTracingProfiler with a flame graph history is running\n");
+	}
+
 	private void httpRequestTest(String path, String expectedBody) throws IOException {
+		httpRequestTest(path, 200, expectedBody);
+	}
+
+	private void httpRequestTest(String path, int expectedStatusCode, String expectedBody) throws IOException {
 		HttpRequestBase get = new HttpGet(String.format("http://localhost:%d/%s", port.get(), path));
 		CloseableHttpResponse response = client.execute(get);
 
 		int statusCode = response.getStatusLine().getStatusCode();
-		assertEquals(200, statusCode);
+		assertEquals(expectedStatusCode, statusCode);
 
 		HttpEntity entity = response.getEntity();
 		assertNotNull(entity);
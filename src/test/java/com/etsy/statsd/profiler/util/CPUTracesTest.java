@@ -1,12 +1,19 @@
 package com.etsy.statsd.profiler.util;
 
+import com.etsy.statsd.profiler.reporter.GaugeBatch;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class CPUTracesTest {
     private CPUTraces traces;
@@ -37,6 +44,145 @@ public class CPUTracesTest {
         assertEquals(expectedMap, traces.getDataToFlush());
     }
 
+    @Test
+    public void testIncrementStackTrace() {
+        StackTraceElement[] stack = new StackTraceElement[] {
+                new StackTraceElement("com.etsy.Foo", "foo", "Foo.java", 10),
+                new StackTraceElement("com.etsy.Bar", "bar", "Bar.java", 20)
+        };
+        String key = "cpu.trace." + StackTraceFormatter.formatStackTrace(stack);
+
+        assertTrue(traces.increment("cpu.trace.", stack, 1));
+        assertTrue(traces.increment("cpu.trace.", stack, 2));
+        traces.increment(key, 4);
+
+        Map<String, Long> expectedMap = new HashMap<>();
+        expectedMap.put(key, 7L);
+        assertEquals(expectedMap, traces.getDataToFlush());
+        assertEquals(new HashMap<String, Long>(), traces.getDataToFlush());
+
+        traces.increment("cpu.trace.", stack, 1);
+        expectedMap.put(key, 1L);
+        assertEquals(expectedMap, traces.getDataToFlush());
+    }
+
+    @Test
+    public void testIncrementFilteredStackTrace() {
+        traces = new CPUTraces(new StackTraceFilter(Arrays.asList("com.etsy"), new ArrayList<String>()));
+        StackTraceElement[] included = new StackTraceElement[] { new StackTraceElement("com.etsy.Foo", "foo", "Foo.java", 10) };
+        StackTraceElement[] excluded = new StackTraceElement[] { new StackTraceElement("com.google.Foo", "foo", "Foo.java", 10) };
+
+        assertTrue(traces.increment("cpu.trace.", included, 1));
+        assertFalse(traces.increment("cpu.trace.", excluded, 1));
+        assertFalse(traces.increment("cpu.trace.", excluded, 1));
+        assertEquals(1, traces.getDataToFlush().size());
+    }
+
+    @Test
+    public void testFilterChecksEveryFrame() {
+        traces = new CPUTraces(new StackTraceFilter(Arrays.asList("com.etsy"), Arrays.asList("com.etsy.statsd.profiler")));
+        StackTraceElement app = new StackTraceElement("com.etsy.App", "main", "App.java", 1);
+        StackTraceElement guava = new StackTraceElement("com.google.Foo", "foo", "Foo.java", 10);
+        StackTraceElement profiler = new StackTraceElement("com.etsy.statsd.profiler.Agent", "run", "Agent.java", 5);
+
+        // Innermost frame first; the included frame is the outermost one
+        assertTrue(traces.increment("cpu.trace.", new StackTraceElement[] { guava, app }, 1));
+        assertFalse(traces.increment("cpu.trace.", new StackTraceElement[] { profiler, guava, app }, 1));
+        assertFalse(traces.increment("cpu.trace.", new StackTraceElement[] { guava }, 1));
+        assertEquals(1, traces.getDataToFlush().size());
+    }
+
+    @Test
+    public void testBoundedTraces() {
+        traces = new CPUTraces(null, 2);
+        String prefix = "cpu.trace" + TagUtil.TAG_SEPARATOR;
+        for (int i = 0; i < 100; i++) {
+            StackTraceElement[] stack = new StackTraceElement[] { new StackTraceElement("com.etsy.Foo", "foo" + i, "Foo.java", 10) };
+            traces.increment(prefix, stack, 1);
+        }
+        StackTraceElement[] hot = new StackTraceElement[] { new StackTraceElement("com.etsy.Hot", "hot", "Hot.java", 1) };
+        traces.increment(prefix, hot, 50);
+
+        Map<String, Number> data = traces.getDataToFlush();
+        assertTrue(data.size() <= 3);
+        assertEquals(50L, data.get(prefix + "com-etsy-Hot-hot-1"));
+        long total = 0;
+        for (Number value : data.values()) {
+            total += value.longValue();
+        }
+        assertEquals(150, total);
+        assertTrue(data.containsKey(prefix + CPUTraces.OTHER_TRACE));
+        assertTrue(traces.getDataToFlush().isEmpty());
+    }
+
+    @Test
+    public void testRebuildsCallTree() {
+        String prefix = "cpu.trace" + TagUtil.TAG_SEPARATOR;
+        CallTree tree = traces.getCallTree();
+        for (int i = 0; i < CPUTraces.MIN_NODES_BEFORE_REBUILD; i++) {
+            traces.increment(prefix, new StackTraceElement[] { new StackTraceElement("com.etsy.Foo", "foo", "Foo.java", i) }, 1);
+        }
+        // Every stack is still being sampled
+        traces.swapBuffers();
+        assertSame(tree, traces.getCallTree());
+        GaugeBatch batch = new GaugeBatch();
+        traces.drainInactive(batch, 1000L);
+        assertEquals(CPUTraces.MIN_NODES_BEFORE_REBUILD, batch.size());
+
+        StackTraceElement[] stack = new StackTraceElement[] { new StackTraceElement("com.etsy.Foo", "foo", "Foo.java", 1) };
+        traces.increment(prefix, stack, 3);
+        traces.swapBuffers();
+        assertNotSame(tree, traces.getCallTree());
+        batch.clear();
+        traces.drainInactive(batch, 2000L);
+        assertEquals(1, batch.size());
+        assertEquals(prefix + "com-etsy-Foo-foo-1", batch.keyAt(0));
+        assertEquals(3L, batch.longAt(0));
+
+        // Stacks of the old tree get the same keys in the new one
+        traces.increment(prefix, stack, 2);
+        assertEquals(2, traces.getCallTree().getNodeCount());
+        traces.swapBuffers();
+        batch.clear();
+        traces.drainInactive(batch, 3000L);
+        assertEquals(1, batch.size());
+        assertEquals(prefix + "com-etsy-Foo-foo-1", batch.keyAt(0));
+        assertEquals(2L, batch.longAt(0));
+    }
+
+    @Test
+    public void testSwapAndDrain() {
+        StackTraceElement[] stack = new StackTraceElement[] { new StackTraceElement("com.etsy.Foo", "foo", "Foo.java", 10) };
+        traces.increment("cpu.trace.", stack, 2);
+        traces.swapBuffers();
+        // Recorded in the new active buffer while the inactive one is drained
+        traces.increment("cpu.trace.", stack, 5);
+
+        Map<String, Number> drained = traces.drainInactive();
+        assertEquals(1, drained.size());
+        assertEquals(2L, drained.get("cpu.trace.com-etsy-Foo-foo-10"));
+        assertEquals(5L, traces.getDataToFlush().get("cpu.trace.com-etsy-Foo-foo-10"));
+    }
+
+    @Test
+    public void testDrainIntoBatch() {
+        StackTraceElement[] stack = new StackTraceElement[] { new StackTraceElement("com.etsy.Foo", "foo", "Foo.java", 10) };
+        traces.increment("cpu.trace.", stack, 2);
+        traces.swapBuffers();
+
+        GaugeBatch batch = new GaugeBatch();
+        traces.drainInactive(batch, 1000L);
+        assertEquals(1, batch.size());
+        assertEquals("cpu.trace.com-etsy-Foo-foo-10", batch.keyAt(0));
+        assertEquals(2L, batch.longAt(0));
+        assertEquals(1000L, batch.timestampAt(0));
+
+        traces.swapBuffers();
+        batch.clear();
+        traces.drainInactive(batch, 2000L);
+        assertTrue(batch.isEmpty());
+    }
+
     @Test
     public void testGetBounds() {
         traces.increment("cpu.trace.a.b.c", 1);
@@ -47,4 +193,17 @@ public class CPUTracesTest {
         assertEquals(3, bounds.getLeft());
         assertEquals(5, bounds.getRight());
     }
+
+    @Test
+    public void testGetBoundsOfStackTraces() {
+        StackTraceElement frame = new StackTraceElement("com.etsy.Foo", "foo", "Foo.java", 10);
+        traces.increment("cpu.trace.", new StackTraceElement[] { frame }, 1);
+        traces.increment("cpu.trace.", new StackTraceElement[] { frame, frame, frame }, 1);
+        // Frames are counted even though the tags contain dots and the frames are separated by |
+        traces.increment("cpu.trace,host=a.b.c" + TagUtil.TAG_SEPARATOR, new StackTraceElement[] { frame, frame }, 1);
+
+        Range bounds = traces.getBounds();
+        assertEquals(1, bounds.getLeft());
+        assertEquals(3, bounds.getRight());
+    }
 }
@@ -0,0 +1,61 @@
+package com.etsy.statsd.profiler.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CallTreeTest {
+    private CallTree tree;
+    private StackTraceElement[] stack;
+
+    @Before
+    public void setup() {
+        tree = new CallTree();
+        stack = new StackTraceElement[2];
+        stack[0] = new StackTraceElement("com.etsy.statsd.profiler.util.StackTraceFormatter",
+                "formatStackTraceElement", "StackTraceFormatter.java", 21);
+        stack[1] = new StackTraceElement("com.etsy.statsd.profiler.util.StackTraceFormatterTest",
+                "testFormatStackTraceElement", "StackTraceFormatterTest.java", 17);
+    }
+
+    @Test
+    public void testInternFrames() {
+        FrameDictionary frames = tree.getFrames();
+        int id = frames.intern(stack[0]);
+        assertEquals(id, frames.intern(new StackTraceElement(stack[0].getClassName(), stack[0].getMethodName(), null, 21)));
+        assertEquals(1, frames.size());
+        assertEquals(StackTraceFormatter.formatStackTraceElement(stack[0]), frames.getFormattedFrame(id));
+
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i + 1, frames.intern("com.etsy.Foo", "bar", i));
+        }
+        assertEquals(id, frames.intern(stack[0]));
+        assertEquals(5001, frames.size());
+    }
+
+    @Test
+    public void testInsert() {
+        CallTree.Node root = tree.getRoot("cpu.trace.");
+        CallTree.Node leaf = tree.insert(root, stack);
+
+        assertSame(leaf, tree.insert(root, stack.clone()));
+        assertSame(root, leaf.getRoot());
+        assertEquals(2, leaf.getDepth());
+        assertEquals(1, root.getChildCount());
+        assertEquals(tree.getFrames().intern(stack[1]), root.getChild(0).getFrameId());
+
+        CallTree.Node otherRoot = tree.getRoot("other.");
+        assertNotSame(leaf, tree.insert(otherRoot, stack));
+    }
+
+    @Test
+    public void testGetKey() {
+        CallTree.Node leaf = tree.insert(tree.getRoot("cpu.trace."), stack);
+
+        assertEquals("cpu.trace." + StackTraceFormatter.formatStackTrace(stack), tree.getKey(leaf));
+        assertSame(tree.getKey(leaf), tree.getKey(leaf));
+    }
+}
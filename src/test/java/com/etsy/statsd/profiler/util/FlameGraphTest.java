@@ -0,0 +1,150 @@
+package com.etsy.statsd.profiler.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FlameGraphTest {
+    private static final String WORKER = "cpu.trace,pool=worker" + TagUtil.TAG_SEPARATOR;
+    private static final String OTHER = "cpu.trace,pool=other" + TagUtil.TAG_SEPARATOR;
+
+    private CallTree tree;
+    private FlameGraph flameGraph;
+
+    @Before
+    public void setup() {
+        tree = new CallTree();
+        flameGraph = new FlameGraph(60000);
+    }
+
+    @Test
+    public void testRender() {
+        add(WORKER, 30, frame("com.etsy.Foo", "bar", 10), frame("com.etsy.Main", "run", 5));
+        add(WORKER, 10, frame("com.etsy.Foo", "<init>", 3), frame("com.etsy.Main", "run", 5));
+        flameGraph.finishFlush();
+
+        String svg = flameGraph.render(0, null, 0);
+        assertTrue(svg.startsWith("<?xml"));
+        assertTrue(svg.endsWith("</svg>\n"));
+        assertTrue(svg.contains("<title>all (40, 100.00%)</title>"));
+        assertTrue(svg.contains("<title>cpu.trace,pool=worker (40, 100.00%)</title>"));
+        assertTrue(svg.contains("<title>com.etsy.Main.run:5 (40, 100.00%)</title>"));
+        assertTrue(svg.contains("<title>com.etsy.Foo.bar:10 (30, 75.00%)</title>"));
+        assertTrue(svg.contains("<title>com.etsy.Foo.&lt;init&gt;:3 (10, 25.00%)</title>"));
+        assertFalse(svg.contains("<init>"));
+    }
+
+    @Test
+    public void testMergesFlushes() {
+        add(WORKER, 30, frame("com.etsy.Foo", "bar", 10));
+        flameGraph.finishFlush();
+        add(WORKER, 12, frame("com.etsy.Foo", "bar", 10));
+        flameGraph.finishFlush();
+
+        assertTrue(flameGraph.render(0, null, 0).contains("<title>com.etsy.Foo.bar:10 (42, 100.00%)</title>"));
+    }
+
+    @Test
+    public void testExpiresFlushes() throws InterruptedException {
+        flameGraph = new FlameGraph(50);
+        add(WORKER, 30, frame("com.etsy.Foo", "bar", 10), frame("com.etsy.Main", "run", 5));
+        flameGraph.finishFlush();
+        Thread.sleep(100);
+        add(WORKER, 12, frame("com.etsy.Foo", "baz", 11), frame("com.etsy.Main", "run", 5));
+        flameGraph.finishFlush();
+
+        String svg = flameGraph.render(0, null, 0);
+        assertTrue(svg.contains("<title>com.etsy.Main.run:5 (12, 100.00%)</title>"));
+        assertFalse(svg.contains("com.etsy.Foo.bar"));
+    }
+
+    @Test
+    public void testWindow() throws InterruptedException {
+        add(WORKER, 30, frame("com.etsy.Foo", "bar", 10));
+        flameGraph.finishFlush();
+        Thread.sleep(100);
+        add(WORKER, 12, frame("com.etsy.Foo", "bar", 10));
+        add(OTHER, 5, frame("com.etsy.Baz", "qux", 7));
+        flameGraph.finishFlush();
+
+        String svg = flameGraph.render(50, null, 0);
+        assertTrue(svg.contains("<title>com.etsy.Foo.bar:10 (12, 70.59%)</title>"));
+        svg = flameGraph.render(50, "pool=worker", 0);
+        assertTrue(svg.contains("<title>com.etsy.Foo.bar:10 (12, 100.00%)</title>"));
+        assertFalse(svg.contains("com.etsy.Baz"));
+        assertTrue(flameGraph.render(0, null, 0).contains("<title>com.etsy.Foo.bar:10 (42, 89.36%)</title>"));
+    }
+
+    @Test
+    public void testMergesCallTrees() {
+        add(WORKER, 30, frame("com.etsy.Foo", "bar", 10));
+        flameGraph.finishFlush();
+        // As when CPUTraces rebuilds its call tree
+        tree = new CallTree();
+        add(WORKER, 12, frame("com.etsy.Foo", "bar", 10));
+        flameGraph.finishFlush();
+
+        assertTrue(flameGraph.render(0, null, 0).contains("<title>com.etsy.Foo.bar:10 (42, 100.00%)</title>"));
+    }
+
+    @Test
+    public void testFilterByTag() {
+        add(WORKER, 30, frame("com.etsy.Foo", "bar", 10));
+        add(OTHER, 10, frame("com.etsy.Baz", "qux", 7));
+        flameGraph.finishFlush();
+
+        String svg = flameGraph.render(0, "pool=other", 0);
+        assertTrue(svg.contains("<title>com.etsy.Baz.qux:7 (10, 100.00%)</title>"));
+        assertFalse(svg.contains("com.etsy.Foo.bar"));
+        assertFalse(flameGraph.render(0, "pool=work", 0).contains("com.etsy"));
+    }
+
+    @Test
+    public void testMinWidth() {
+        add(WORKER, 1000, frame("com.etsy.Foo", "bar", 10));
+        add(WORKER, 1, frame("com.etsy.Foo", "tiny", 1));
+        flameGraph.finishFlush();
+
+        assertTrue(flameGraph.render(0, null, 0).contains("com.etsy.Foo.tiny:1"));
+        assertFalse(flameGraph.render(0, null, FlameGraph.DEFAULT_MIN_WIDTH * 100).contains("com.etsy.Foo.tiny:1"));
+    }
+
+    @Test
+    public void testEmpty() {
+        flameGraph.finishFlush();
+
+        String svg = flameGraph.render(1000, null, FlameGraph.DEFAULT_MIN_WIDTH);
+        assertTrue(svg.contains("No traces"));
+        assertFalse(svg.contains("class=\"frame\""));
+    }
+
+    @Test
+    public void testTrim() {
+        assertEquals("", FlameGraph.trim("com.etsy.Foo.bar:10", 10));
+        assertEquals("com.etsy.Foo.bar:10", FlameGraph.trim("com.etsy.Foo.bar:10", 1000));
+        String trimmed = FlameGraph.trim("com.etsy.Foo.bar:10", 80);
+        assertTrue(trimmed.endsWith(".."));
+        assertTrue(trimmed.length() < "com.etsy.Foo.bar:10".length());
+    }
+
+    @Test
+    public void testEscape() {
+        assertEquals("a &lt;b&gt; &amp; &quot;c&quot;", FlameGraph.escape("a <b> & \"c\""));
+    }
+
+    /**
+     * Insert a stack, innermost frame first, and add its node as the drain does once its key is built
+     */
+    private void add(String prefix, long count, StackTraceElement... stack) {
+        CallTree.Node node = tree.insert(tree.getRoot(prefix), stack);
+        tree.getKey(node);
+        flameGraph.add(node, count);
+    }
+
+    private static StackTraceElement frame(String className, String methodName, int line) {
+        return new StackTraceElement(className, methodName, null, line);
+    }
+}
@@ -0,0 +1,49 @@
+package com.etsy.statsd.profiler.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JfrAllocationSamplerTest {
+    private static volatile Object sink;
+
+    @Test
+    public void testRecordSamples() throws InterruptedException, ReflectiveOperationException {
+        Assume.assumeTrue(JfrSupport.isAvailable());
+        Assume.assumeTrue(JfrSupport.isEventAvailable(JfrSupport.ALLOCATION_SAMPLE_EVENT));
+
+        CPUTraces traces = new CPUTraces();
+        JfrSampler sampler = JfrSupport.newAllocationSampler(traces, "alloc.trace,class=", "1000/s", 5);
+        sampler.start();
+        long end = System.currentTimeMillis() + 2000;
+        while (System.currentTimeMillis() < end) {
+            sink = new long[1024];
+        }
+        // JFR delivers events to the stream roughly once a second
+        Thread.sleep(1500);
+        sampler.close();
+
+        Map<String, Number> data;
+        synchronized (traces) {
+            data = traces.getDataToFlush();
+        }
+        assertFalse(data.isEmpty());
+        for (Map.Entry<String, Number> entry : data.entrySet()) {
+            assertTrue(entry.getKey(), entry.getKey().startsWith("alloc.trace,class="));
+            assertTrue(entry.getKey(), entry.getKey().contains(TagUtil.TAG_SEPARATOR));
+            assertTrue(entry.getValue().longValue() > 0);
+        }
+    }
+
+    @Test
+    public void testIsEventAvailable() {
+        Assume.assumeTrue(JfrSupport.isAvailable());
+
+        assertTrue(JfrSupport.isEventAvailable("jdk.ExecutionSample"));
+        assertFalse(JfrSupport.isEventAvailable("jdk.NoSuchEvent"));
+    }
+}
@@ -0,0 +1,48 @@
+package com.etsy.statsd.profiler.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JfrExecutionSamplerTest {
+    private static volatile double sink;
+
+    @Test
+    public void testRecordSamples() throws InterruptedException, ReflectiveOperationException {
+        Assume.assumeTrue(JfrSupport.isAvailable());
+
+        CPUTraces traces = new CPUTraces();
+        JfrSampler sampler = JfrSupport.newExecutionSampler(traces, "cpu.trace.", 10, 5, null);
+        sampler.start();
+        Thread busy = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long end = System.currentTimeMillis() + 2500;
+                double x = 0;
+                while (System.currentTimeMillis() < end) {
+                    x += Math.sqrt(x + 1);
+                }
+                sink = x;
+            }
+        });
+        busy.start();
+        busy.join();
+        // JFR delivers events to the stream roughly once a second
+        Thread.sleep(1500);
+        sampler.close();
+
+        Map<String, Number> data;
+        synchronized (traces) {
+            data = traces.getDataToFlush();
+        }
+        assertFalse(data.isEmpty());
+        for (String key : data.keySet()) {
+            assertTrue(key, key.startsWith("cpu.trace."));
+            assertTrue(key, key.split("\\|").length <= 5);
+        }
+    }
+}
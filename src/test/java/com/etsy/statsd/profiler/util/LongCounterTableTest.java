@@ -0,0 +1,113 @@
+package com.etsy.statsd.profiler.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LongCounterTableTest {
+    private LongCounterTable table;
+
+    @Before
+    public void setup() {
+        table = new LongCounterTable(8);
+    }
+
+    @Test
+    public void testAdd() {
+        table.add(LongCounterTable.hash("a"), "a", 1);
+        table.add(LongCounterTable.hash("b"), "b", 5);
+        assertEquals(3, table.add(LongCounterTable.hash("a"), "a", 2));
+
+        assertEquals(2, table.size());
+        assertEquals("a", table.keyAt(0));
+        assertEquals(3, table.countAt(0));
+        assertEquals("b", table.keyAt(1));
+        assertEquals(5, table.countAt(1));
+    }
+
+    @Test
+    public void testHashCollision() {
+        table.add(42, "a", 1);
+        table.add(42, "b", 2);
+        table.add(42, "a", 1);
+
+        assertEquals(2, table.size());
+        assertEquals(2, table.get(42, "a"));
+        assertEquals(2, table.get(42, "b"));
+        assertEquals(0, table.get(42, "c"));
+    }
+
+    @Test
+    public void testHashOnlyKeys() {
+        assertEquals(0, table.put(7, null, 100));
+        assertEquals(100, table.put(7, null, 200));
+        assertEquals(200, table.get(7, null));
+        assertEquals(0, table.get(8, null));
+    }
+
+    @Test
+    public void testReset() {
+        table.add(1, "a", 1);
+        table.add(2, "b", 1);
+        table.reset();
+
+        assertEquals(0, table.size());
+        assertEquals(0, table.get(1, "a"));
+        assertEquals(2, table.capacityUsed());
+
+        table.add(2, "b", 4);
+        assertEquals(1, table.size());
+        assertEquals("b", table.keyAt(0));
+        assertEquals(4, table.countAt(0));
+
+        table.clear();
+        assertEquals(0, table.capacityUsed());
+    }
+
+    @Test
+    public void testEvictUntouched() {
+        for (int i = 0; i < 1000; i++) {
+            table.add(LongCounterTable.hash("key" + i), "key" + i, 1);
+        }
+        table.reset();
+        table.add(LongCounterTable.hash("key7"), "key7", 2);
+        table.add(LongCounterTable.hash("key3"), "key3", 5);
+
+        assertEquals(998, table.evictUntouched());
+        assertEquals(2, table.capacityUsed());
+        assertEquals(2, table.size());
+        assertEquals("key7", table.keyAt(0));
+        assertEquals(2, table.countAt(0));
+        assertEquals(5, table.get(LongCounterTable.hash("key3"), "key3"));
+        assertEquals(0, table.get(LongCounterTable.hash("key5"), "key5"));
+        assertEquals(0, table.evictUntouched());
+
+        table.reset();
+        assertEquals(2, table.evictUntouched());
+        assertEquals(0, table.capacityUsed());
+        table.add(LongCounterTable.hash("key5"), "key5", 1);
+        assertEquals(1, table.get(LongCounterTable.hash("key5"), "key5"));
+    }
+
+    @Test
+    public void testResize() {
+        for (int i = 0; i < 10000; i++) {
+            table.add(LongCounterTable.hash("key" + i), "key" + i, i);
+        }
+        table.reset();
+        for (int i = 0; i < 10000; i += 2) {
+            table.add(LongCounterTable.hash("key" + i), "key" + i, i);
+        }
+        for (int i = 0; i < 10000; i += 2) {
+            table.add(LongCounterTable.hash("new" + i), "new" + i, 1);
+        }
+
+        assertEquals(10000, table.size());
+        assertEquals(15000, table.capacityUsed());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals("key" + i * 2, table.keyAt(i));
+            assertEquals(i * 2, table.countAt(i));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.etsy.statsd.profiler.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SamplingGovernorTest {
+    private static final long MS = 1000000L;
+
+    @Test
+    public void testCheapSamplesKeepBasePeriod() {
+        SamplingGovernor governor = new SamplingGovernor(10 * MS, 1000 * MS, 0.01);
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            assertTrue(governor.shouldSample(now));
+            governor.recordSample(now, now + 50000);
+            now += 10 * MS;
+        }
+
+        assertEquals(10 * MS, governor.getPeriodNanos());
+        assertEquals(0.005, governor.takeOverhead(now), 0.0001);
+    }
+
+    @Test
+    public void testExpensiveSamplesSlowDown() {
+        SamplingGovernor governor = new SamplingGovernor(10 * MS, 1000 * MS, 0.01);
+        assertTrue(governor.shouldSample(0));
+        // 1ms per sample needs a 100ms period to stay at 1%
+        governor.recordSample(0, MS);
+        assertEquals(100 * MS, governor.getPeriodNanos());
+
+        int samples = 0;
+        for (long now = 10 * MS; now <= 1000 * MS; now += 10 * MS) {
+            if (governor.shouldSample(now)) {
+                samples++;
+                governor.recordSample(now, now + MS);
+            }
+        }
+        assertEquals(10, samples);
+        assertEquals(0.01, governor.takeOverhead(1000 * MS), 0.001);
+    }
+
+    @Test
+    public void testSpeedsBackUp() {
+        SamplingGovernor governor = new SamplingGovernor(10 * MS, 1000 * MS, 0.01);
+        long now = 0;
+        governor.shouldSample(now);
+        governor.recordSample(now, now + 5 * MS);
+        assertEquals(500 * MS, governor.getPeriodNanos());
+
+        for (int i = 0; i < 500; i++) {
+            now += 10 * MS;
+            if (governor.shouldSample(now)) {
+                governor.recordSample(now, now + 10000);
+            }
+        }
+        assertEquals(10 * MS, governor.getPeriodNanos());
+    }
+
+    @Test
+    public void testMaxPeriod() {
+        SamplingGovernor governor = new SamplingGovernor(10 * MS, 50 * MS, 0.01);
+        governor.shouldSample(0);
+        governor.recordSample(0, 100 * MS);
+        assertEquals(50 * MS, governor.getPeriodNanos());
+        assertFalse(governor.shouldSample(10 * MS));
+    }
+
+    @Test
+    public void testSchedulingDelayCounts() {
+        SamplingGovernor governor = new SamplingGovernor(10 * MS, 1000 * MS, 0.01);
+        governor.shouldSample(0);
+        governor.recordSample(0, 100000);
+        // The next tick is 2ms late
+        assertTrue(governor.shouldSample(12 * MS));
+        governor.recordSample(12 * MS, 12 * MS + 100000);
+        assertEquals(0.0022, governor.takeOverhead(1000 * MS), 0.00001);
+    }
+}
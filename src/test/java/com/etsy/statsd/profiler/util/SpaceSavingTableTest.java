@@ -0,0 +1,70 @@
+package com.etsy.statsd.profiler.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SpaceSavingTableTest {
+    @Test
+    public void testExactWhileNotFull() {
+        SpaceSavingTable table = new SpaceSavingTable(4);
+        table.add(LongCounterTable.hash("a"), "a", 3);
+        table.add(LongCounterTable.hash("b"), "b", 1);
+        table.add(LongCounterTable.hash("a"), "a", 2);
+
+        assertEquals(2, table.size());
+        assertEquals(6, table.getTotal());
+        int[] top = table.topIndexes(1);
+        assertEquals(1, top.length);
+        assertEquals("a", table.keyAt(top[0]));
+        assertEquals(5, table.countAt(top[0]));
+        assertEquals(0, table.errorAt(top[0]));
+    }
+
+    @Test
+    public void testEvictsMinimum() {
+        SpaceSavingTable table = new SpaceSavingTable(2);
+        table.add(1, null, 10);
+        table.add(2, null, 1);
+        table.add(3, null, 2);
+
+        assertEquals(2, table.size());
+        Map<Long, Long> counts = new HashMap<>();
+        Map<Long, Long> errors = new HashMap<>();
+        for (int i = 0; i < table.size(); i++) {
+            counts.put(table.hashAt(i), table.countAt(i));
+            errors.put(table.hashAt(i), table.errorAt(i));
+        }
+        assertEquals(Long.valueOf(10), counts.get(1L));
+        // Key 3 replaced key 2 and inherited its count as error
+        assertEquals(Long.valueOf(3), counts.get(3L));
+        assertEquals(Long.valueOf(1), errors.get(3L));
+        assertEquals(13, table.getTotal());
+    }
+
+    @Test
+    public void testHeavyHittersSurviveManyDistinctKeys() {
+        SpaceSavingTable table = new SpaceSavingTable(16);
+        for (long i = 0; i < 10000; i++) {
+            table.add(100000 + i, null, 1);
+            if (i % 10 == 0) {
+                table.add(7, null, 1);
+            }
+        }
+
+        assertEquals(16, table.size());
+        // Key 7 has more than total / capacity so it is guaranteed to be tracked
+        int[] top = table.topIndexes(1);
+        assertEquals(7, table.hashAt(top[0]));
+        assertTrue(table.countAt(top[0]) - table.errorAt(top[0]) <= 1000);
+        assertTrue(table.countAt(top[0]) >= 1000);
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(0, table.getTotal());
+    }
+}
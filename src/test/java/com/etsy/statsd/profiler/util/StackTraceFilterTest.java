@@ -77,4 +77,30 @@ public class StackTraceFilterTest {
             assertFalse(o, filter.includeStackTrace(o));
         }
     }
+
+    @Test
+    public void testIncludeStackTraceElements() {
+        StackTraceElement etsy = new StackTraceElement("com.etsy.foo.Foo", "fooTest", "Foo.java", 1);
+        StackTraceElement guava = new StackTraceElement("com.google.guava.Foo", "helloWorld", "Foo.java", 2);
+        StackTraceElement profiler = new StackTraceElement("com.etsy.statsd.profiler.Agent", "premain", "Agent.java", 3);
+
+        assertTrue(filter.includeStackTrace(new StackTraceElement[] { etsy }));
+        // Any frame in an included package is enough
+        assertTrue(filter.includeStackTrace(new StackTraceElement[] { guava, etsy }));
+        assertFalse(filter.includeStackTrace(new StackTraceElement[] { guava }));
+        // Any frame in an excluded package rejects the stack
+        assertFalse(filter.includeStackTrace(new StackTraceElement[] { etsy, profiler }));
+
+        assertEquals(StackTraceFilter.INCLUDE_MATCH, filter.getClassVerdicts("com.etsy.foo.Foo"));
+        assertEquals(StackTraceFilter.INCLUDE_MATCH | StackTraceFilter.EXCLUDE_MATCH, filter.getClassVerdicts("com.etsy.statsd.profiler.Agent"));
+        assertEquals(StackTraceFilter.NO_MATCH, filter.getClassVerdicts("com.google.guava.Foo"));
+        assertEquals(StackTraceFilter.NO_MATCH, filter.getClassVerdicts("com.ets"));
+    }
+
+    @Test
+    public void testDefaultFilterIncludesEverything() {
+        StackTraceFilter everything = new StackTraceFilter(null, Collections.<String>emptyList());
+        assertTrue(everything.includeStackTrace(new StackTraceElement[] {
+                new StackTraceElement("com.google.guava.Foo", "helloWorld", "Foo.java", 2) }));
+    }
 }
@@ -73,4 +73,15 @@ public class TagUtilTest {
 
         assertEquals(expected, TagUtil.getTags(tagMapping, prefix, true));
     }
+
+    @Test
+    public void testAddTag() {
+        assertEquals("cpu.trace,pool=main" + TagUtil.TAG_SEPARATOR,
+                TagUtil.addTag("cpu.trace" + TagUtil.TAG_SEPARATOR, "pool", "main"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddTagWithoutSeparator() {
+        TagUtil.addTag("cpu.trace", "pool", "main");
+    }
 }
@@ -0,0 +1,54 @@
+package com.etsy.statsd.profiler.util;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadCpuTimerTest {
+    private static volatile double sink;
+
+    @Test
+    public void testUpdate() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        ThreadCpuTimer timer = new ThreadCpuTimer(threadMXBean);
+        long[] ids = new long[] { Thread.currentThread().getId(), Long.MAX_VALUE };
+
+        long[] deltas = timer.update(ids);
+        assertEquals(ThreadCpuTimer.UNKNOWN, deltas[0]);
+        assertEquals(ThreadCpuTimer.UNKNOWN, deltas[1]);
+
+        long before = threadMXBean.getCurrentThreadCpuTime();
+        double x = 0;
+        for (int i = 0; i < 10000000; i++) {
+            x += Math.sqrt(i);
+        }
+        sink = x;
+        long used = threadMXBean.getCurrentThreadCpuTime() - before;
+
+        deltas = timer.update(ids);
+        assertTrue(deltas[0] > 0);
+        assertTrue(deltas[0] >= used);
+        assertEquals(ThreadCpuTimer.UNKNOWN, deltas[1]);
+    }
+
+    @Test
+    public void testBulkThreadMXBean() {
+        // The tests run on HotSpot-derived JVMs, which all have the bulk API
+        assertNotNull(ThreadCpuTimer.getBulkThreadMXBean(ManagementFactory.getThreadMXBean()));
+    }
+
+    @Test
+    public void testIsSupported() {
+        ThreadMXBean unsupported = Mockito.mock(ThreadMXBean.class);
+        Mockito.when(unsupported.isThreadCpuTimeSupported()).thenReturn(false);
+        assertFalse(ThreadCpuTimer.isSupported(unsupported));
+        assertEquals(ManagementFactory.getThreadMXBean().isThreadCpuTimeSupported(), ThreadCpuTimer.isSupported());
+    }
+}
@@ -0,0 +1,55 @@
+package com.etsy.statsd.profiler.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ThreadNameNormalizerTest {
+    @Test
+    public void testDefaultRule() {
+        ThreadNameNormalizer normalizer = new ThreadNameNormalizer();
+        assertEquals("pool-N-thread-N", normalizer.normalize("pool-3-thread-17"));
+        assertEquals("my_worker_N", normalizer.normalize("my worker,3"));
+        assertEquals("main", normalizer.normalize("main"));
+    }
+
+    @Test
+    public void testRules() {
+        ThreadNameNormalizer normalizer = new ThreadNameNormalizer(new String[] {
+                "^hystrix-(\\w+)-\\d+$->hystrix-$1", "^qtp\\d+-\\d+$->jetty" });
+        assertEquals("hystrix-foo", normalizer.normalize("hystrix-foo-42"));
+        assertEquals("jetty", normalizer.normalize("qtp1297685781-23"));
+        // Falls back to collapsing digits when no rule matches
+        assertEquals("pool-N-thread-N", normalizer.normalize("pool-3-thread-17"));
+    }
+
+    @Test
+    public void testStatsDSeparatorsReplaced() {
+        ThreadNameNormalizer normalizer = new ThreadNameNormalizer();
+        assertEquals("RMI_TCP_Connection(N)-N_N_N_N", normalizer.normalize("RMI TCP Connection(2)-10.0.0.1"));
+        assertEquals("host_N_worker", normalizer.normalize("host:8080 worker"));
+        assertEquals("my_thread_N_1", ThreadNameNormalizer.toThreadTagValue("my.thread:N.1"));
+        // Class names keep their dots
+        assertEquals("java.lang.String", ThreadNameNormalizer.toTagValue("java.lang.String"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRule() {
+        new ThreadNameNormalizer(new String[] { "no-replacement" });
+    }
+
+    @Test
+    public void testCachedPerThreadId() {
+        ThreadNameNormalizer normalizer = new ThreadNameNormalizer();
+        assertNull(normalizer.getCachedPool(1));
+        assertEquals("worker-N", normalizer.normalize(1, "worker-1"));
+        assertEquals("worker-N", normalizer.getCachedPool(1));
+        assertEquals("worker-1", normalizer.getCachedName(1));
+
+        // A renamed thread is normalized again
+        assertEquals("renamed", normalizer.normalize(1, "renamed"));
+        assertEquals("renamed", normalizer.getCachedPool(1));
+        assertEquals(ThreadNameNormalizer.UNKNOWN, normalizer.normalize(2, null));
+    }
+}
@@ -0,0 +1,107 @@
+package com.etsy.statsd.profiler.util;
+
+import com.etsy.statsd.profiler.worker.ProfilerThreadFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadSamplerTest {
+    private CountDownLatch latch;
+    private Thread appThread;
+    private Thread profilerThread;
+
+    @Before
+    public void setup() {
+        latch = new CountDownLatch(1);
+        Runnable waiter = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        appThread = new Thread(waiter, "app-thread");
+        profilerThread = new ProfilerThreadFactory().newThread(waiter);
+        appThread.start();
+        profilerThread.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        latch.countDown();
+        appThread.join();
+        profilerThread.join();
+    }
+
+    @Test
+    public void testSample() {
+        ThreadSampler sampler = new ThreadSampler(ManagementFactory.getThreadMXBean(), 3, Long.MAX_VALUE);
+        boolean sawAppThread = false;
+        for (ThreadInfo info : sampler.sample()) {
+            if (info == null) {
+                continue;
+            }
+            assertFalse(info.getThreadId() == profilerThread.getId());
+            assertFalse(info.getThreadId() == Thread.currentThread().getId());
+            assertTrue(info.getStackTrace().length <= 3);
+            if (info.getThreadId() == appThread.getId()) {
+                sawAppThread = true;
+            }
+        }
+
+        assertTrue(sawAppThread);
+    }
+
+    @Test
+    public void testExcludesProfilerThreadsByName() throws InterruptedException {
+        Thread namedThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, ProfilerThreadFactory.NAME_PREFIX + "-named");
+        namedThread.start();
+        try {
+            ThreadSampler sampler = new ThreadSampler(ManagementFactory.getThreadMXBean(), 3, Long.MAX_VALUE);
+            for (ThreadInfo info : sampler.sample()) {
+                assertFalse(info != null && info.getThreadId() == namedThread.getId());
+            }
+        } finally {
+            latch.countDown();
+            namedThread.join();
+        }
+    }
+
+    @Test
+    public void testCachedThreadIds() throws InterruptedException {
+        ThreadSampler sampler = new ThreadSampler(ManagementFactory.getThreadMXBean(), 3, Long.MAX_VALUE);
+        sampler.sample();
+        long[] ids = sampler.getThreadIds();
+
+        latch.countDown();
+        appThread.join();
+        sampler.sample();
+
+        assertEquals(ids, sampler.getThreadIds());
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == appThread.getId()) {
+                assertEquals(null, sampler.sample()[i]);
+            }
+        }
+    }
+}
@@ -16,5 +16,35 @@ public class ProfilerThreadFactoryTest {
         });
 
         assertTrue(t.getName().startsWith(ProfilerThreadFactory.NAME_PREFIX));
+        assertTrue(ProfilerThreadFactory.isProfilerThread(t.getId()));
+        assertFalse(ProfilerThreadFactory.isProfilerThread(Thread.currentThread().getId()));
+    }
+
+    @Test
+    public void testThreadIdRemovedOnExit() throws InterruptedException {
+        Thread t = new ProfilerThreadFactory().newThread(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+        long id = t.getId();
+        assertTrue(ProfilerThreadFactory.isProfilerThread(id));
+
+        t.start();
+        t.join();
+        assertFalse(ProfilerThreadFactory.isProfilerThread(id));
+    }
+
+    @Test
+    public void testRegisteredOrNamedThreads() {
+        long id = Thread.currentThread().getId();
+        assertTrue(ProfilerThreadFactory.isProfilerThread(id, ProfilerThreadFactory.NAME_PREFIX + "-shutdown"));
+        assertFalse(ProfilerThreadFactory.isProfilerThread(id, "main"));
+        assertFalse(ProfilerThreadFactory.isProfilerThread(id, null));
+
+        ProfilerThreadFactory.register(id);
+        assertTrue(ProfilerThreadFactory.isProfilerThread(id, "main"));
+        ProfilerThreadFactory.unregister(id);
+        assertFalse(ProfilerThreadFactory.isProfilerThread(id));
     }
 }
@@ -4,7 +4,7 @@ from influxdb import InfluxDBClient
 import sys
 
 class InfluxDBDump:
-    def __init__(self, host, port, username, password, database, prefix, begin, end, tagmapping):
+    def __init__(self, host, port, username, password, database, prefix, begin, end, tagmapping, measurement):
         self.host = host
         self.port = port
         self.username = username
@@ -17,11 +17,12 @@ class InfluxDBDump:
         self.prefix=prefix
         self.begin=begin
         self.end=end
+        self.measurement=measurement
 
     def run(self):
         # f = open('c:/devops/explore/statsd-jvm/visualization/influxdb-dashboard/public/scripts/flame','w')
         # clauses = ["%s ='%s'" % (tag, value) for (tag, value) in self.mapped_tags.items()]
-        measurement_name=self.prefix+"_cpu_trace"
+        measurement_name=self.prefix+"_"+self.measurement
         query = 'select type, value from /'+measurement_name+'/' #where %s' % " and ".join(clauses)
         whereExists=False
         if self.begin:
@@ -88,6 +89,7 @@ def get_arg_parser():
     parser.add_option('-b', '--begin', dest='begin', help='Data points equal or after this time will be fetched, format is YYYY-MM-DDTHH:MM:SSZ', metavar='PREFIX')
     parser.add_option('-n', '--end', dest='end', help='Data points before this time will be fetched, format is YYYY-MM-DDTHH:MM:SSZ', metavar='PREFIX')
     parser.add_option('-t', '--tagmapping', dest='tagmapping', help='Tag mapping for metric prefix', metavar='MAPPING')
+    parser.add_option('-m', '--measurement', dest='measurement', help='Trace measurement to dump, e.g. offcpu_trace (defaults to cpu_trace)', metavar='MEASUREMENT')
 
     return parser
 
@@ -99,6 +101,7 @@ if __name__ == '__main__':
         sys.exit(255)
     port = args.port or 8086
     # tag_mapping = args.mapping or None
-    dumper = InfluxDBDump(args.host, port, args.username, args.password, args.database, args.prefix, args.begin, args.end, args.tagmapping)
+    measurement = args.measurement or 'cpu_trace'
+    dumper = InfluxDBDump(args.host, port, args.username, args.password, args.database, args.prefix, args.begin, args.end, args.tagmapping, measurement)
     dumper.run()
 